@@ -32,6 +32,7 @@ public class VectorBenchmark {
     private final static int NUM_FEATURE_VECTORS = 10;
     private final double[] weights = new double[NUM_DIMENSIONS];
     private Vector weightVector;
+    private Vector otherWeightVector;
     private List<LongDoubleMap> gsFeatureVectors = new ArrayList<>();
     private List<Vector> featureVectors = new ArrayList<>();
 
@@ -55,6 +56,16 @@ public class VectorBenchmark {
         }
     }
 
+    @Benchmark
+    public double denseDenseDotProduct() throws Exception {
+        return weightVector.dotProduct(otherWeightVector);
+    }
+
+    @Benchmark
+    public void denseDenseAddInPlace() throws Exception {
+        weightVector.addInPlace(1.0e-6, otherWeightVector);
+    }
+
     @Setup
     public void up() {
         Random rand = new Random(0);
@@ -63,6 +74,7 @@ public class VectorBenchmark {
             weights[i] = 2.0 * (rand.nextDouble() - 0.5);
         }
         weightVector = DenseVector.of(weights);
+        otherWeightVector = weightVector.scale(0.5);
         gsFeatureVectors = IntStream.range(0, NUM_FEATURE_VECTORS)
             .mapToObj(ignored -> {
                 MutableLongDoubleMap vec = new LongDoubleHashMap(NUM_FEATURE_VECTORS);
@@ -0,0 +1,101 @@
+package org.allenai.ml.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a saved weight array the way models used to (one `readDouble` at a time) vs. the bulk stream,
+ * channel and memory-mapped paths in `IOUtils`
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class IOBenchmark {
+
+    // 32MB of weights
+    private final static int NUM_DOUBLES = 1 << 22;
+    private File file;
+
+    @Setup
+    public void up() throws IOException {
+        Random rand = new Random(0);
+        double[] xs = new double[NUM_DOUBLES];
+        for (int idx = 0; idx < xs.length; idx++) {
+            xs[idx] = rand.nextGaussian();
+        }
+        file = File.createTempFile("io-benchmark", "doubles");
+        file.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(file))) {
+            IOUtils.saveDoubles(dos, xs);
+        }
+    }
+
+    @TearDown
+    public void down() {
+        file.delete();
+    }
+
+    @Benchmark
+    public double[] perDoubleStream() throws IOException {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            int n = dis.readInt();
+            double[] xs = new double[n];
+            for (int idx = 0; idx < n; idx++) {
+                xs[idx] = dis.readDouble();
+            }
+            return xs;
+        }
+    }
+
+    @Benchmark
+    public double[] perDoubleBufferedStream() throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int n = dis.readInt();
+            double[] xs = new double[n];
+            for (int idx = 0; idx < n; idx++) {
+                xs[idx] = dis.readDouble();
+            }
+            return xs;
+        }
+    }
+
+    @Benchmark
+    public double[] bulkStream() throws IOException {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            return IOUtils.loadDoubles(dis);
+        }
+    }
+
+    @Benchmark
+    public double[] bulkChannel() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return IOUtils.loadDoubles(channel);
+        }
+    }
+
+    @Benchmark
+    public double mapped() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // touch every page so the comparison includes reading the data
+            return IOUtils.mapDoubles(channel).l2NormSquared();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+            .include(".*" + IOBenchmark.class.getSimpleName() + ".*")
+            .build();
+        new Runner(opts).run();
+    }
+}
@@ -5,86 +5,229 @@ import com.gs.collections.api.tuple.Pair;
 import com.gs.collections.api.tuple.primitive.IntObjectPair;
 import com.gs.collections.impl.tuple.Tuples;
 import com.gs.collections.impl.tuple.primitive.PrimitiveTuples;
-import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.val;
 import org.allenai.ml.linalg.DenseVector;
-import org.allenai.ml.linalg.SparseVector;
+import org.allenai.ml.linalg.FloatDenseVector;
+import org.allenai.ml.linalg.ImmutableSparseVector;
 import org.allenai.ml.linalg.Vector;
 import org.allenai.ml.objective.BatchObjectiveFn;
 import org.allenai.ml.optimize.*;
+import org.allenai.ml.util.FeatureHasher;
 import org.allenai.ml.util.IOUtils;
 import org.allenai.ml.util.Indexer;
 import org.allenai.ml.util.Parallel;
+import org.allenai.ml.util.ShardedCounter;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-@RequiredArgsConstructor
 public class MaxEntModel<L extends Comparable<L>, D, F extends Comparable<F>> implements ProbabilisticClassifier<D, L> {
+    // Exactly one of featureIndexer and featureHasher is set
     private final Indexer<F> featureIndexer;
+    private final FeatureHasher<F> featureHasher;
     private final Indexer<L> classIndexer;
     private final Vector weights;
     private final FeatureExtractor<D, F> featureExtractor;
 
+    public MaxEntModel(Indexer<F> featureIndexer,
+                       Indexer<L> classIndexer,
+                       Vector weights,
+                       FeatureExtractor<D, F> featureExtractor) {
+        this(featureIndexer, null, classIndexer, weights, featureExtractor);
+    }
+
+    /**
+     * Model which hashes features into buckets rather than indexing them. See `FeatureHasher`.
+     */
+    public MaxEntModel(FeatureHasher<F> featureHasher,
+                       Indexer<L> classIndexer,
+                       Vector weights,
+                       FeatureExtractor<D, F> featureExtractor) {
+        this(null, featureHasher, classIndexer, weights, featureExtractor);
+    }
+
+    private MaxEntModel(Indexer<F> featureIndexer,
+                        FeatureHasher<F> featureHasher,
+                        Indexer<L> classIndexer,
+                        Vector weights,
+                        FeatureExtractor<D, F> featureExtractor) {
+        this.featureIndexer = featureIndexer;
+        this.featureHasher = featureHasher;
+        this.classIndexer = classIndexer;
+        this.weights = weights;
+        this.featureExtractor = featureExtractor;
+    }
+
+    private static <F extends Comparable<F>> Vector featureVector(ObjectDoubleMap<F> featureMap,
+                                                                  Indexer<F> featureIndexer,
+                                                                  FeatureHasher<F> featureHasher) {
+        return featureHasher != null
+            ? ImmutableSparseVector.hashed(featureMap, featureHasher)
+            : ImmutableSparseVector.indexed(featureMap, featureIndexer);
+    }
+
     @Override
     public ObjectDoubleMap<L> probabilities(D datum) {
         ObjectDoubleMap<F> featureMap = featureExtractor.features(datum);
-        SparseVector featVec = SparseVector.indexed(featureMap, featureIndexer);
+        Vector featVec = featureVector(featureMap, featureIndexer, featureHasher);
         double[] classProbs = MaxEntObjective.classProbs(featVec, weights, classIndexer.size());
         return classIndexer.toMap(DenseVector.of(classProbs));
     }
 
-    @SneakyThrows
     public static <D> MaxEntModel<String, D, String> load(DataInputStream dis,
                                                           FeatureExtractor<D, String> featureExtractor) {
-        val featureIndexer = Indexer.load(dis);
+        return load(dis, featureExtractor, false);
+    }
+
+    /**
+     * @param singlePrecision store the weights as a `FloatDenseVector`, halving their memory at the cost of
+     *                        precision. Only suitable for inference.
+     */
+    @SneakyThrows
+    public static <D> MaxEntModel<String, D, String> load(DataInputStream dis,
+                                                          FeatureExtractor<D, String> featureExtractor,
+                                                          boolean singlePrecision) {
+        val features = loadFeatures(dis);
         val classIndexer = Indexer.load(dis);
-        Vector weights = DenseVector.of(IOUtils.loadDoubles(dis));
-        return new MaxEntModel<>(featureIndexer, classIndexer, weights, featureExtractor);
+        Vector weights = singlePrecision
+            ? FloatDenseVector.of(IOUtils.loadDoublesAsFloats(dis))
+            : DenseVector.of(IOUtils.loadDoubles(dis));
+        return new MaxEntModel<>(features.getOne(), features.getTwo(), classIndexer, weights, featureExtractor);
+    }
+
+    /**
+     * Load a model saved by `save` from `channel`'s current position. The indexers and weights are read in bulk
+     * from the channel or, if `memoryMap`, mapped read-only (see `Indexer.map` and `IOUtils.mapDoubles`).
+     */
+    @SneakyThrows
+    public static <D> MaxEntModel<String, D, String> load(FileChannel channel,
+                                                          FeatureExtractor<D, String> featureExtractor,
+                                                          boolean memoryMap) {
+        if (memoryMap) {
+            long start = channel.position();
+            String version = IOUtils.readHeader(channel, MaxEntModel::readVersion);
+            FeatureHasher<String> featureHasher = null;
+            Indexer<String> featureIndexer = null;
+            if (version.equals(HASHED_FEATURES_VERSION)) {
+                featureHasher = IOUtils.readHeader(channel, MaxEntModel::loadHasher);
+            } else {
+                // the indexer reads its own version
+                channel.position(start);
+                featureIndexer = Indexer.map(channel);
+            }
+            val classIndexer = Indexer.map(channel);
+            return new MaxEntModel<>(featureIndexer, featureHasher, classIndexer, IOUtils.mapDoubles(channel),
+                featureExtractor);
+        }
+        val header = IOUtils.readHeader(channel, dis -> Tuples.pair(loadFeatures(dis), loadClasses(dis)));
+        val features = header.getOne();
+        Vector weights = DenseVector.of(IOUtils.loadDoubles(channel));
+        return new MaxEntModel<>(features.getOne(), features.getTwo(), header.getTwo(), weights, featureExtractor);
+    }
+
+    // Written in place of the feature indexer's version by models that hash features
+    private final static String HASHED_FEATURES_VERSION = "hashed-features-1.0";
+
+    /**
+     * @return (indexer, null) or, for a model that hashes features, (null, hasher)
+     */
+    @SneakyThrows
+    private static Pair<Indexer<String>, FeatureHasher<String>> loadFeatures(DataInputStream dis) {
+        String version = dis.readUTF();
+        if (version.equals(HASHED_FEATURES_VERSION)) {
+            return Tuples.pair(null, FeatureHasher.load(dis));
+        }
+        return Tuples.pair(Indexer.load(dis, version), null);
+    }
+
+    @SneakyThrows
+    private static Indexer<String> loadClasses(DataInputStream dis) {
+        return Indexer.load(dis);
+    }
+
+    @SneakyThrows
+    private static String readVersion(DataInputStream dis) {
+        return dis.readUTF();
+    }
+
+    @SneakyThrows
+    private static FeatureHasher<String> loadHasher(DataInputStream dis) {
+        return FeatureHasher.load(dis);
     }
 
     @SneakyThrows
     public void save(DataOutputStream dos) {
-        featureIndexer.save(dos);
+        if (featureHasher != null) {
+            dos.writeUTF(HASHED_FEATURES_VERSION);
+            featureHasher.save(dos);
+        } else {
+            featureIndexer.save(dos);
+        }
         classIndexer.save(dos);
         IOUtils.saveDoubles(dos, weights.toDoubles());
     }
 
     public static class TrainOpts {
         public int minExpectedFeatureCount= 0;
+        // Keep only features seen at least this many times, counted exactly. Deterministic, unlike
+        // `minExpectedFeatureCount`, and takes precedence over it when above 1
+        public int minFeatureCount = 0;
         public int numThreads = 1;
         public double sigmaSq;
         public long randSeed = 0L;
         public NewtonMethod.Opts optimizerOpts = null;
+        // If positive, hash features into this many buckets rather than indexing them. Features
+        // aren't collected, so can't be combined with `minExpectedFeatureCount` or `minFeatureCount`
+        public int numHashBuckets = 0;
+        // Give hashed features a random +1/-1 sign so collisions cancel in expectation
+        public boolean signedHashing = false;
     }
 
 
     public static <D> MaxEntModel<String, D, String> train(List<Pair<D, String>> labeledData,
                                                        FeatureExtractor<D, String> featureExtractor,
                                                        TrainOpts opts) {
-        Random rand = new Random(opts.randSeed);
-        double probAccept = opts.minExpectedFeatureCount > 0 ? 1.0/opts.minExpectedFeatureCount : 1.0;
-        Stream<String> allFeats = labeledData.stream()
-            .flatMap(pair ->  featureExtractor.features(pair.getOne()).keySet().stream())
-            .filter(f -> rand.nextDouble() < probAccept);
-        Indexer<String> featIndexer = Indexer.<String>fromStream(allFeats);
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-max-ent-train", opts.numThreads);
+        Indexer<String> featIndexer = null;
+        FeatureHasher<String> featHasher = null;
+        if (opts.numHashBuckets > 0) {
+            if (opts.minExpectedFeatureCount > 1 || opts.minFeatureCount > 1) {
+                throw new IllegalArgumentException("Hashed features aren't collected, so can't be pruned");
+            }
+            featHasher = FeatureHasher.of(opts.numHashBuckets, opts.signedHashing);
+        } else if (opts.minFeatureCount > 1) {
+            List<String> frequentFeats = ShardedCounter.frequent(labeledData,
+                (pair, emit) -> featureExtractor.features(pair.getOne()).forEachKey(emit::accept),
+                opts.minFeatureCount, null, mrOpts);
+            featIndexer = Indexer.fromStream(frequentFeats.stream());
+        } else {
+            Random rand = new Random(opts.randSeed);
+            double probAccept = opts.minExpectedFeatureCount > 0 ? 1.0/opts.minExpectedFeatureCount : 1.0;
+            Stream<String> allFeats = labeledData.stream()
+                .flatMap(pair ->  featureExtractor.features(pair.getOne()).keySet().stream())
+                .filter(f -> rand.nextDouble() < probAccept);
+            featIndexer = Indexer.<String>fromStream(allFeats);
+        }
+        int numFeatures = featHasher != null ? featHasher.numBuckets : featIndexer.size();
         Indexer<String> classIndexer = Indexer.<String>fromStream(labeledData.stream().map(Pair::getTwo));
         MaxEntObjective maxent = new MaxEntObjective(classIndexer.size());
-        long dimension = featIndexer.size() * classIndexer.size();
+        long dimension = (long) numFeatures * classIndexer.size();
+        Indexer<String> finalFeatIndexer = featIndexer;
+        FeatureHasher<String> finalFeatHasher = featHasher;
         List<IntObjectPair<Vector>> indexedLabeledData = labeledData.stream()
             .map(pair -> {
                 ObjectDoubleMap<String> featureMap = featureExtractor.features(pair.getOne());
-                Vector featVec = SparseVector.indexed(featureMap, featIndexer);
+                Vector featVec = featureVector(featureMap, finalFeatIndexer, finalFeatHasher);
                 int classIdx = classIndexer.indexOf(pair.getTwo());
                 return PrimitiveTuples.pair(classIdx, featVec);
             })
             .collect(Collectors.toList());
-        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-max-ent-train", opts.numThreads);
         GradientFn objFn = new BatchObjectiveFn(indexedLabeledData, maxent, dimension, mrOpts);
         GradientFn regularizer = Regularizer.l2(objFn.dimension(), opts.sigmaSq);
         val cachedObjFn = new CachingGradientFn(3, objFn.add(regularizer));
@@ -93,6 +236,6 @@ public class MaxEntModel<L extends Comparable<L>, D, F extends Comparable<F>> im
         val optimzier = new NewtonMethod(__ -> quasiNewton, optimizerOpts);
         Vector weights = optimzier.minimize(cachedObjFn).xmin;
         Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
-        return new MaxEntModel<>(featIndexer, classIndexer, weights, featureExtractor);
+        return new MaxEntModel<>(featIndexer, featHasher, classIndexer, weights, featureExtractor);
     }
 }
@@ -18,8 +18,10 @@ public class MaxEntObjective implements ExampleObjectiveFn<IntObjectPair<Vector>
     @Override
     public double evaluate(IntObjectPair<Vector> labeledExample, Vector inParams, Vector outGrad) {
         int trueClassIdx = labeledExample.getOne();
-        double[] classProbs = classProbs(labeledExample.getTwo(), inParams, numClasses);
+        // one iterator for both passes over the features
         Vector.Iterator iter = labeledExample.getTwo().iterator();
+        double[] classProbs = classProbs(iter, inParams, numClasses);
+        iter.reset();
         while (!iter.isExhausted()) {
             int predIdx = (int) iter.index();
             double predVal = iter.value();
@@ -35,8 +37,15 @@ public class MaxEntObjective implements ExampleObjectiveFn<IntObjectPair<Vector>
     }
 
     public static double[] classProbs(Vector featVec, Vector weights, int numClasses) {
+        return classProbs(featVec.iterator(), weights, numClasses);
+    }
+
+    /**
+     * Like `classProbs(Vector, Vector, int)` but consumes `it` from its current position, so callers can
+     * re-use (and `reset()`) a single iterator.
+     */
+    public static double[] classProbs(Vector.Iterator it, Vector weights, int numClasses) {
         double[] logScores = new double[numClasses];
-        Vector.Iterator it = featVec.iterator();
         while (!it.isExhausted()) {
             int predIdx = (int) it.index();
             double predVal = it.value();
@@ -8,9 +8,11 @@ import java.util.function.DoubleFunction;
 import java.util.function.Predicate;
 import java.util.function.ToDoubleBiFunction;
 import java.util.function.ToDoubleFunction;
+import java.util.function.UnaryOperator;
 
 public class TrainCriterionEval<M> implements Predicate<M> {
   private final ToDoubleFunction<M> baseEvalFn;
+  private final UnaryOperator<M> keepModel;
   private int numIters = 0;
   private int numDipIters = -1;
   private double lastVal = Double.NEGATIVE_INFINITY;
@@ -32,7 +34,15 @@ public class TrainCriterionEval<M> implements Predicate<M> {
   public int maxNumDipIters = 0;
 
   public TrainCriterionEval(ToDoubleFunction<M> baseEvalFn) {
+    this(baseEvalFn, UnaryOperator.identity());
+  }
+
+  /**
+   * @param keepModel copies a model that becomes the best so far, for models only valid during `test`
+   */
+  public TrainCriterionEval(ToDoubleFunction<M> baseEvalFn, UnaryOperator<M> keepModel) {
     this.baseEvalFn = baseEvalFn;
+    this.keepModel = keepModel;
   }
 
   public M getBestModel() {
@@ -61,7 +71,7 @@ public class TrainCriterionEval<M> implements Predicate<M> {
     } else {
       this.numDipIters = -1;
       lastVal = testEval;
-      bestModel = m;
+      bestModel = keepModel.apply(m);
     }
 
     return true;
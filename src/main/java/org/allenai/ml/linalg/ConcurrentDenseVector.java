@@ -0,0 +1,126 @@
+package org.allenai.ml.linalg;
+
+import lombok.val;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Dense vector which many threads can `inc` at once without losing updates. Each entry is the raw bits of a
+ * `double` in an `AtomicLongArray` and `inc` is a compare-and-swap loop on that one entry, so threads only
+ * contend when they hit the same coordinate. Meant as a single shared gradient buffer for all the workers
+ * of a `Parallel.mapReduce`, so gradient memory doesn't grow with the number of threads.
+ *
+ * __BOTTLENECK__: A CAS is a good deal more expensive than a plain `+=` and heavily shared coordinates
+ * (e.g. transition weights) will see retries. Per-worker gradients are faster when memory allows.
+ *
+ * __Internal notes__: Only `inc`/`addInPlace` are atomic read-modify-writes, `set` is a plain volatile write
+ * and bulk operations like `scaleInPlace` aren't atomic as a whole.
+ */
+public class ConcurrentDenseVector implements Vector {
+    private final AtomicLongArray bits;
+
+    private ConcurrentDenseVector(AtomicLongArray bits) {
+        this.bits = bits;
+    }
+
+    public static ConcurrentDenseVector of(long numDimensions) {
+        if (numDimensions > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Dimension overflows integer max");
+        }
+        // all zero bits is 0.0
+        return new ConcurrentDenseVector(new AtomicLongArray((int) numDimensions));
+    }
+
+    @Override
+    public long dimension() {
+        return bits.length();
+    }
+
+    @Override
+    public double at(long dimensionIdx) {
+        if (dimensionIdx >= dimension()) {
+            val errMsg = String.format("Illegal index %d > dimension %d", dimensionIdx, dimension());
+            throw new IllegalArgumentException(errMsg);
+        }
+        return Double.longBitsToDouble(bits.get((int) dimensionIdx));
+    }
+
+    @Override
+    public void set(long dimensionIdx, double val) {
+        bits.set((int) dimensionIdx, Double.doubleToRawLongBits(val));
+    }
+
+    @Override
+    public double inc(long idx, double amount) {
+        int intIdx = (int) idx;
+        while (true) {
+            long curBits = bits.get(intIdx);
+            double newValue = Double.longBitsToDouble(curBits) + amount;
+            if (bits.compareAndSet(intIdx, curBits, Double.doubleToRawLongBits(newValue))) {
+                return newValue;
+            }
+        }
+    }
+
+    @Override
+    public Vector addInPlace(double scale, Vector.Iterator iter) {
+        while (!iter.isExhausted()) {
+            inc(iter.index(), scale * iter.value());
+            iter.advance();
+        }
+        return this;
+    }
+
+    @Override
+    public long numStoredEntries() {
+        return bits.length();
+    }
+
+    @Override
+    public Vector copy() {
+        val result = of(dimension());
+        for (int idx = 0; idx < bits.length(); idx++) {
+            result.bits.set(idx, bits.get(idx));
+        }
+        return result;
+    }
+
+    @Override
+    public double[] toDoubles() {
+        double[] result = new double[bits.length()];
+        for (int idx = 0; idx < result.length; idx++) {
+            result[idx] = Double.longBitsToDouble(bits.get(idx));
+        }
+        return result;
+    }
+
+    public Vector.Iterator iterator() {
+        return new Iterator() {
+            int offset = 0;
+            @Override
+            public boolean isExhausted() {
+                return offset >= bits.length();
+            }
+
+            @Override
+            public void reset() {
+                offset = 0;
+            }
+
+            @Override
+            public void advance() {
+                offset++;
+            }
+
+            @Override
+            public long index() {
+                return offset;
+            }
+
+            @Override
+            public double value() {
+                return Double.longBitsToDouble(bits.get(offset));
+            }
+        };
+    }
+}
@@ -6,9 +6,20 @@ import java.util.Arrays;
 
 public class DenseVector implements Vector {
     private final double[] elems;
+    // entries are `elems[offset, offset + length)`, non-trivial only for views
+    private final int offset;
+    private final int length;
+    // null means use `ExecutionPolicy.current()`
+    private ExecutionPolicy executionPolicy;
 
     private DenseVector(double[] elems) {
+        this(elems, 0, elems.length);
+    }
+
+    private DenseVector(double[] elems, int offset, int length) {
         this.elems = elems;
+        this.offset = offset;
+        this.length = length;
     }
 
     public static DenseVector of(long numDimensions) {
@@ -27,67 +38,267 @@ public class DenseVector implements Vector {
 
     @Override
     public long dimension() {
-        return elems.length;
+        return length;
     }
 
-    private static void ensureIndexIsInteger(long dimensionIdx) {
-        if (dimensionIdx > Integer.MAX_VALUE) {
-            throw new IllegalArgumentException("Index overflows integer max");
+    /**
+     * Position of `dimensionIdx` in `elems`. Views share their parent's array, so an index past `length` must be
+     * rejected here rather than left to the array bounds check
+     */
+    private int elemsIndex(long dimensionIdx) {
+        if (dimensionIdx < 0 || dimensionIdx >= length) {
+            val errMsg = String.format("Illegal index %d > dimension %d", dimensionIdx, length);
+            throw new IllegalArgumentException(errMsg);
         }
+        return offset + (int) dimensionIdx;
     }
 
     @Override
     public double at(long dimensionIdx) {
-        if (dimensionIdx >= dimension()) {
-            val errMsg = String.format("Illegal index %d > dimension %d",dimensionIdx,dimension());
-            throw new IllegalArgumentException(errMsg);
-        }
-        ensureIndexIsInteger(dimensionIdx);
-        return elems[(int) dimensionIdx];
+        return elems[elemsIndex(dimensionIdx)];
     }
 
     @Override
     public void set(long dimensionIdx, double val) {
-        ensureIndexIsInteger(dimensionIdx);
-        elems[(int) dimensionIdx] = val;
+        elems[elemsIndex(dimensionIdx)] = val;
     }
 
     @Override
     public long numStoredEntries() {
-        return elems.length;
+        return length;
     }
 
     @Override
     public Vector copy() {
-        return new DenseVector(Arrays.copyOf(elems, elems.length));
+        val result = new DenseVector(Arrays.copyOfRange(elems, offset, offset + length));
+        result.executionPolicy = executionPolicy;
+        return result;
+    }
+
+    /**
+     * Contiguous views are `DenseVector`s over the same backing array, so they keep the array kernels below.
+     * Strided views fall back to `Vector.view`.
+     */
+    @Override
+    public Vector view(long viewOffset, long viewLength, long stride) {
+        if (stride != 1) {
+            return Vector.super.view(viewOffset, viewLength, stride);
+        }
+        if (viewOffset < 0 || viewLength < 0 || viewOffset + viewLength > length) {
+            val errMsg = String.format("Illegal view [%d, %d) of dimension %d",
+                viewOffset, viewOffset + viewLength, length);
+            throw new IllegalArgumentException(errMsg);
+        }
+        val result = new DenseVector(elems, offset + (int) viewOffset, (int) viewLength);
+        result.executionPolicy = executionPolicy;
+        return result;
+    }
+
+    /**
+     * Pin how bulk operations on this vector (and its copies) are executed, rather than following
+     * `ExecutionPolicy.current()`.
+     * @return `this` for chaining
+     */
+    public DenseVector withExecutionPolicy(ExecutionPolicy executionPolicy) {
+        this.executionPolicy = executionPolicy;
+        return this;
+    }
+
+    /**
+     * Overwrite every entry with the corresponding one of `src`
+     * @return `this` for chaining
+     */
+    public DenseVector assign(Vector src) {
+        ensureSameDimension(src);
+        if (src instanceof DenseVector) {
+            DenseVector srcDense = (DenseVector) src;
+            System.arraycopy(srcDense.elems, srcDense.offset, elems, offset, length);
+            return this;
+        }
+        Arrays.fill(elems, offset, offset + length, 0.0);
+        addInPlace(1.0, src.iterator());
+        return this;
+    }
+
+    @Override
+    public ExecutionPolicy executionPolicy() {
+        return executionPolicy != null ? executionPolicy : ExecutionPolicy.current();
+    }
+
+    @Override
+    public double inc(long idx, double amount) {
+        return elems[elemsIndex(idx)] += amount;
+    }
+
+    @Override
+    public double[] toDoubles() {
+        return Arrays.copyOfRange(elems, offset, offset + length);
+    }
+
+    private void ensureSameDimension(Vector other) {
+        if (other.dimension() != dimension()) {
+            throw new IllegalArgumentException("Dimensions don't match");
+        }
+    }
+
+    /*
+     * BLAS-1 style kernels. __BOTTLENECK__: These run over every parameter for each optimizer step, so they
+     * loop directly over the backing array(s) rather than going through `Vector.Entry` streams. When the
+     * other operand isn't dense we only visit its stored entries via its `Vector.Iterator`. Dense-only loops
+     * are split into sub-ranges according to `executionPolicy()`. Loop indices are relative to this vector, so
+     * the backing array is indexed by `offset + idx` (a view's offset is usually 0).
+     */
+
+    @Override
+    public double dotProduct(Vector other) {
+        ensureSameDimension(other);
+        if (other instanceof DenseVector) {
+            DenseVector otherDense = (DenseVector) other;
+            double[] otherElems = otherDense.elems;
+            int otherOffset = otherDense.offset;
+            return executionPolicy().sumRange(length, (start, stop) -> {
+                double result = 0.0;
+                for (int idx = start; idx < stop; idx++) {
+                    result += elems[offset + idx] * otherElems[otherOffset + idx];
+                }
+                return result;
+            });
+        }
+        double result = 0.0;
+        Vector.Iterator it = other.iterator();
+        while (!it.isExhausted()) {
+            result += elems[offset + (int) it.index()] * it.value();
+            it.advance();
+        }
+        return result;
+    }
+
+    @Override
+    public double l2NormSquared() {
+        return executionPolicy().sumRange(length, (start, stop) -> {
+            double result = 0.0;
+            for (int idx = offset + start; idx < offset + stop; idx++) {
+                result += elems[idx] * elems[idx];
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public double l2Distance(Vector other) {
+        if (!(other instanceof DenseVector)) {
+            return Vector.super.l2Distance(other);
+        }
+        ensureSameDimension(other);
+        DenseVector otherDense = (DenseVector) other;
+        double[] otherElems = otherDense.elems;
+        int otherOffset = otherDense.offset;
+        return executionPolicy().sumRange(length, (start, stop) -> {
+            double result = 0.0;
+            for (int idx = start; idx < stop; idx++) {
+                double diff = elems[offset + idx] - otherElems[otherOffset + idx];
+                result += diff * diff;
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public void scaleInPlace(double v) {
+        executionPolicy().forRange(length, (start, stop) -> {
+            for (int idx = offset + start; idx < offset + stop; idx++) {
+                elems[idx] *= v;
+            }
+        });
+    }
+
+    @Override
+    public void affineUpdateInPlace(double scale, double shift) {
+        executionPolicy().forRange(length, (start, stop) -> {
+            for (int idx = offset + start; idx < offset + stop; idx++) {
+                elems[idx] = scale * elems[idx] + shift;
+            }
+        });
+    }
+
+    @Override
+    public void mapInPlace(EntryUpdateFunction updateFn) {
+        for (int idx = 0; idx < length; idx++) {
+            elems[offset + idx] = updateFn.update(idx, elems[offset + idx]);
+        }
+    }
+
+    @Override
+    public Vector add(double scale, Vector dir) {
+        if (!(dir instanceof DenseVector)) {
+            return Vector.super.add(scale, dir);
+        }
+        ensureSameDimension(dir);
+        // single pass rather than copy-then-update
+        DenseVector dirDense = (DenseVector) dir;
+        double[] dirElems = dirDense.elems;
+        int dirOffset = dirDense.offset;
+        double[] result = new double[length];
+        executionPolicy().forRange(length, (start, stop) -> {
+            for (int idx = start; idx < stop; idx++) {
+                result[idx] = elems[offset + idx] + scale * dirElems[dirOffset + idx];
+            }
+        });
+        return new DenseVector(result).withExecutionPolicy(executionPolicy);
+    }
+
+    @Override
+    public void addInPlace(double scale, Vector dir) {
+        ensureSameDimension(dir);
+        if (dir instanceof DenseVector) {
+            DenseVector dirDense = (DenseVector) dir;
+            double[] dirElems = dirDense.elems;
+            int dirOffset = dirDense.offset;
+            executionPolicy().forRange(length, (start, stop) -> {
+                for (int idx = start; idx < stop; idx++) {
+                    elems[offset + idx] += scale * dirElems[dirOffset + idx];
+                }
+            });
+            return;
+        }
+        addInPlace(scale, dir.iterator());
+    }
+
+    @Override
+    public Vector addInPlace(double scale, Vector.Iterator iter) {
+        while (!iter.isExhausted()) {
+            elems[elemsIndex(iter.index())] += scale * iter.value();
+            iter.advance();
+        }
+        return this;
     }
 
     public Vector.Iterator iterator() {
         return new Iterator() {
-            int offset = 0;
+            int idx = 0;
             @Override
             public boolean isExhausted() {
-                return offset >= elems.length;
+                return idx >= length;
             }
 
             @Override
             public void reset() {
-                offset = 0;
+                idx = 0;
             }
 
             @Override
             public void advance() {
-                offset++;
+                idx++;
             }
 
             @Override
             public long index() {
-                return offset;
+                return idx;
             }
 
             @Override
             public double value() {
-                return elems[offset];
+                return elems[offset + idx];
             }
         };
     }
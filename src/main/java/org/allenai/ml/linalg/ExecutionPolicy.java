@@ -0,0 +1,174 @@
+package org.allenai.ml.linalg;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Decides whether a bulk `Vector` operation runs on the calling thread or fans out, and if so on which
+ * `ForkJoinPool`. There are three flavors:
+ *
+ * - `sequential()`: always on the calling thread
+ * - `parallel(pool)`: always fans out on `pool`
+ * - `auto(minParallelSize, pool)`: fans out on `pool` only when the operation touches at least
+ *   `minParallelSize` entries
+ *
+ * Vectors use `ExecutionPolicy.current()` unless they have their own (see `Vector.executionPolicy`). The
+ * current policy is the global default unless the thread has overridden it via `withThreadDefault`, which is
+ * how `Parallel.mapReduce` keeps vector operations inside workers single-threaded.
+ */
+public final class ExecutionPolicy {
+
+    /**
+     * Below this many entries the fork/join overhead isn't worth it
+     */
+    public final static long DEFAULT_MIN_PARALLEL_SIZE = 1L << 16;
+
+    /**
+     * Minimum number of entries handed to a single task when splitting a range
+     */
+    private final static int MIN_CHUNK_SIZE = 1 << 12;
+
+    private final long minParallelSize;
+    // null means ForkJoinPool.commonPool()
+    private final ForkJoinPool pool;
+
+    private ExecutionPolicy(long minParallelSize, ForkJoinPool pool) {
+        this.minParallelSize = minParallelSize;
+        this.pool = pool;
+    }
+
+    private final static ExecutionPolicy SEQUENTIAL = new ExecutionPolicy(Long.MAX_VALUE, null);
+
+    private static volatile ExecutionPolicy globalDefault = auto(DEFAULT_MIN_PARALLEL_SIZE);
+
+    private final static ThreadLocal<ExecutionPolicy> threadDefault = new ThreadLocal<>();
+
+    public static ExecutionPolicy sequential() {
+        return SEQUENTIAL;
+    }
+
+    public static ExecutionPolicy parallel(ForkJoinPool pool) {
+        return new ExecutionPolicy(0L, pool);
+    }
+
+    public static ExecutionPolicy auto(long minParallelSize) {
+        return auto(minParallelSize, null);
+    }
+
+    public static ExecutionPolicy auto(long minParallelSize, ForkJoinPool pool) {
+        if (minParallelSize < 0) {
+            throw new IllegalArgumentException("minParallelSize must be non-negative: " + minParallelSize);
+        }
+        return new ExecutionPolicy(minParallelSize, pool);
+    }
+
+    /**
+     * @return The thread's override if there is one, otherwise the global default
+     */
+    public static ExecutionPolicy current() {
+        ExecutionPolicy policy = threadDefault.get();
+        return policy != null ? policy : globalDefault;
+    }
+
+    public static void setGlobalDefault(ExecutionPolicy policy) {
+        globalDefault = policy;
+    }
+
+    /**
+     * Run `fn` on the calling thread with `policy` as the thread's default, restoring the previous one after
+     */
+    public static <R> R withThreadDefault(ExecutionPolicy policy, Supplier<R> fn) {
+        ExecutionPolicy previous = threadDefault.get();
+        threadDefault.set(policy);
+        try {
+            return fn.get();
+        } finally {
+            if (previous != null) {
+                threadDefault.set(previous);
+            } else {
+                threadDefault.remove();
+            }
+        }
+    }
+
+    public static void withThreadDefault(ExecutionPolicy policy, Runnable fn) {
+        withThreadDefault(policy, () -> {
+            fn.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return whether an operation over `size` entries should fan out
+     */
+    public boolean isParallel(long size) {
+        return minParallelSize != Long.MAX_VALUE && size >= minParallelSize;
+    }
+
+    private ForkJoinPool pool() {
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Run `fn`, which is expected to contain a terminal parallel stream operation over `size` entries, inside
+     * this policy's pool so its tasks don't land on the common pool. A parallel stream's tasks run in whatever
+     * pool the terminal operation is invoked from.
+     */
+    public <R> R execute(long size, Supplier<R> fn) {
+        if (!isParallel(size) || ForkJoinTask.getPool() == pool()) {
+            return fn.get();
+        }
+        return pool().submit(fn::get).join();
+    }
+
+    @FunctionalInterface
+    public interface RangeToDoubleFunction {
+        double apply(int start, int stop);
+    }
+
+    @FunctionalInterface
+    public interface RangeConsumer {
+        void accept(int start, int stop);
+    }
+
+    private int chunkSize(int size) {
+        long targetChunks = 4L * pool().getParallelism();
+        return (int) Math.max(MIN_CHUNK_SIZE, (size + targetChunks - 1) / targetChunks);
+    }
+
+    /**
+     * Sum `fn` over contiguous sub-ranges of `[0, size)`. Lets callers keep a tight array loop per sub-range
+     * whether or not this runs in parallel.
+     */
+    public double sumRange(int size, RangeToDoubleFunction fn) {
+        if (!isParallel(size)) {
+            return fn.apply(0, size);
+        }
+        int chunkSize = chunkSize(size);
+        int numChunks = (int) ((size + (long) chunkSize - 1) / chunkSize);
+        return execute(size, () -> IntStream.range(0, numChunks)
+            .parallel()
+            .mapToDouble(chunk -> fn.apply(chunk * chunkSize, (int) Math.min(size, (chunk + 1L) * chunkSize)))
+            .sum());
+    }
+
+    /**
+     * Apply `fn` over disjoint contiguous sub-ranges of `[0, size)`
+     */
+    public void forRange(int size, RangeConsumer fn) {
+        if (!isParallel(size)) {
+            fn.accept(0, size);
+            return;
+        }
+        int chunkSize = chunkSize(size);
+        int numChunks = (int) ((size + (long) chunkSize - 1) / chunkSize);
+        execute(size, () -> {
+            IntStream.range(0, numChunks)
+                .parallel()
+                .forEach(chunk -> fn.accept(chunk * chunkSize, (int) Math.min(size, (chunk + 1L) * chunkSize)));
+            return null;
+        });
+    }
+}
@@ -0,0 +1,202 @@
+package org.allenai.ml.linalg;
+
+import lombok.val;
+
+import java.util.Arrays;
+
+/**
+ * Dense vector stored as a `float[]`. Meant for inference-time weights, where only reads happen and
+ * half the resident memory (and cache footprint) matters more than the last few digits of precision.
+ * Values are widened to `double` on read and narrowed to `float` on write, so all arithmetic against
+ * other vectors still accumulates in `double`.
+ *
+ * __Internal notes__: Don't train with this; gradient steps lose precision on every `set`/`inc`.
+ */
+public class FloatDenseVector implements Vector {
+    private final float[] elems;
+
+    private FloatDenseVector(float[] elems) {
+        this.elems = elems;
+    }
+
+    public static FloatDenseVector of(long numDimensions) {
+        return new FloatDenseVector(new float[(int) numDimensions]);
+    }
+
+    /**
+     * Wrap a `float[]` in a `FloatDenseVector` view. Does not copy the array.
+     */
+    public static FloatDenseVector of(float... elems) {
+        return new FloatDenseVector(elems);
+    }
+
+    /**
+     * Narrow each entry of `xs` to a `float`
+     */
+    public static FloatDenseVector fromDoubles(double[] xs) {
+        float[] elems = new float[xs.length];
+        for (int idx = 0; idx < xs.length; idx++) {
+            elems[idx] = (float) xs[idx];
+        }
+        return new FloatDenseVector(elems);
+    }
+
+    /**
+     * Narrow a copy of `other`, which must have an `int` sized dimension
+     */
+    public static FloatDenseVector copyOf(Vector other) {
+        ensureIndexIsInteger(other.dimension());
+        val result = of(other.dimension());
+        Vector.Iterator it = other.iterator();
+        while (!it.isExhausted()) {
+            result.elems[(int) it.index()] = (float) it.value();
+            it.advance();
+        }
+        return result;
+    }
+
+    @Override
+    public long dimension() {
+        return elems.length;
+    }
+
+    private static void ensureIndexIsInteger(long dimensionIdx) {
+        if (dimensionIdx > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Index overflows integer max");
+        }
+    }
+
+    @Override
+    public double at(long dimensionIdx) {
+        if (dimensionIdx >= dimension()) {
+            val errMsg = String.format("Illegal index %d > dimension %d", dimensionIdx, dimension());
+            throw new IllegalArgumentException(errMsg);
+        }
+        return elems[(int) dimensionIdx];
+    }
+
+    @Override
+    public void set(long dimensionIdx, double val) {
+        ensureIndexIsInteger(dimensionIdx);
+        elems[(int) dimensionIdx] = (float) val;
+    }
+
+    @Override
+    public double inc(long idx, double amount) {
+        ensureIndexIsInteger(idx);
+        return elems[(int) idx] += amount;
+    }
+
+    @Override
+    public long numStoredEntries() {
+        return elems.length;
+    }
+
+    @Override
+    public Vector copy() {
+        return new FloatDenseVector(Arrays.copyOf(elems, elems.length));
+    }
+
+    @Override
+    public double[] toDoubles() {
+        double[] result = new double[elems.length];
+        for (int idx = 0; idx < elems.length; idx++) {
+            result[idx] = elems[idx];
+        }
+        return result;
+    }
+
+    private void ensureSameDimension(Vector other) {
+        if (other.dimension() != dimension()) {
+            throw new IllegalArgumentException("Dimensions don't match");
+        }
+    }
+
+    /*
+     * __BOTTLENECK__: Scoring a (sparse) feature vector against the weights is the inference hot path, so
+     * like `DenseVector` these loop directly over the backing array and only visit the stored entries of
+     * a non-dense operand.
+     */
+
+    @Override
+    public double dotProduct(Vector other) {
+        ensureSameDimension(other);
+        double result = 0.0;
+        if (other instanceof FloatDenseVector) {
+            float[] otherElems = ((FloatDenseVector) other).elems;
+            for (int idx = 0; idx < elems.length; idx++) {
+                result += (double) elems[idx] * otherElems[idx];
+            }
+            return result;
+        }
+        Vector.Iterator it = other.iterator();
+        while (!it.isExhausted()) {
+            result += elems[(int) it.index()] * it.value();
+            it.advance();
+        }
+        return result;
+    }
+
+    @Override
+    public double l2NormSquared() {
+        double result = 0.0;
+        for (int idx = 0; idx < elems.length; idx++) {
+            double x = elems[idx];
+            result += x * x;
+        }
+        return result;
+    }
+
+    @Override
+    public void scaleInPlace(double v) {
+        for (int idx = 0; idx < elems.length; idx++) {
+            elems[idx] *= v;
+        }
+    }
+
+    @Override
+    public void mapInPlace(EntryUpdateFunction updateFn) {
+        for (int idx = 0; idx < elems.length; idx++) {
+            elems[idx] = (float) updateFn.update(idx, elems[idx]);
+        }
+    }
+
+    @Override
+    public Vector addInPlace(double scale, Vector.Iterator iter) {
+        while (!iter.isExhausted()) {
+            elems[(int) iter.index()] += scale * iter.value();
+            iter.advance();
+        }
+        return this;
+    }
+
+    public Vector.Iterator iterator() {
+        return new Iterator() {
+            int offset = 0;
+            @Override
+            public boolean isExhausted() {
+                return offset >= elems.length;
+            }
+
+            @Override
+            public void reset() {
+                offset = 0;
+            }
+
+            @Override
+            public void advance() {
+                offset++;
+            }
+
+            @Override
+            public long index() {
+                return offset;
+            }
+
+            @Override
+            public double value() {
+                return elems[offset];
+            }
+        };
+    }
+}
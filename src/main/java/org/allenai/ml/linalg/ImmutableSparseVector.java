@@ -0,0 +1,273 @@
+package org.allenai.ml.linalg;
+
+import com.gs.collections.api.map.primitive.ObjectDoubleMap;
+import lombok.val;
+import org.allenai.ml.util.FeatureHasher;
+import org.allenai.ml.util.Indexer;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Read-only sparse vector stored as parallel sorted `int[]` indices and `double[]` values (a single CSR row).
+ * Meant for feature/predicate vectors which are built once and then only read: compared to a `SparseVector`
+ * there is no hash table overhead, iteration is a linear scan over the arrays and `at` is a binary search.
+ *
+ * Mutation throws, `copy()` yields a mutable `SparseVector`.
+ */
+public class ImmutableSparseVector implements Vector {
+
+    private final int[] indices;
+    private final double[] values;
+    private final long dimension;
+
+    /**
+     * Assumes `indices` are sorted, unique and the same length as `values`. Takes ownership of both arrays.
+     */
+    private ImmutableSparseVector(int[] indices, double[] values, long dimension) {
+        this.indices = indices;
+        this.values = values;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Build from (possibly unsorted) parallel arrays. Explicit zeros are dropped. Does not retain the inputs.
+     */
+    public static ImmutableSparseVector of(int[] indices, double[] values, int numEntries, long dimension) {
+        return sorted(indices, values, numEntries, dimension, false);
+    }
+
+    /**
+     * Sort the first `numEntries` (index, value) pairs by index and drop zeros. Repeated indices are summed if
+     * `sumDuplicates`, and rejected otherwise.
+     */
+    private static ImmutableSparseVector sorted(int[] indices, double[] values, int numEntries, long dimension,
+                                                boolean sumDuplicates) {
+        if (indices.length < numEntries || values.length < numEntries) {
+            throw new IllegalArgumentException("Fewer indices/values than numEntries");
+        }
+        // Pack (index, position) into a long so a single primitive sort orders both arrays
+        long[] packed = new long[numEntries];
+        int numPacked = 0;
+        for (int pos = 0; pos < numEntries; pos++) {
+            if (indices[pos] < 0 || indices[pos] >= dimension) {
+                throw new IllegalArgumentException(String.format("Illegal index %d for dimension %d",
+                    indices[pos], dimension));
+            }
+            // zeros can't be dropped before summing, a zero sum is dropped below
+            if (sumDuplicates || values[pos] != 0.0) {
+                packed[numPacked++] = ((long) indices[pos] << 32) | pos;
+            }
+        }
+        Arrays.sort(packed, 0, numPacked);
+        int[] sortedIndices = new int[numPacked];
+        double[] sortedValues = new double[numPacked];
+        int numSorted = 0;
+        for (int i = 0; i < numPacked; i++) {
+            int idx = (int) (packed[i] >>> 32);
+            double v = values[(int) packed[i]];
+            if (numSorted > 0 && sortedIndices[numSorted - 1] == idx) {
+                if (!sumDuplicates) {
+                    throw new IllegalArgumentException("Duplicate index " + idx);
+                }
+                sortedValues[numSorted - 1] += v;
+            } else {
+                sortedIndices[numSorted] = idx;
+                sortedValues[numSorted] = v;
+                numSorted++;
+            }
+        }
+        int numNonZero = 0;
+        for (int i = 0; i < numSorted; i++) {
+            if (sortedValues[i] != 0.0) {
+                sortedIndices[numNonZero] = sortedIndices[i];
+                sortedValues[numNonZero] = sortedValues[i];
+                numNonZero++;
+            }
+        }
+        if (numNonZero < numPacked) {
+            sortedIndices = Arrays.copyOf(sortedIndices, numNonZero);
+            sortedValues = Arrays.copyOf(sortedValues, numNonZero);
+        }
+        return new ImmutableSparseVector(sortedIndices, sortedValues, dimension);
+    }
+
+    /**
+     * Frozen copy of the non-zero entries of `vec`. Indices must fit in an `int`.
+     */
+    public static ImmutableSparseVector copyOf(Vector vec) {
+        int n = (int) vec.numStoredEntries();
+        int[] indices = new int[n];
+        double[] values = new double[n];
+        int numEntries = 0;
+        val it = vec.iterator();
+        while (!it.isExhausted()) {
+            long idx = it.index();
+            if (idx > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Index overflows integer max");
+            }
+            indices[numEntries] = (int) idx;
+            values[numEntries] = it.value();
+            numEntries++;
+            it.advance();
+        }
+        return of(indices, values, numEntries, vec.dimension());
+    }
+
+    /**
+     * Like `SparseVector.indexed`, but produces a frozen vector. Features not in `indexer` are dropped.
+     */
+    public static <T extends Comparable<T>> ImmutableSparseVector indexed(ObjectDoubleMap<T> map,
+                                                                          Indexer<T> indexer) {
+        int[] indices = new int[map.size()];
+        double[] values = new double[map.size()];
+        int[] numEntries = new int[1];
+        map.forEachKeyValue((k, v) -> {
+            int idx = indexer.indexOf(k);
+            if (idx >= 0) {
+                indices[numEntries[0]] = idx;
+                values[numEntries[0]] = v;
+                numEntries[0]++;
+            }
+        });
+        return of(indices, values, numEntries[0], indexer.size());
+    }
+
+    /**
+     * Like `indexed`, but each feature goes to its `hasher` bucket (with its sign, if signed). Values of colliding
+     * features are summed, and buckets that cancel to zero are dropped.
+     */
+    public static <T> ImmutableSparseVector hashed(ObjectDoubleMap<T> map, FeatureHasher<T> hasher) {
+        int[] indices = new int[map.size()];
+        double[] values = new double[map.size()];
+        int[] numEntries = new int[1];
+        map.forEachKeyValue((k, v) -> {
+            long hash = hasher.hash(k);
+            indices[numEntries[0]] = hasher.bucket(hash);
+            values[numEntries[0]] = hasher.sign(hash) * v;
+            numEntries[0]++;
+        });
+        return sorted(indices, values, numEntries[0], hasher.numBuckets, true);
+    }
+
+    @Override
+    public long dimension() {
+        return dimension;
+    }
+
+    private int position(long dimensionIdx) {
+        if (dimensionIdx > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return Arrays.binarySearch(indices, (int) dimensionIdx);
+    }
+
+    @Override
+    public double at(long dimensionIdx) {
+        int pos = position(dimensionIdx);
+        return pos >= 0 ? values[pos] : 0.0;
+    }
+
+    @Override
+    public void set(long dimensionIdx, double val) {
+        throw new RuntimeException("ImmutableSparseVector is immutable and doesn't support set()");
+    }
+
+    @Override
+    public long numStoredEntries() {
+        return indices.length;
+    }
+
+    @Override
+    public Vector copy() {
+        val result = SparseVector.withCapacity(indices.length, dimension);
+        for (int i = 0; i < indices.length; i++) {
+            result.set(indices[i], values[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public Vector.Iterator iterator() {
+        return new Vector.Iterator() {
+            int offset = 0;
+
+            @Override
+            public boolean isExhausted() {
+                return offset >= indices.length;
+            }
+
+            @Override
+            public void reset() {
+                offset = 0;
+            }
+
+            @Override
+            public void advance() {
+                offset++;
+            }
+
+            @Override
+            public long index() {
+                return indices[offset];
+            }
+
+            @Override
+            public double value() {
+                return values[offset];
+            }
+        };
+    }
+
+    @Override
+    public Stream<Entry> nonZeroEntries() {
+        return IntStream.range(0, indices.length)
+            .mapToObj(i -> Entry.of(indices[i], values[i]));
+    }
+
+    /**
+     * __BOTTLENECK__: Merge-based when `other` is also an `ImmutableSparseVector`, otherwise a scan over the
+     * stored entries of the receiver.
+     */
+    @Override
+    public double dotProduct(Vector other) {
+        if (other.dimension() != this.dimension()) {
+            throw new IllegalArgumentException("Dimensions don't match");
+        }
+        if (other instanceof ImmutableSparseVector) {
+            val that = (ImmutableSparseVector) other;
+            double result = 0.0;
+            int i = 0, j = 0;
+            while (i < indices.length && j < that.indices.length) {
+                int a = indices[i];
+                int b = that.indices[j];
+                if (a == b) {
+                    result += values[i++] * that.values[j++];
+                } else if (a < b) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return result;
+        }
+        if (other.numStoredEntries() < this.numStoredEntries()) {
+            return other.dotProduct(this);
+        }
+        double result = 0.0;
+        for (int i = 0; i < indices.length; i++) {
+            result += values[i] * other.at(indices[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public double l2NormSquared() {
+        double result = 0.0;
+        for (double v : values) {
+            result += v * v;
+        }
+        return result;
+    }
+}
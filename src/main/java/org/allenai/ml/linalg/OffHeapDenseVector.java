@@ -0,0 +1,389 @@
+package org.allenai.ml.linalg;
+
+import lombok.SneakyThrows;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Dense vector stored outside the Java heap in one or more `DoubleBuffer` chunks, either direct (`allocate`) or
+ * memory-mapped from a file (`map`). Unlike `DenseVector` it supports dimensions past `Integer.MAX_VALUE` and
+ * doesn't contribute to GC pressure, so it's meant for very large weight vectors.
+ *
+ * Mapped vectors use big-endian order, the same layout `DataOutputStream.writeDouble` (and so
+ * `IOUtils.saveDoubles`) produces, so weights written that way can be opened without copying. Direct vectors
+ * use the platform's native order.
+ *
+ * Those saved weights are limited to `Integer.MAX_VALUE` entries, since `IOUtils.saveDoubles` writes an `int`
+ * length from a `double[]`, and so are CRF weights (see `CRFWeightsEncoder.numParameters`). Vectors past that size
+ * can only be built with `allocate` or `map(FileChannel, long, long, MapMode)` directly.
+ *
+ * __Internal notes__: Entry `i` lives in chunk `i >>> chunkBits` at offset `i & chunkMask`. Bulk operations
+ * loop over each chunk with absolute `get(int)`/`put(int, double)` calls.
+ */
+public class OffHeapDenseVector implements Vector {
+
+    // 2^27 doubles (1GiB) per chunk keeps each chunk's byte size within a ByteBuffer's int capacity
+    private final static int DEFAULT_CHUNK_BITS = 27;
+
+    private final DoubleBuffer[] chunks;
+    private final long dimension;
+    private final int chunkBits;
+    private final long chunkMask;
+    // backing buffers when mapped from a file, null for direct vectors
+    private final MappedByteBuffer[] mapped;
+    // null means use `ExecutionPolicy.current()`
+    private ExecutionPolicy executionPolicy;
+
+    private OffHeapDenseVector(DoubleBuffer[] chunks, long dimension, int chunkBits, MappedByteBuffer[] mapped) {
+        this.chunks = chunks;
+        this.dimension = dimension;
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1L << chunkBits) - 1;
+        this.mapped = mapped;
+    }
+
+    private static int numChunks(long dimension, int chunkBits) {
+        return (int) ((dimension + (1L << chunkBits) - 1) >>> chunkBits);
+    }
+
+    private static int chunkLength(long dimension, int chunkBits, int chunkIdx) {
+        return (int) Math.min(1L << chunkBits, dimension - ((long) chunkIdx << chunkBits));
+    }
+
+    /**
+     * Zero-initialized vector in direct (off-heap) memory
+     */
+    public static OffHeapDenseVector allocate(long dimension) {
+        return allocate(dimension, DEFAULT_CHUNK_BITS);
+    }
+
+    // only visible for testing, so multi-chunk vectors don't need GiBs of memory
+    static OffHeapDenseVector allocate(long dimension, int chunkBits) {
+        if (dimension < 0) {
+            throw new IllegalArgumentException("Negative dimension " + dimension);
+        }
+        val chunks = new DoubleBuffer[numChunks(dimension, chunkBits)];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = ByteBuffer.allocateDirect(chunkLength(dimension, chunkBits, c) * Double.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asDoubleBuffer();
+        }
+        return new OffHeapDenseVector(chunks, dimension, chunkBits, null);
+    }
+
+    /**
+     * Map `dimension` big-endian doubles starting at byte `position` of `channel`. Nothing is copied: reads (and,
+     * with `READ_WRITE`, writes) go straight to the page cache. The mapping stays valid after `channel` is closed.
+     * @param mode `READ_ONLY` for serving, `READ_WRITE` to update the file in place, `PRIVATE` for copy-on-write
+     */
+    public static OffHeapDenseVector map(FileChannel channel, long position, long dimension,
+                                         FileChannel.MapMode mode) {
+        return map(channel, position, dimension, mode, DEFAULT_CHUNK_BITS);
+    }
+
+    // only visible for testing
+    @SneakyThrows(IOException.class)
+    static OffHeapDenseVector map(FileChannel channel, long position, long dimension,
+                                  FileChannel.MapMode mode, int chunkBits) {
+        if (mode != FileChannel.MapMode.READ_WRITE && position + dimension * Double.BYTES > channel.size()) {
+            throw new IllegalArgumentException(String.format("Can't map %d doubles at %d from a file of %d bytes",
+                dimension, position, channel.size()));
+        }
+        val chunks = new DoubleBuffer[numChunks(dimension, chunkBits)];
+        val mapped = new MappedByteBuffer[chunks.length];
+        for (int c = 0; c < chunks.length; c++) {
+            long chunkPosition = position + ((long) c << chunkBits) * Double.BYTES;
+            long numBytes = (long) chunkLength(dimension, chunkBits, c) * Double.BYTES;
+            mapped[c] = channel.map(mode, chunkPosition, numBytes);
+            chunks[c] = mapped[c].order(ByteOrder.BIG_ENDIAN).asDoubleBuffer();
+        }
+        return new OffHeapDenseVector(chunks, dimension, chunkBits, mapped);
+    }
+
+    /**
+     * Off-heap copy of `vec`
+     */
+    public static OffHeapDenseVector copyOf(Vector vec) {
+        val result = allocate(vec.dimension());
+        result.addInPlace(1.0, vec.iterator());
+        return result;
+    }
+
+    /**
+     * Write the entries as big-endian doubles, the layout `map` expects. Buffers are written directly, with no
+     * intermediate `double[]`.
+     */
+    @SneakyThrows(IOException.class)
+    public void writeTo(WritableByteChannel channel) {
+        val scratch = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.BIG_ENDIAN);
+        val scratchDoubles = scratch.asDoubleBuffer();
+        for (DoubleBuffer chunk : chunks) {
+            val src = chunk.duplicate();
+            src.clear();
+            while (src.hasRemaining()) {
+                scratchDoubles.clear();
+                int n = Math.min(src.remaining(), scratchDoubles.capacity());
+                int limit = src.limit();
+                src.limit(src.position() + n);
+                scratchDoubles.put(src);
+                src.limit(limit);
+                scratch.clear();
+                scratch.limit(n * Double.BYTES);
+                while (scratch.hasRemaining()) {
+                    channel.write(scratch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Force changes to a `READ_WRITE` mapped vector out to the file. No-op for direct vectors.
+     */
+    public void flush() {
+        if (mapped != null) {
+            for (MappedByteBuffer buf : mapped) {
+                buf.force();
+            }
+        }
+    }
+
+    public OffHeapDenseVector withExecutionPolicy(ExecutionPolicy executionPolicy) {
+        this.executionPolicy = executionPolicy;
+        return this;
+    }
+
+    @Override
+    public ExecutionPolicy executionPolicy() {
+        return executionPolicy != null ? executionPolicy : ExecutionPolicy.current();
+    }
+
+    @Override
+    public long dimension() {
+        return dimension;
+    }
+
+    private void ensureIndexInRange(long dimensionIdx) {
+        if (dimensionIdx < 0 || dimensionIdx >= dimension) {
+            val errMsg = String.format("Illegal index %d > dimension %d", dimensionIdx, dimension);
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+
+    @Override
+    public double at(long dimensionIdx) {
+        ensureIndexInRange(dimensionIdx);
+        return chunks[(int) (dimensionIdx >>> chunkBits)].get((int) (dimensionIdx & chunkMask));
+    }
+
+    @Override
+    public void set(long dimensionIdx, double val) {
+        ensureIndexInRange(dimensionIdx);
+        chunks[(int) (dimensionIdx >>> chunkBits)].put((int) (dimensionIdx & chunkMask), val);
+    }
+
+    @Override
+    public double inc(long dimensionIdx, double amount) {
+        ensureIndexInRange(dimensionIdx);
+        val chunk = chunks[(int) (dimensionIdx >>> chunkBits)];
+        int offset = (int) (dimensionIdx & chunkMask);
+        double newValue = chunk.get(offset) + amount;
+        chunk.put(offset, newValue);
+        return newValue;
+    }
+
+    @Override
+    public long numStoredEntries() {
+        return dimension;
+    }
+
+    /**
+     * @return a direct (not mapped) copy, so mutating it never touches a backing file
+     */
+    @Override
+    public Vector copy() {
+        val result = allocate(dimension, chunkBits);
+        for (int c = 0; c < chunks.length; c++) {
+            val src = chunks[c].duplicate();
+            src.clear();
+            val dst = result.chunks[c].duplicate();
+            dst.clear();
+            dst.put(src);
+        }
+        result.executionPolicy = executionPolicy;
+        return result;
+    }
+
+    @Override
+    public double[] toDoubles() {
+        if (dimension > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Dimension overflows integer max, can't copy to double[]");
+        }
+        double[] result = new double[(int) dimension];
+        int offset = 0;
+        for (DoubleBuffer chunk : chunks) {
+            val src = chunk.duplicate();
+            src.clear();
+            int n = src.remaining();
+            src.get(result, offset, n);
+            offset += n;
+        }
+        return result;
+    }
+
+    @Override
+    public Vector.Iterator iterator() {
+        return new Vector.Iterator() {
+            long offset = 0;
+
+            @Override
+            public boolean isExhausted() {
+                return offset >= dimension;
+            }
+
+            @Override
+            public void reset() {
+                offset = 0;
+            }
+
+            @Override
+            public void advance() {
+                offset++;
+            }
+
+            @Override
+            public long index() {
+                return offset;
+            }
+
+            @Override
+            public double value() {
+                return chunks[(int) (offset >>> chunkBits)].get((int) (offset & chunkMask));
+            }
+        };
+    }
+
+    private boolean isChunkAligned(Vector other) {
+        return other instanceof OffHeapDenseVector && ((OffHeapDenseVector) other).chunkBits == chunkBits;
+    }
+
+    private void ensureSameDimension(Vector other) {
+        if (other.dimension() != dimension()) {
+            throw new IllegalArgumentException("Dimensions don't match");
+        }
+    }
+
+    /*
+     * Bulk kernels, see `DenseVector`. Each chunk is split into sub-ranges by `executionPolicy()`; when both
+     * operands are off-heap with the same chunk size, chunks line up one to one.
+     */
+
+    @Override
+    public double dotProduct(Vector other) {
+        ensureSameDimension(other);
+        if (isChunkAligned(other)) {
+            val that = (OffHeapDenseVector) other;
+            val policy = executionPolicy();
+            double result = 0.0;
+            for (int c = 0; c < chunks.length; c++) {
+                val a = chunks[c];
+                val b = that.chunks[c];
+                result += policy.sumRange(a.capacity(), (start, stop) -> {
+                    double sum = 0.0;
+                    for (int idx = start; idx < stop; idx++) {
+                        sum += a.get(idx) * b.get(idx);
+                    }
+                    return sum;
+                });
+            }
+            return result;
+        }
+        double result = 0.0;
+        Vector.Iterator it = other.iterator();
+        while (!it.isExhausted()) {
+            result += at(it.index()) * it.value();
+            it.advance();
+        }
+        return result;
+    }
+
+    @Override
+    public double l2NormSquared() {
+        val policy = executionPolicy();
+        double result = 0.0;
+        for (DoubleBuffer chunk : chunks) {
+            result += policy.sumRange(chunk.capacity(), (start, stop) -> {
+                double sum = 0.0;
+                for (int idx = start; idx < stop; idx++) {
+                    double x = chunk.get(idx);
+                    sum += x * x;
+                }
+                return sum;
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public void scaleInPlace(double v) {
+        affineUpdateInPlace(v, 0.0);
+    }
+
+    @Override
+    public void affineUpdateInPlace(double scale, double offset) {
+        val policy = executionPolicy();
+        for (DoubleBuffer chunk : chunks) {
+            policy.forRange(chunk.capacity(), (start, stop) -> {
+                for (int idx = start; idx < stop; idx++) {
+                    chunk.put(idx, scale * chunk.get(idx) + offset);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void mapInPlace(EntryUpdateFunction updateFn) {
+        for (int c = 0; c < chunks.length; c++) {
+            val chunk = chunks[c];
+            long base = (long) c << chunkBits;
+            for (int idx = 0; idx < chunk.capacity(); idx++) {
+                chunk.put(idx, updateFn.update(base + idx, chunk.get(idx)));
+            }
+        }
+    }
+
+    @Override
+    public void addInPlace(double scale, Vector dir) {
+        ensureSameDimension(dir);
+        if (isChunkAligned(dir)) {
+            val that = (OffHeapDenseVector) dir;
+            val policy = executionPolicy();
+            for (int c = 0; c < chunks.length; c++) {
+                val a = chunks[c];
+                val b = that.chunks[c];
+                policy.forRange(a.capacity(), (start, stop) -> {
+                    for (int idx = start; idx < stop; idx++) {
+                        a.put(idx, a.get(idx) + scale * b.get(idx));
+                    }
+                });
+            }
+            return;
+        }
+        addInPlace(scale, dir.iterator());
+    }
+
+    @Override
+    public Vector addInPlace(double scale, Vector.Iterator iter) {
+        while (!iter.isExhausted()) {
+            inc(iter.index(), scale * iter.value());
+            iter.advance();
+        }
+        return this;
+    }
+}
@@ -1,6 +1,7 @@
 package org.allenai.ml.linalg;
 
 import org.allenai.ml.util.Indexer;
+import com.gs.collections.api.block.procedure.primitive.LongDoubleProcedure;
 import com.gs.collections.api.map.primitive.LongDoubleMap;
 import com.gs.collections.api.map.primitive.MutableLongDoubleMap;
 import com.gs.collections.api.map.primitive.ObjectDoubleMap;
@@ -63,6 +64,21 @@ public class SparseVector implements Vector {
       return vec.size();
     }
 
+    @Override
+    public double inc(long idx, double amount) {
+      // single probe rather than `at` followed by `set`
+      return vec.addToValue(idx, amount);
+    }
+
+    @Override
+    public Vector addInPlace(double scale, Vector.Iterator iter) {
+      while (!iter.isExhausted()) {
+        vec.addToValue(iter.index(), scale * iter.value());
+        iter.advance();
+      }
+      return this;
+    }
+
     @Override
     public Vector copy() {
       return new SparseVector(new LongDoubleHashMap(vec), dimension);
@@ -77,34 +93,71 @@ public class SparseVector implements Vector {
 
     @Override
     public Vector.Iterator iterator() {
-        long[] indices = vec.keysView().toArray();
-        return new Vector.Iterator() {
-            int offset = 0;
-
-            public boolean isExhausted() {
-                return offset >= indices.length;
-            }
-
-            @Override
-            public void reset() {
-                offset = 0;
-            }
+        return new Cursor().over(this);
+    }
 
-            @Override
-            public void advance() {
-                offset ++;
-            }
+    /**
+     * Reusable `Vector.Iterator` over a `SparseVector`. `over` and `reset` copy the entries (in table order, no
+     * per-entry lookup) into buffers the cursor keeps and only grows, so once those fit the largest vector seen,
+     * re-pointing a `Cursor` allocates nothing. A hot loop can keep one around rather than calling `iterator()`
+     * per vector. Like any iterator, mutating the vector while iterating is unsupported.
+     */
+    public static class Cursor implements Vector.Iterator {
+        private MutableLongDoubleMap vec;
+        private long[] indices = new long[0];
+        private double[] values = new double[0];
+        private int numEntries = 0;
+        private int pos = 0;
+        // allocated once so `reset` doesn't create a lambda per call
+        private final LongDoubleProcedure appendEntry = (idx, value) -> {
+            indices[numEntries] = idx;
+            values[numEntries] = value;
+            numEntries++;
+        };
 
-            @Override
-            public long index() {
-                return indices[offset];
+        /**
+         * Point the cursor at the start of `vector`
+         * @return `this` for chaining
+         */
+        public Cursor over(SparseVector vector) {
+            this.vec = vector.vec;
+            reset();
+            return this;
+        }
+
+        @Override
+        public boolean isExhausted() {
+            return pos >= numEntries;
+        }
+
+        @Override
+        public void reset() {
+            if (vec == null) {
+                throw new IllegalStateException("Cursor isn't pointed at a vector, call over()");
             }
-
-            @Override
-            public double value() {
-                return at(indices[offset]);
+            if (indices.length < vec.size()) {
+                indices = new long[vec.size()];
+                values = new double[vec.size()];
             }
-        };
+            numEntries = 0;
+            vec.forEachKeyValue(appendEntry);
+            pos = 0;
+        }
+
+        @Override
+        public void advance() {
+            pos++;
+        }
+
+        @Override
+        public long index() {
+            return indices[pos];
+        }
+
+        @Override
+        public double value() {
+            return values[pos];
+        }
     }
 
     @Override
@@ -42,6 +42,22 @@ public interface Vector {
      */
     Vector copy();
 
+    /**
+     * @return A vector over `[offset, offset + length)` of this one that shares its storage, so writes to either
+     * are visible in both. Use `copy()` on the view to detach it.
+     */
+    default Vector view(long offset, long length) {
+        return view(offset, length, 1);
+    }
+
+    /**
+     * Strided version of `view(offset, length)`: entry `idx` of the view is entry `offset + idx * stride` of
+     * this vector. Useful for interleaved layouts, e.g. every class's weight for a predicate.
+     */
+    default Vector view(long offset, long length, long stride) {
+        return VectorView.of(this, offset, length, stride);
+    }
+
     /**
      * For use cases when you don't want to allocate `Vector.Entry` on a per-entry basis and want to re-use the iterator
      * without object allocation. This interface allows for an implementation where there is no object allocation
@@ -85,12 +101,20 @@ public interface Vector {
         return result;
     }
 
+    /**
+     * How bulk operations on this vector are executed. Defaults to `ExecutionPolicy.current()`.
+     */
+    default ExecutionPolicy executionPolicy() {
+        return ExecutionPolicy.current();
+    }
+
     /**
      * Mutate the Vector-in-place according to `updateFn`
      * @param updateFn
      */
     default void mapInPlace(EntryUpdateFunction updateFn) {
-        entries().forEachOrdered(entry -> {
+        // writes go through `set` which needn't be thread-safe, so this is always sequential
+        entries(ExecutionPolicy.sequential()).forEachOrdered(entry -> {
             double updatedValue = updateFn.update(entry.index, entry.value);
             set(entry.index, updatedValue);
         });
@@ -149,9 +173,10 @@ public interface Vector {
       if (other.numStoredEntries() < this.numStoredEntries()) {
         return other.dotProduct(this);
       }
-      return nonZeroEntries()
+      val policy = executionPolicy();
+      return policy.execute(numStoredEntries(), () -> nonZeroEntries(policy)
         .mapToDouble(entry -> entry.value * other.at(entry.index))
-        .sum();
+        .sum());
     }
 
     default double l2NormSquared() {
@@ -179,13 +204,25 @@ public interface Vector {
         return newValue;
     }
 
+    /**
+     * Stream over every entry, parallel if `executionPolicy()` says so for `dimension()` entries. To keep a
+     * parallel terminal operation off the common pool, invoke it within `ExecutionPolicy.execute`.
+     */
     default Stream<Entry> entries() {
+        return entries(executionPolicy());
+    }
+
+    default Stream<Entry> entries(ExecutionPolicy policy) {
         val spliterator = new VectorSpliterator(this, 0, dimension());
-        return StreamSupport.stream(spliterator, true);
+        return StreamSupport.stream(spliterator, policy.isParallel(dimension()));
     }
 
     default Stream<Entry> nonZeroEntries() {
-        return entries().filter(e -> e.value != 0.0);
+        return nonZeroEntries(executionPolicy());
+    }
+
+    default Stream<Entry> nonZeroEntries(ExecutionPolicy policy) {
+        return entries(policy).filter(e -> e.value != 0.0);
     }
 
     default Vector add(double scale, Vector dir) {
@@ -207,7 +244,8 @@ public interface Vector {
     }
 
     default void scaleInPlace(double v) {
-        this.nonZeroEntries().forEach(e -> this.set(e.getIndex(), v * e.getValue()));
+        // writes go through `set` which needn't be thread-safe, so this is always sequential
+        this.nonZeroEntries(ExecutionPolicy.sequential()).forEach(e -> this.set(e.getIndex(), v * e.getValue()));
     }
 
     default double[] toDoubles() {
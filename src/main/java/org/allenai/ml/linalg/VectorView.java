@@ -0,0 +1,190 @@
+package org.allenai.ml.linalg;
+
+import lombok.val;
+
+/**
+ * Backend-agnostic `Vector.view`, every access is forwarded to the parent at `offset + idx * stride`. Iterating
+ * a dense parent walks the view's range, iterating a sparse one walks the parent's stored entries and skips
+ * the ones outside the view, so either way the cost is proportional to what's stored.
+ *
+ * __Internal notes__: Views of views collapse to a single view of the root so access never goes through more
+ * than one level of indirection.
+ */
+final class VectorView implements Vector {
+    private final Vector parent;
+    private final long offset;
+    private final long length;
+    private final long stride;
+
+    private VectorView(Vector parent, long offset, long length, long stride) {
+        this.parent = parent;
+        this.offset = offset;
+        this.length = length;
+        this.stride = stride;
+    }
+
+    static Vector of(Vector parent, long offset, long length, long stride) {
+        if (offset < 0 || length < 0 || stride < 1) {
+            val errMsg = String.format("Illegal view offset %d, length %d, stride %d", offset, length, stride);
+            throw new IllegalArgumentException(errMsg);
+        }
+        if (length > 0 && offset + (length - 1) * stride >= parent.dimension()) {
+            val errMsg = String.format("View past the end of dimension %d", parent.dimension());
+            throw new IllegalArgumentException(errMsg);
+        }
+        if (parent instanceof VectorView) {
+            val parentView = (VectorView) parent;
+            return new VectorView(parentView.parent,
+                parentView.offset + offset * parentView.stride,
+                length,
+                parentView.stride * stride);
+        }
+        return new VectorView(parent, offset, length, stride);
+    }
+
+    private long parentIndex(long idx) {
+        if (idx < 0 || idx >= length) {
+            val errMsg = String.format("Illegal index %d > dimension %d", idx, length);
+            throw new IllegalArgumentException(errMsg);
+        }
+        return offset + idx * stride;
+    }
+
+    private boolean isParentDense() {
+        return parent.numStoredEntries() >= parent.dimension();
+    }
+
+    @Override
+    public long dimension() {
+        return length;
+    }
+
+    @Override
+    public double at(long dimensionIdx) {
+        return parent.at(parentIndex(dimensionIdx));
+    }
+
+    @Override
+    public void set(long dimensionIdx, double val) {
+        parent.set(parentIndex(dimensionIdx), val);
+    }
+
+    @Override
+    public double inc(long idx, double amount) {
+        return parent.inc(parentIndex(idx), amount);
+    }
+
+    @Override
+    public long numStoredEntries() {
+        if (isParentDense()) {
+            return length;
+        }
+        long numStored = 0;
+        Vector.Iterator it = iterator();
+        while (!it.isExhausted()) {
+            numStored++;
+            it.advance();
+        }
+        return numStored;
+    }
+
+    @Override
+    public ExecutionPolicy executionPolicy() {
+        return parent.executionPolicy();
+    }
+
+    /**
+     * Dense parents copy to a `DenseVector`, sparse ones to a `SparseVector`
+     */
+    @Override
+    public Vector copy() {
+        if (isParentDense()) {
+            return DenseVector.of(toDoubles());
+        }
+        val result = SparseVector.make(length);
+        result.addInPlace(1.0, iterator());
+        return result;
+    }
+
+    @Override
+    public Vector.Iterator iterator() {
+        return isParentDense() ? new RangeIterator() : new FilteredIterator(parent.iterator());
+    }
+
+    private class RangeIterator implements Vector.Iterator {
+        private long idx = 0;
+
+        @Override
+        public boolean isExhausted() {
+            return idx >= length;
+        }
+
+        @Override
+        public void reset() {
+            idx = 0;
+        }
+
+        @Override
+        public void advance() {
+            idx++;
+        }
+
+        @Override
+        public long index() {
+            return idx;
+        }
+
+        @Override
+        public double value() {
+            return parent.at(offset + idx * stride);
+        }
+    }
+
+    private class FilteredIterator implements Vector.Iterator {
+        private final Vector.Iterator parentIt;
+        private long idx;
+
+        FilteredIterator(Vector.Iterator parentIt) {
+            this.parentIt = parentIt;
+            skipToView();
+        }
+
+        private void skipToView() {
+            while (!parentIt.isExhausted()) {
+                long rel = parentIt.index() - offset;
+                if (rel >= 0 && rel % stride == 0 && rel / stride < length) {
+                    idx = rel / stride;
+                    return;
+                }
+                parentIt.advance();
+            }
+        }
+
+        @Override
+        public boolean isExhausted() {
+            return parentIt.isExhausted();
+        }
+
+        @Override
+        public void reset() {
+            parentIt.reset();
+            skipToView();
+        }
+
+        @Override
+        public void advance() {
+            parentIt.advance();
+            skipToView();
+        }
+
+        @Override
+        public long index() {
+            return idx;
+        }
+
+        @Override
+        public double value() {
+            return parentIt.value();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.allenai.ml.linalg;
+
+import com.gs.collections.impl.map.mutable.primitive.LongObjectHashMap;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of scratch `DenseVector`s keyed by dimension. Iterative code borrows buffers, and returns them once done,
+ * so after a warm-up the same handful of buffers get recycled rather than allocating full-dimension vectors per
+ * iteration.
+ *
+ * Borrowed vectors have arbitrary contents, use `copyOf` when that matters. Only hand back vectors
+ * you borrowed and no longer reference anywhere, the next `borrow` may overwrite them.
+ *
+ * __Internal notes__: Not thread-safe, meant to be owned by a single optimization loop.
+ */
+public class VectorWorkspace {
+    private final LongObjectHashMap<ArrayDeque<DenseVector>> free = new LongObjectHashMap<>();
+    private long numAllocated = 0;
+
+    /**
+     * @return a vector of `dimension` with arbitrary contents
+     */
+    public DenseVector borrow(long dimension) {
+        ArrayDeque<DenseVector> pool = free.get(dimension);
+        DenseVector v = pool != null ? pool.pollFirst() : null;
+        if (v == null) {
+            numAllocated++;
+            v = DenseVector.of(dimension);
+        }
+        return v;
+    }
+
+    /**
+     * @return a borrowed vector holding the same entries as `src`
+     */
+    public DenseVector copyOf(Vector src) {
+        return borrow(src.dimension()).assign(src);
+    }
+
+    public void release(Vector v) {
+        if (!(v instanceof DenseVector)) {
+            throw new IllegalArgumentException("Can only release vectors from borrow(): " + v.getClass());
+        }
+        ArrayDeque<DenseVector> pool = free.get(v.dimension());
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            free.put(v.dimension(), pool);
+        }
+        pool.addFirst((DenseVector) v);
+    }
+
+    /**
+     * @return how many vectors `borrow` had to allocate since this workspace was created
+     */
+    public long numAllocated() {
+        return numAllocated;
+    }
+}
@@ -1,24 +1,71 @@
 package org.allenai.ml.objective;
 
+import org.allenai.ml.linalg.ConcurrentDenseVector;
 import org.allenai.ml.linalg.DenseVector;
+import org.allenai.ml.linalg.SparseVector;
 import org.allenai.ml.linalg.Vector;
 import org.allenai.ml.optimize.GradientFn;
+import org.allenai.ml.util.MapReduceStats;
 import org.allenai.ml.util.Parallel;
+import org.allenai.ml.util.ParallelRuntime;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Objective function calculation over an entire dataset. Natively supports multiple threads of execution. You can
  * wrap this function with a regularization `GradientFn` if desired.
+ *
+ * Each worker accumulates its own gradient, either as a `DenseVector` or, when a worker only touches a small
+ * fraction of the coordinates, as a `SparseVector` so both memory and the merge cost scale with the number of
+ * touched coordinates rather than `dimension * numWorkers`. Alternatively all workers can share a single
+ * `ConcurrentDenseVector`. See `GradientAccumulation`.
+ *
+ * An objective implementing `WorkspaceObjectiveFn` gets one workspace per worker for each evaluation.
+ *
+ * By default workers claim chunks of examples dynamically (see `Parallel.mapReduce`). With `withCosts` the data is
+ * instead split once into one contiguous part per worker of about equal total cost, which every evaluation reuses.
  */
 public class BatchObjectiveFn<T> implements GradientFn {
     private final List<T> data;
     private final long dimension;
     private final ExampleObjectiveFn<T> exampleObjectiveFn;
     private final Parallel.MROpts mapReduceOpts;
+    // Whether `shutdown` should shut down `mapReduceOpts.executorService`, false when it belongs to a runtime
+    private final boolean ownsExecutor;
+    private GradientAccumulation gradientAccumulation = GradientAccumulation.AUTO;
+    // Static split of `data` across workers, null to schedule dynamically
+    private Parallel.Partition partition = null;
+    // Fraction of coordinates a single worker touched in the last `apply`, used by `AUTO`
+    private volatile double lastWorkerFill = 0.0;
+
+    /**
+     * Past this fraction of touched coordinates a hash-map gradient costs more (memory and time) than a dense one
+     */
+    public final static double MAX_SPARSE_FILL = 0.1;
+
+    public enum GradientAccumulation {
+        /**
+         * Every worker gets a `DenseVector` gradient
+         */
+        DENSE,
+        /**
+         * Every worker records only the coordinates it touches in a `SparseVector`
+         */
+        SPARSE,
+        /**
+         * Start sparse if the previous evaluation was, and have a worker switch to dense once it has touched more
+         * than `MAX_SPARSE_FILL` of the coordinates
+         */
+        AUTO,
+        /**
+         * All workers `inc` a single `ConcurrentDenseVector`, so gradient memory doesn't grow with the number of
+         * workers, at the cost of a compare-and-swap per update
+         */
+        SHARED
+    }
 
     public BatchObjectiveFn(List<T> data,
                             ExampleObjectiveFn<T> exampleObjectiveFn,
@@ -29,13 +76,60 @@ public class BatchObjectiveFn<T> implements GradientFn {
         this.exampleObjectiveFn = exampleObjectiveFn;
         this.dimension = dimension;
         this.mapReduceOpts = mrOpts;
+        this.ownsExecutor = true;
+    }
+
+    /**
+     * Evaluate on a shared `runtime`, which the caller closes; `shutdown` is then a no-op
+     */
+    public BatchObjectiveFn(List<T> data,
+                            ExampleObjectiveFn<T> exampleObjectiveFn,
+                            long dimension,
+                            ParallelRuntime runtime) {
+        this.data = new ArrayList<>(data);
+        this.exampleObjectiveFn = exampleObjectiveFn;
+        this.dimension = dimension;
+        this.mapReduceOpts = runtime.mrOpts();
+        this.ownsExecutor = false;
+    }
+
+    /**
+     * @return `this` for chaining
+     */
+    public BatchObjectiveFn<T> withGradientAccumulation(GradientAccumulation gradientAccumulation) {
+        this.gradientAccumulation = gradientAccumulation;
+        return this;
+    }
+
+    /**
+     * Statically balance examples across workers by `cost`, an estimate of the relative work of evaluating an
+     * example (e.g. proportional to its length). Costs are computed once, here.
+     *
+     * @return `this` for chaining
+     */
+    public BatchObjectiveFn<T> withCosts(ToDoubleFunction<? super T> cost) {
+        this.partition = Parallel.Partition.balanced(data, cost, mapReduceOpts.numWorkers);
+        return this;
+    }
+
+    /**
+     * Report per-worker timings of every evaluation to `listener` (see `MapReduceStats`), e.g. to spot stragglers
+     * or pick a thread count. Sets the listener on the `MROpts` this was constructed with.
+     *
+     * @return `this` for chaining
+     */
+    public BatchObjectiveFn<T> withStatsListener(Consumer<MapReduceStats> listener) {
+        this.mapReduceOpts.statsListener = listener;
+        return this;
     }
 
     /**
-     * Must be called to dispose of thread pool
+     * Must be called to dispose of thread pool, unless constructed with a `ParallelRuntime`
      */
     public void shutdown() {
-        Parallel.shutdownExecutor(mapReduceOpts.executorService, Long.MAX_VALUE);
+        if (ownsExecutor) {
+            Parallel.shutdownExecutor(mapReduceOpts.executorService, Long.MAX_VALUE);
+        }
     }
 
 
@@ -43,33 +137,122 @@ public class BatchObjectiveFn<T> implements GradientFn {
     public Result apply(Vector weightsOriginal) {
         // defensive copy so all workers can read this instance
         final Vector weights = weightsOriginal.copy();
+        final long dim = weights.dimension();
+        final boolean startSparse = gradientAccumulation == GradientAccumulation.SPARSE ||
+            (gradientAccumulation == GradientAccumulation.AUTO && lastWorkerFill <= MAX_SPARSE_FILL);
+        final long maxSparseEntries = gradientAccumulation == GradientAccumulation.AUTO ?
+            (long) (MAX_SPARSE_FILL * dim) :
+            Long.MAX_VALUE;
+        final Vector sharedGradient = gradientAccumulation == GradientAccumulation.SHARED ?
+            ConcurrentDenseVector.of(dim) :
+            null;
         class ObjectiveStats {
             double value;
-            Vector gradient = DenseVector.of(weights.dimension());
+            Vector gradient = sharedGradient != null ? sharedGradient :
+                startSparse ? SparseVector.make(dim) : DenseVector.of(dim);
+            // largest number of coordinates touched by a single worker feeding into this, -1 until
+            // this has been merged with another worker's stats
+            long maxWorkerEntries = -1;
+
+            long maxWorkerEntries() {
+                // not merged yet, so `gradient` is a single worker's
+                return maxWorkerEntries >= 0 ? maxWorkerEntries : numTouched(gradient);
+            }
+
+            void densifyIfFull() {
+                if (gradient instanceof SparseVector && gradient.numStoredEntries() > maxSparseEntries) {
+                    Vector dense = DenseVector.of(dim);
+                    dense.addInPlace(1.0, gradient);
+                    gradient = dense;
+                }
+            }
         }
-        Parallel.MapReduceDriver<T, ObjectiveStats> driver = new Parallel.MapReduceDriver<T, ObjectiveStats>() {
+        @SuppressWarnings("unchecked")
+        final WorkspaceObjectiveFn<T, Object> workspaceFn = exampleObjectiveFn instanceof WorkspaceObjectiveFn
+            ? (WorkspaceObjectiveFn<T, Object>) exampleObjectiveFn
+            : null;
+        // the worker context is the objective's workspace, if it has one
+        Parallel.WorkerContextDriver<T, ObjectiveStats, Object> driver =
+                new Parallel.WorkerContextDriver<T, ObjectiveStats, Object>() {
             @Override
             public ObjectiveStats newData() {
                 return new ObjectiveStats();
             }
 
             @Override
-            public void update(ObjectiveStats data, T elem) {
-                data.value += exampleObjectiveFn.evaluate(elem, weights, data.gradient);
+            public Object newWorkerContext() {
+                return workspaceFn != null ? workspaceFn.newWorkspace() : null;
+            }
+
+            @Override
+            public void update(ObjectiveStats data, T elem, Object workspace) {
+                data.value += workspaceFn != null
+                    ? workspaceFn.evaluate(elem, weights, data.gradient, workspace)
+                    : exampleObjectiveFn.evaluate(elem, weights, data.gradient);
+                data.densifyIfFull();
             }
 
             @Override
             public void merge(ObjectiveStats a, ObjectiveStats b) {
                 a.value += b.value;
+                if (a.gradient == b.gradient) {
+                    // both are `sharedGradient`
+                    return;
+                }
+                if (gradientAccumulation == GradientAccumulation.AUTO) {
+                    // measure before merging, merges happen in a tree so either side may be a single worker's
+                    a.maxWorkerEntries = Math.max(a.maxWorkerEntries(), b.maxWorkerEntries());
+                }
+                // add the sparse side into the dense one so the merge costs O(nnz) whenever possible
+                if (a.gradient instanceof SparseVector && !(b.gradient instanceof SparseVector)) {
+                    Vector tmp = a.gradient;
+                    a.gradient = b.gradient;
+                    b.gradient = tmp;
+                }
                 a.gradient.addInPlace(1.0, b.gradient);
+                a.densifyIfFull();
             }
         };
         // The optimization code is in terms of 'minimizing' so we want to
         // return the negative objective value and gradient
-        ObjectiveStats stats = Parallel.mapReduce(data, driver, mapReduceOpts);
+        ObjectiveStats stats = partition != null
+            ? Parallel.mapReduce(data, driver, mapReduceOpts, partition)
+            : Parallel.mapReduce(data, driver, mapReduceOpts);
+        lastWorkerFill = dim > 0 && gradientAccumulation == GradientAccumulation.AUTO
+            ? (double) stats.maxWorkerEntries() / dim
+            : 0.0;
+        if (stats.gradient instanceof SparseVector) {
+            Vector result = DenseVector.of(dim);
+            result.addInPlace(-1.0, stats.gradient);
+            return Result.of(-stats.value, result);
+        }
+        if (stats.gradient == sharedGradient) {
+            Vector result = DenseVector.of(sharedGradient.toDoubles());
+            result.scaleInPlace(-1.0);
+            return Result.of(-stats.value, result);
+        }
         return Result.of(-stats.value, stats.gradient.scale(-1.0));
     }
 
+    /**
+     * A dense gradient may have been densified from a sparse one, so count its non-zeros rather than assume
+     * it's full, otherwise `AUTO` could never switch back to sparse
+     */
+    private static long numTouched(Vector gradient) {
+        if (gradient instanceof SparseVector) {
+            return gradient.numStoredEntries();
+        }
+        long numNonZero = 0;
+        Vector.Iterator it = gradient.iterator();
+        while (!it.isExhausted()) {
+            if (it.value() != 0.0) {
+                numNonZero++;
+            }
+            it.advance();
+        }
+        return numNonZero;
+    }
+
     @Override
     public long dimension() {
         return dimension;
@@ -0,0 +1,23 @@
+package org.allenai.ml.objective;
+
+import org.allenai.ml.linalg.Vector;
+
+/**
+ * `ExampleObjectiveFn` which evaluates examples with reusable scratch state `W` (buffers, decoders, etc.).
+ * `BatchObjectiveFn` creates one workspace per worker thread and passes it to every `evaluate` that worker makes,
+ * so the per-example hot path needn't allocate. A workspace is only ever used by one thread at a time.
+ */
+public interface WorkspaceObjectiveFn<T, W> extends ExampleObjectiveFn<T> {
+
+    W newWorkspace();
+
+    /**
+     * Same as `evaluate(example, inParams, outGrad)`, using (and possibly resizing) `workspace` for scratch space
+     */
+    double evaluate(T example, Vector inParams, Vector outGrad, W workspace);
+
+    @Override
+    default double evaluate(T example, Vector inParams, Vector outGrad) {
+        return evaluate(example, inParams, outGrad, newWorkspace());
+    }
+}
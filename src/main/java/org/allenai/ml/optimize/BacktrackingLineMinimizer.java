@@ -1,6 +1,7 @@
 package org.allenai.ml.optimize;
 
 import org.allenai.ml.linalg.Vector;
+import org.allenai.ml.linalg.VectorWorkspace;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.slf4j.Logger;
@@ -14,6 +15,11 @@ public class BacktrackingLineMinimizer implements LineMinimizer {
 
     @Override
     public Result minimize(GradientFn gradFn, Vector x, Vector dir) {
+        return minimize(gradFn, x, dir, new VectorWorkspace());
+    }
+
+    @Override
+    public Result minimize(GradientFn gradFn, Vector x, Vector dir, VectorWorkspace workspace) {
         val valGradPair = gradFn.apply(x);
         double f0 = valGradPair.fx;
         val grad = valGradPair.grad;
@@ -24,14 +30,20 @@ public class BacktrackingLineMinimizer implements LineMinimizer {
         // Don't be picky about reductions when the gradient is approximate
         final double delta = gradFn.isGradientApproximate() ? 0.0 :  beta * grad.dotProduct(dir);
         double stepLen = 1.0;
-        while (stepLen >= minStepLen) {
-            Vector stepX = x.add(stepLen, dir);
-            final double fx = gradFn.apply(stepX).fx;
-            logger.trace("Step size: alpha {}, new {}, old {}", stepLen, fx, f0);
-            if (fx < f0 + stepLen * delta) {
-                return Result.of(stepLen, fx);
+        // one buffer for every trial point
+        val stepX = workspace.borrow(x.dimension());
+        try {
+            while (stepLen >= minStepLen) {
+                stepX.assign(x).addInPlace(stepLen, dir);
+                final double fx = gradFn.apply(stepX).fx;
+                logger.trace("Step size: alpha {}, new {}, old {}", stepLen, fx, f0);
+                if (fx < f0 + stepLen * delta) {
+                    return Result.of(stepLen, fx);
+                }
+                stepLen *= alpha;
             }
-            stepLen *= alpha;
+        } finally {
+            workspace.release(stepX);
         }
         throw new RuntimeException("Step-size underflow: can't make the value smaller along gradient");
     }
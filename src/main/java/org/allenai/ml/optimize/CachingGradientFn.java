@@ -1,17 +1,23 @@
 package org.allenai.ml.optimize;
 
 import org.allenai.ml.linalg.Vector;
+import org.allenai.ml.linalg.VectorWorkspace;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 
 import java.util.LinkedList;
-import java.util.Optional;
 
+/**
+ * Remembers the last `maxHistory` evaluations. Inputs are copied into buffers recycled from evicted entries, so
+ * callers are free to mutate (or recycle) a vector after passing it to `apply`. Returned gradients are shared
+ * with the cache and must not be mutated.
+ */
 @RequiredArgsConstructor
 public class CachingGradientFn implements GradientFn {
     private final int maxHistory;
     private final GradientFn gradFn;
     private final LinkedList<HistoryEntry> history = new LinkedList<>();
+    private final VectorWorkspace inputBuffers = new VectorWorkspace();
 
     @RequiredArgsConstructor
     public class HistoryEntry {
@@ -22,18 +28,16 @@ public class CachingGradientFn implements GradientFn {
 
     @Override
     public GradientFn.Result apply(Vector x) {
-        Optional<HistoryEntry> foundEntry = this.history
-            .stream()
-            .filter(e -> e.input.closeTo(x))
-            .findFirst();
-        if (foundEntry.isPresent()) {
-            return GradientFn.Result.of(foundEntry.get().output, foundEntry.get().grad);
+        for (HistoryEntry entry : this.history) {
+            if (entry.input.closeTo(x)) {
+                return GradientFn.Result.of(entry.output, entry.grad);
+            }
         }
         val result = this.gradFn.apply(x);
-        val entry = new HistoryEntry(x, result.fx, result.grad);
+        val entry = new HistoryEntry(inputBuffers.copyOf(x), result.fx, result.grad);
         this.history.addFirst(entry);
         if (this.history.size() > this.maxHistory) {
-            this.history.removeLast();
+            inputBuffers.release(this.history.removeLast().input);
         }
         return result;
     }
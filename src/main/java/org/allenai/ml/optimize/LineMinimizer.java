@@ -1,6 +1,7 @@
 package org.allenai.ml.optimize;
 
 import org.allenai.ml.linalg.Vector;
+import org.allenai.ml.linalg.VectorWorkspace;
 import lombok.RequiredArgsConstructor;
 
 /**
@@ -21,4 +22,12 @@ public interface LineMinimizer {
     }
 
     Result minimize(GradientFn gradFn, Vector x, Vector dir);
+
+    /**
+     * Like `minimize(gradFn, x, dir)` but trial points may be built in buffers borrowed from `workspace`. Those
+     * buffers are recycled after the call, so `gradFn` must not hold onto its inputs (`CachingGradientFn` copies).
+     */
+    default Result minimize(GradientFn gradFn, Vector x, Vector dir, VectorWorkspace workspace) {
+        return minimize(gradFn, x, dir);
+    }
 }
\ No newline at end of file
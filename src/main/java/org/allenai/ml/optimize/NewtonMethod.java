@@ -1,6 +1,7 @@
 package org.allenai.ml.optimize;
 
 import org.allenai.ml.linalg.Vector;
+import org.allenai.ml.linalg.VectorWorkspace;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
@@ -26,7 +27,10 @@ public class NewtonMethod implements GradientFnMinimizer {
         public double alpha = 0.5;
         public double beta = 0.01;
         public double stepLenTolerance = 1.0e-10;
+        // Called with each iterate, which is recycled once the callback returns: copy it to keep it
         public Predicate<Vector> iterCallback;
+        // If set, full-dimension temporaries are borrowed from this rather than a workspace per `minimize` call
+        public VectorWorkspace workspace;
         public LineMinimizer lineMinimizer() {
             return BacktrackingLineMinimizer.of(alpha, beta, stepLenTolerance);
         }
@@ -41,27 +45,42 @@ public class NewtonMethod implements GradientFnMinimizer {
         this.opts = opts;
     }
 
-    private Vector step(GradientFn gradFn, Vector x, LineMinimizer ls, QuasiNewton qn) {
+    /**
+     * @return the next guess, borrowed from `workspace`
+     */
+    private Vector step(GradientFn gradFn, Vector x, LineMinimizer ls, QuasiNewton qn, VectorWorkspace workspace) {
         Vector grad = gradFn.apply(x).grad;
-        Vector dir = qn.implictMultiply(grad);
+        Vector dir = qn.implictMultiply(grad, workspace);
         dir.scaleInPlace(-1.0);
-        val lsRes = ls.minimize(gradFn, x, dir);
-        return x.add(lsRes.stepLength, dir);
+        val lsRes = ls.minimize(gradFn, x, dir, workspace);
+        val xnew = workspace.copyOf(x);
+        xnew.addInPlace(lsRes.stepLength, dir);
+        workspace.release(dir);
+        return xnew;
     }
 
     private final static double EPS = 1.0e-200;
 
+    /**
+     * __Internal notes__: Every full-dimension temporary (search direction, line-search trial points, the deltas
+     * handed to the `QuasiNewton` and the iterates themselves) is borrowed from a `VectorWorkspace` and handed
+     * back once dead, so steady-state iterations don't allocate. That includes iterates passed to `iterCallback`,
+     * which must copy any iterate it wants to keep (e.g. the best model so far).
+     */
     @Override
     public Result minimize(GradientFn gradFn, Vector initGuess) {
         QuasiNewton qn = this.quasiNewtonFn.apply(gradFn);
         val lm = this.opts.lineMinimizer();
+        val workspace = opts.workspace != null ? opts.workspace : new VectorWorkspace();
         Vector x = initGuess;
+        // whether `x` came from `workspace` and nobody else references it
+        boolean recycleX = false;
         log.info("Optimization started with {} parameters", initGuess.dimension());
         for (int i=0; i < opts.maxIters; ++i) {
             // iteration
             long start = System.currentTimeMillis();
             val curRes = gradFn.apply(x);
-            Vector xnew = step(gradFn, x, lm, qn);
+            Vector xnew = step(gradFn, x, lm, qn, workspace);
             val newRes = gradFn.apply(xnew);
             if (newRes.fx > curRes.fx) {
                 throw new IllegalStateException(
@@ -72,11 +91,20 @@ public class NewtonMethod implements GradientFnMinimizer {
             long stop = System.currentTimeMillis();
             log.info("[Iteration {}][{} ms] Ended with value {} and relDiff {}", i, (stop-start), newRes.fx, relDiff);
             if (relDiff < opts.tolerance) {
+                workspace.release(xnew);
                 break;
             }
             // update
-            qn.update(xnew.add(-1.0,x), newRes.grad.add(-1.0, curRes.grad));
+            val xDelta = workspace.copyOf(xnew);
+            xDelta.addInPlace(-1.0, x);
+            val gradDelta = workspace.copyOf(newRes.grad);
+            gradDelta.addInPlace(-1.0, curRes.grad);
+            qn.update(xDelta, gradDelta, workspace);
+            if (recycleX) {
+                workspace.release(x);
+            }
             x = xnew;
+            recycleX = true;
             boolean shouldContinue = true;
             if (opts.iterCallback != null) {
                 shouldContinue = opts.iterCallback.test(x);
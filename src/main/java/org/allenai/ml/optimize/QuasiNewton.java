@@ -1,8 +1,10 @@
 package org.allenai.ml.optimize;
 
 import org.allenai.ml.linalg.Vector;
+import org.allenai.ml.linalg.VectorWorkspace;
 import com.gs.collections.api.tuple.Pair;
 import com.gs.collections.impl.tuple.Tuples;
+import lombok.val;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -20,6 +22,14 @@ public interface QuasiNewton {
      */
     Vector implictMultiply(Vector dir);
 
+    /**
+     * Like `implictMultiply(dir)` but the result is borrowed from `workspace`, so the caller owns it (and should
+     * release it). `dir` is left untouched.
+     */
+    default Vector implictMultiply(Vector dir, VectorWorkspace workspace) {
+        return workspace.copyOf(implictMultiply(dir));
+    }
+
     /**
      * Update the approximation
      * @param xDelta The delta from the last guess
@@ -29,6 +39,14 @@ public interface QuasiNewton {
         // intentional no-op
     }
 
+    /**
+     * Like `update(xDelta, gradDelta)` but for deltas borrowed from `workspace`. Ownership passes to the
+     * `QuasiNewton`, which releases them once it no longer needs them.
+     */
+    default void update(Vector xDelta, Vector gradDelta, VectorWorkspace workspace) {
+        update(xDelta, gradDelta);
+    }
+
     /**
      * Approximate inverse hessian with the identity
      */
@@ -43,6 +61,8 @@ public interface QuasiNewton {
         return new QuasiNewton() {
             // Store (xDelta, gradDelta) pairs
             private final List<Pair<Vector, Vector>> history = new ArrayList<>();
+            private final double[] rho = new double[maxHistorySize];
+            private final double[] alpha = new double[maxHistorySize];
 
             private double initialScale() {
                 if (history.isEmpty()) {
@@ -58,26 +78,34 @@ public interface QuasiNewton {
 
             @Override
             public Vector implictMultiply(Vector dir) {
-                double[] rho = new double[history.size()];
-                double[] alpha = new double[history.size()];
-                Vector right = dir.copy();
+                return twoLoopRecursion(dir.copy());
+            }
+
+            @Override
+            public Vector implictMultiply(Vector dir, VectorWorkspace workspace) {
+                return twoLoopRecursion(workspace.copyOf(dir));
+            }
+
+            /**
+             * Standard LBFGS two-loop recursion, done in place on `result` which starts as a copy of the direction
+             */
+            private Vector twoLoopRecursion(Vector result) {
                 for (int i = history.size() - 1; i >= 0; i--) {
                     Vector inputDifference = history.get(i).getOne();
                     Vector derivativeDifference = history.get(i).getTwo();
                     rho[i] = inputDifference.dotProduct(derivativeDifference);
                     assert rho[i]!= 0.0 : "Input diff and derivative diff can't be orthogonal by construction";
-                    alpha[i] = inputDifference.dotProduct(right) / rho[i];
-                    right = right.add(-alpha[i], derivativeDifference);
+                    alpha[i] = inputDifference.dotProduct(result) / rho[i];
+                    result.addInPlace(-alpha[i], derivativeDifference);
                 }
-                right.scaleInPlace(initialScale());
-                Vector left = right;
+                result.scaleInPlace(initialScale());
                 for (int i = 0; i < history.size(); i++) {
                     Vector inputDifference = history.get(i).getOne();
                     Vector derivativeDifference = history.get(i).getTwo();
-                    double beta = derivativeDifference.dotProduct(left) / rho[i];
-                    left = left.add(alpha[i] - beta, inputDifference);
+                    double beta = derivativeDifference.dotProduct(result) / rho[i];
+                    result.addInPlace(alpha[i] - beta, inputDifference);
                 }
-                return left;
+                return result;
             }
 
 
@@ -85,13 +113,22 @@ public interface QuasiNewton {
 
             @Override
             public void update(Vector xDelta, Vector gradDelta) {
+                update(xDelta, gradDelta, null);
+            }
+
+            @Override
+            public void update(Vector xDelta, Vector gradDelta, VectorWorkspace workspace) {
                 if (xDelta.l2NormSquared() < EPS || gradDelta.l2NormSquared() < EPS) {
                     throw new IllegalArgumentException("Too small a diff between successive input or gradient." +
                         "Should have already converged already");
                 }
                 this.history.add(0, Tuples.pair(xDelta, gradDelta));
                 while (this.history.size() > maxHistorySize) {
-                    this.history.remove(this.history.size()-1);
+                    val evicted = this.history.remove(this.history.size()-1);
+                    if (workspace != null) {
+                        workspace.release(evicted.getOne());
+                        workspace.release(evicted.getTwo());
+                    }
                 }
               }
         };
@@ -9,7 +9,7 @@ public class Regularizer {
             @Override
             public Result apply(Vector vec) {
                 Vector grad = vec.scale(2.0/sigmaSq);
-                double val = vec.nonZeroEntries().mapToDouble(e -> e.value * e.value / sigmaSq).sum();
+                double val = vec.l2NormSquared() / sigmaSq;
                 return Result.of(val, grad);
             }
 
@@ -6,8 +6,10 @@ import lombok.val;
 import org.allenai.ml.eval.Accuracy;
 import org.allenai.ml.eval.FMeasure;
 import org.allenai.ml.util.Parallel;
+import org.allenai.ml.util.ParallelRuntime;
 
 import java.util.*;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 
@@ -17,20 +19,52 @@ public class Evaluation<S> {
     public final Accuracy tokenAccuracy;
     public final Map<S, FMeasure> stateFMeasures;
 
+    public static <S, O> Evaluation<S> compute(SequenceTagger<S, O> tagger,
+                                               List<List<Pair<S, O>>> data,
+                                               ParallelRuntime runtime) {
+        return compute(tagger, data, runtime.mrOpts());
+    }
+
     public static <S, O> Evaluation<S> compute(SequenceTagger<S, O> tagger, List<List<Pair<S, O>>> data, Parallel.MROpts mrOpts) {
-        Parallel.MapReduceDriver<List<Pair<S, O>>, Evaluation<S>> driver =
-                new Parallel.MapReduceDriver<List<Pair<S, O>>, Evaluation<S>>() {
+        return Parallel.mapReduce(data, driver(tagger), mrOpts);
+    }
+
+    /**
+     * Evaluate over `data` as it streams in, without holding it all in memory (see `Parallel.mapReduce(Stream, ...)`)
+     */
+    public static <S, O> Evaluation<S> compute(SequenceTagger<S, O> tagger,
+                                               Stream<List<Pair<S, O>>> data,
+                                               ParallelRuntime runtime) {
+        return Parallel.mapReduce(data, driver(tagger), runtime.mrOpts());
+    }
+
+    private static <S, O> Parallel.MapReduceDriver<List<Pair<S, O>>, Evaluation<S>> driver(
+            SequenceTagger<S, O> tagger) {
+        @SuppressWarnings("unchecked")
+        final WorkspaceSequenceTagger<S, O, Object> workspaceTagger = tagger instanceof WorkspaceSequenceTagger
+            ? (WorkspaceSequenceTagger<S, O, Object>) tagger
+            : null;
+        // the worker context is the tagger's workspace, if it has one
+        Parallel.WorkerContextDriver<List<Pair<S, O>>, Evaluation<S>, Object> driver =
+                new Parallel.WorkerContextDriver<List<Pair<S, O>>, Evaluation<S>, Object>() {
             @Override
             public Evaluation<S> newData() {
                 return new Evaluation<>(new Accuracy(), new HashMap<>());
             }
 
             @Override
-            public void update(Evaluation<S> eval, List<Pair<S, O>> elem) {
+            public Object newWorkerContext() {
+                return workspaceTagger != null ? workspaceTagger.newWorkspace() : null;
+            }
+
+            @Override
+            public void update(Evaluation<S> eval, List<Pair<S, O>> elem, Object workspace) {
                 List<O> input = elem.stream().map(Pair::getTwo).collect(toList());
                 List<S> gold = elem.stream().map(Pair::getOne).collect(toList())
                     .subList(1, elem.size()-1);
-                List<S> guess = tagger.bestGuess(input);
+                List<S> guess = workspaceTagger != null
+                    ? workspaceTagger.bestGuess(input, workspace)
+                    : tagger.bestGuess(input);
                 for (int idx = 0; idx < gold.size(); idx++) {
                     S goldLabel = gold.get(idx);
                     S guessLabel = guess.get(idx);
@@ -63,6 +97,6 @@ public class Evaluation<S> {
                 }
             }
         };
-        return Parallel.mapReduce(data, driver, mrOpts);
+        return driver;
     }
 }
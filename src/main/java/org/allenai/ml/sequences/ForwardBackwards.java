@@ -1,28 +1,61 @@
 package org.allenai.ml.sequences;
 
-import com.gs.collections.api.list.primitive.DoubleList;
 import com.gs.collections.api.list.primitive.MutableDoubleList;
 import com.gs.collections.impl.list.mutable.primitive.DoubleArrayList;
 import org.allenai.ml.math.SloppyMath;
-import lombok.AccessLevel;
-import lombok.Getter;
 
 import java.util.*;
-import java.util.function.ToDoubleFunction;
-import java.util.stream.DoubleStream;
 
 /**
  * Efficient implementation of the ForwardBackwards algorithm
+ *
+ * The `Engine` picks how the partition function and marginals are computed (Viterbi is always a max over log
+ * potentials):
+ * - `LOG_SPACE`: log-sum-exp over every incoming/outgoing transition of every cell. Robust to any potentials.
+ * - `SCALED`: probability space with each position's alphas normalized to sum to one, the usual HMM rescaling (see
+ *   Rabiner, "A Tutorial on Hidden Markov Models"). Plain multiply-adds and a single `exp` per potential. Falls
+ *   back to log space for a sequence whose potentials span more than `SCALED_MAX_LOG_RANGE` within a position, or
+ *   whose scaled values underflow anyway.
  */
 public class ForwardBackwards<S> {
     private final StateSpace<S> stateSpace;
     private final int numStates;
     private final int numTransitions;
+    public final Engine engine;
+    // `StateSpace.incoming()` and `outgoing()`, unpacked for the inner loops
+    private final int[] inOffsets;
+    private final int[] inFromStates;
+    private final int[] inTransitions;
+    private final int[] outOffsets;
+    private final int[] outToStates;
+    private final int[] outTransitions;
+
+    public enum Engine {
+        LOG_SPACE,
+        SCALED
+    }
+
+    /**
+     * Largest spread (max minus min of the finite log potentials at one position) the `SCALED` engine handles;
+     * beyond it, products of exponentiated potentials risk underflowing to zero.
+     */
+    public final static double SCALED_MAX_LOG_RANGE = 200.0;
 
     public ForwardBackwards(StateSpace<S> stateSpace) {
+        this(stateSpace, Engine.LOG_SPACE);
+    }
+
+    public ForwardBackwards(StateSpace<S> stateSpace, Engine engine) {
         this.stateSpace = stateSpace;
         this.numStates = stateSpace.states().size();
         this.numTransitions = stateSpace.transitions().size();
+        this.engine = engine;
+        this.inOffsets = stateSpace.incoming().offsets;
+        this.inFromStates = stateSpace.incoming().otherStates;
+        this.inTransitions = stateSpace.incoming().transitionIndices;
+        this.outOffsets = stateSpace.outgoing().offsets;
+        this.outToStates = stateSpace.outgoing().otherStates;
+        this.outTransitions = stateSpace.outgoing().transitionIndices;
     }
 
     /**
@@ -31,10 +64,96 @@ public class ForwardBackwards<S> {
      *                      Specifically there are [seqLen-1][numStateSpaceTransitions] values, where
      *                      logPotentials[i][t] represents the log-space score for using the `t`th indexed transition
      *                      in the underlying `StateSpace` and `i` represents the `i`th transition.
-     * @return Result object that lazily yields ForwardBackwards quantities. 
+     * @return Result object that lazily yields ForwardBackwards quantities. Uses a fresh `Workspace`, see
+     * `compute(double[][], int, Workspace)` to reuse one across sequences.
      */
     public Result compute(double[][] logPotentials) {
-        return new Result(logPotentials);
+        return compute(logPotentials, logPotentials.length + 1, newWorkspace());
+    }
+
+    /**
+     * Like `compute(double[][])` but over the first `seqLen - 1` rows of `logPotentials` (which may have more, e.g.
+     * rows from `workspace.potentialRows`) and storing all intermediate quantities in `workspace`. The result is
+     * a view over `workspace`, valid until the workspace is next passed to `compute`.
+     */
+    public Result compute(double[][] logPotentials, int seqLen, Workspace workspace) {
+        if (seqLen < 2) {
+            throw new IllegalArgumentException("Need at least start and stop positions, got seqLen " + seqLen);
+        }
+        if (logPotentials.length < seqLen - 1) {
+            throw new IllegalArgumentException(String.format("Need %d rows of potentials for seqLen %d, got %d",
+                seqLen - 1, seqLen, logPotentials.length));
+        }
+        if (!workspace.isFor(this)) {
+            // buffers are sized for the creating instance's state space and engine
+            throw new IllegalArgumentException("Workspace belongs to another ForwardBackwards");
+        }
+        workspace.ensureCapacity(seqLen);
+        workspace.generation++;
+        return new Result(logPotentials, seqLen, workspace);
+    }
+
+    public Workspace newWorkspace() {
+        return new Workspace();
+    }
+
+    /**
+     * Caller-owned buffers for `compute`, meant to be reused across sequences (e.g. one per worker thread). Arrays
+     * are flat (`[pos * numStates + state]` and `[pos * numTransitions + transition]`) and only grow, to the
+     * longest sequence computed so far. Not thread-safe.
+     */
+    public final class Workspace {
+        private int capacity = 0;
+        private int generation = 0;
+        private double[] alphas = new double[0];
+        private double[] maxAlphas = new double[0];
+        private double[] betas = new double[0];
+        private double[] nodeMarginals = new double[0];
+        private double[] edgeMarginals = new double[0];
+        // `SCALED` engine: exponentiated potentials shifted by their row max, and each position's alpha sum
+        private double[] expPotentials = new double[0];
+        private double[] scales = new double[0];
+        private double[][] potentialRows = new double[0][];
+        private final RingOp logAddRing = new LogAddRing();
+        private final RingOp maxRing = new MaxRing();
+
+        private Workspace() {
+        }
+
+        private boolean isFor(ForwardBackwards<?> forwardBackwards) {
+            return forwardBackwards == ForwardBackwards.this;
+        }
+
+        private void ensureCapacity(int seqLen) {
+            if (seqLen <= capacity) {
+                return;
+            }
+            capacity = Math.max(seqLen, capacity + capacity / 2);
+            alphas = new double[capacity * numStates];
+            maxAlphas = new double[capacity * numStates];
+            betas = new double[capacity * numStates];
+            nodeMarginals = new double[capacity * numStates];
+            edgeMarginals = new double[capacity * numTransitions];
+            if (engine == Engine.SCALED) {
+                expPotentials = new double[capacity * numTransitions];
+                scales = new double[capacity];
+            }
+        }
+
+        /**
+         * @return at least `numPositions` reused rows of `numTransitions` slots, to fill with log potentials for
+         * `compute`. Rows hold whatever was last written to them.
+         */
+        public double[][] potentialRows(int numPositions) {
+            if (numPositions > potentialRows.length) {
+                int oldLength = potentialRows.length;
+                potentialRows = Arrays.copyOf(potentialRows, Math.max(numPositions, oldLength + oldLength / 2));
+                for (int idx = oldLength; idx < potentialRows.length; idx++) {
+                    potentialRows[idx] = new double[numTransitions];
+                }
+            }
+            return potentialRows;
+        }
     }
 
     interface RingOp {
@@ -100,112 +219,351 @@ public class ForwardBackwards<S> {
      * A class that lazily computes various quantities associated with the ForwardBackwards algorithms. You only
      * pay for the things you actually consume (e.g. if you only need the viterbi decoding, you don't do the backward
      * pass).
+     *
+     * __Internal notes__: Quantities live in the `Workspace` passed to `compute`, so a result is invalidated once the
+     * workspace is reused and its accessors then throw `IllegalStateException`. Not thread-safe. When the forward pass
+     * runs scaled, the workspace's alphas and betas hold the scaled (probability space) values, so `isScaled()`
+     * decides how they're read.
      */
     public class Result {
         private final double[][] potentials;
         private final int seqLen;
+        private final Workspace workspace;
+        private final int generation;
+        private boolean alphasDone = false;
+        private boolean scaled = false;
+        private double logZ;
+        private boolean betasDone = false;
+        private boolean nodeMarginalsDone = false;
+        private boolean edgeMarginalsDone = false;
+        private List<S> viterbi = null;
 
-        private Result(double[][] potentials) {
+        private Result(double[][] potentials, int seqLen, Workspace workspace) {
             this.potentials = potentials;
-            this.seqLen = potentials.length+1;
+            this.seqLen = seqLen;
+            this.workspace = workspace;
+            this.generation = workspace.generation;
         }
 
-        @Getter(lazy = true)
-        private final List<S> viterbi = computeViterbi();
+        private void ensureCurrent() {
+            if (workspace.generation != generation) {
+                throw new IllegalStateException("Workspace has been reused since this result was computed");
+            }
+        }
 
-        @Getter(value = AccessLevel.PRIVATE, lazy = true)
-        private final double[][] alphas = computeAlphas(new LogAddRing());
+        public int seqLen() {
+            return seqLen;
+        }
 
-        @Getter(value = AccessLevel.PRIVATE, lazy = true)
-        private final double[][] betas = computeBetas();
+        public List<S> getViterbi() {
+            ensureCurrent();
+            if (viterbi == null) {
+                viterbi = computeViterbi();
+            }
+            return viterbi;
+        }
 
-        @Getter(value = AccessLevel.PUBLIC, lazy = true)
-        private final double[][] nodeMarginals = computeNodeMarginals();
+        public double getLogZ() {
+            alphas();
+            return logZ;
+        }
 
-        @Getter(value = AccessLevel.PUBLIC, lazy = true)
-        private final double[][] edgeMarginals = computeEdgeMarginals();
+        /**
+         * @return whether marginals were computed by the `SCALED` engine, false if it fell back to log space
+         */
+        public boolean isScaled() {
+            alphas();
+            return scaled;
+        }
 
-        public double getLogZ() {
-            return getAlphas()[seqLen-1][stateSpace.stopStateIndex()];
+        /**
+         * @return marginal probability of being in state `s` at position `pos`, for `pos` in `[0, seqLen)`
+         */
+        public double nodeMarginal(int pos, int s) {
+            return nodeMarginals()[pos * numStates + s];
+        }
+
+        /**
+         * @return marginal probability of using transition `t` out of position `pos`, for `pos` in `[0, seqLen-1)`
+         */
+        public double edgeMarginal(int pos, int t) {
+            return edgeMarginals()[pos * numTransitions + t];
+        }
+
+        /**
+         * @return node marginals indexed by `pos * numStates + s`, for plain array loops. Shared with the workspace,
+         * so it's only valid as long as the result and must not be modified. May be longer than `seqLen * numStates`.
+         */
+        public double[] flatNodeMarginals() {
+            return nodeMarginals();
+        }
+
+        /**
+         * @return edge marginals indexed by `pos * numTransitions + t`, for plain array loops. Shared with the
+         * workspace, so it's only valid as long as the result and must not be modified. May be longer than
+         * `(seqLen-1) * numTransitions`.
+         */
+        public double[] flatEdgeMarginals() {
+            return edgeMarginals();
         }
 
-        private double[][] computeAlphas(RingOp ringOp) {
-            double[][] alphas = new double[seqLen][numStates];
-            for (double[] row: alphas) {
-                Arrays.fill(row, Double.NEGATIVE_INFINITY);
+        /**
+         * @return [seqLen][numStates] copy of the node marginals. Allocates, prefer `nodeMarginal` on hot paths.
+         */
+        public double[][] getNodeMarginals() {
+            return toRows(nodeMarginals(), seqLen, numStates);
+        }
+
+        /**
+         * @return [seqLen-1][numTransitions] copy of the edge marginals. Allocates, prefer `edgeMarginal` on hot
+         * paths.
+         */
+        public double[][] getEdgeMarginals() {
+            return toRows(edgeMarginals(), seqLen - 1, numTransitions);
+        }
+
+        /**
+         * Copy the edge marginals into the first `seqLen-1` rows of `rows`, e.g. to decode over them as potentials.
+         */
+        public void copyEdgeMarginals(double[][] rows) {
+            double[] edgeMarginals = edgeMarginals();
+            for (int i=0; i < seqLen-1; ++i) {
+                System.arraycopy(edgeMarginals, i * numTransitions, rows[i], 0, numTransitions);
             }
+        }
+
+        private double[][] toRows(double[] flat, int numRows, int rowLength) {
+            double[][] rows = new double[numRows][];
+            for (int i=0; i < numRows; ++i) {
+                rows[i] = Arrays.copyOfRange(flat, i * rowLength, (i+1) * rowLength);
+            }
+            return rows;
+        }
+
+        private double[] alphas() {
+            ensureCurrent();
+            if (!alphasDone) {
+                scaled = engine == Engine.SCALED && computeScaledAlphas(workspace.alphas);
+                if (!scaled) {
+                    computeAlphas(workspace.alphas, workspace.logAddRing);
+                    logZ = workspace.alphas[(seqLen-1) * numStates + stateSpace.stopStateIndex()];
+                }
+                alphasDone = true;
+            }
+            return workspace.alphas;
+        }
+
+        private double[] betas() {
+            ensureCurrent();
+            if (!betasDone) {
+                if (isScaled()) {
+                    computeScaledBetas(workspace.betas);
+                } else {
+                    computeBetas(workspace.betas, workspace.logAddRing);
+                }
+                betasDone = true;
+            }
+            return workspace.betas;
+        }
+
+        private double[] nodeMarginals() {
+            ensureCurrent();
+            if (!nodeMarginalsDone) {
+                computeNodeMarginals(workspace.nodeMarginals);
+                nodeMarginalsDone = true;
+            }
+            return workspace.nodeMarginals;
+        }
+
+        private double[] edgeMarginals() {
+            ensureCurrent();
+            if (!edgeMarginalsDone) {
+                if (isScaled()) {
+                    computeScaledEdgeMarginals(workspace.edgeMarginals);
+                } else {
+                    computeEdgeMarginals(workspace.edgeMarginals);
+                }
+                edgeMarginalsDone = true;
+            }
+            return workspace.edgeMarginals;
+        }
+
+        private void computeAlphas(double[] alphas, RingOp ringOp) {
+            Arrays.fill(alphas, 0, seqLen * numStates, Double.NEGATIVE_INFINITY);
             // initialize
-            alphas[0][stateSpace.startStateIndex()] = 0.0;
+            alphas[stateSpace.startStateIndex()] = 0.0;
             // go forwards
             for (int i=1; i < seqLen; ++i) {
-                int prevPos = i-1;
+                int prevOffset = (i-1) * numStates;
+                double[] prevPotentials = potentials[i-1];
                 for (int s=0; s < numStates; ++s) {
                     // potential bottleneck
                     ringOp.clear();
-                    for (Transition t : stateSpace.transitionsTo(s)) {
-                        double pathVal = alphas[prevPos][t.fromState] + potentials[prevPos][t.selfIndex];
+                    for (int k = inOffsets[s]; k < inOffsets[s+1]; ++k) {
+                        double pathVal = alphas[prevOffset + inFromStates[k]] + prevPotentials[inTransitions[k]];
                         ringOp.add(pathVal);
                     }
-                    alphas[i][s] = ringOp.compute();
+                    alphas[i * numStates + s] = ringOp.compute();
                 }
             }
-            return alphas;
         }
 
-        private double[][] computeBetas() {
-            double[][] betas = new double[seqLen][numStates];
-            for (double[] row: betas) {
-                Arrays.fill(row, Double.NEGATIVE_INFINITY);
-            }
+        private void computeBetas(double[] betas, RingOp ringOp) {
+            Arrays.fill(betas, 0, seqLen * numStates, Double.NEGATIVE_INFINITY);
             // initialize
-            betas[seqLen-1][stateSpace.stopStateIndex()] = 0.0;
-            RingOp ringOp = new LogAddRing();
-            // go forwards
+            betas[(seqLen-1) * numStates + stateSpace.stopStateIndex()] = 0.0;
+            // go backwards
             for (int i=seqLen-2; i >= 0; --i) {
-                // create new effectively final variable for lambda use
-                int curPos = i;
-                int nextPos = i+1;
+                int nextOffset = (i+1) * numStates;
+                double[] curPotentials = potentials[i];
                 for (int s=0; s < numStates; ++s) {
                     // potential bottleneck
                     ringOp.clear();
-                    for (Transition t : stateSpace.transitionsFrom(s)) {
-                        double val = betas[nextPos][t.toState] + potentials[curPos][t.selfIndex];
+                    for (int k = outOffsets[s]; k < outOffsets[s+1]; ++k) {
+                        double val = betas[nextOffset + outToStates[k]] + curPotentials[outTransitions[k]];
                         ringOp.add(val);
                     }
-                    betas[i][s] = ringOp.compute();
+                    betas[i * numStates + s] = ringOp.compute();
                 }
             }
-            return betas;
         }
 
+        /**
+         * Scaled forward pass: `alphas[i]` is the probability-space alpha of position `i` divided by the product of
+         * `scales[1..i]`, where `scales[i]` is the sum of position `i`'s unnormalized alphas, so each position sums
+         * to one. Potentials are exponentiated relative to their row max, which is added back into `logZ`.
+         *
+         * @return false (leaving `alphas` garbage) if the potentials' range is too large or the pass underflowed
+         */
+        private boolean computeScaledAlphas(double[] alphas) {
+            double[] expPotentials = workspace.expPotentials;
+            double[] scales = workspace.scales;
+            double logShift = 0.0;
+            for (int i=0; i < seqLen-1; ++i) {
+                double[] row = potentials[i];
+                double max = Double.NEGATIVE_INFINITY;
+                for (int t=0; t < numTransitions; ++t) {
+                    max = Math.max(max, row[t]);
+                }
+                if (max == Double.NEGATIVE_INFINITY || Double.isNaN(max) || max == Double.POSITIVE_INFINITY) {
+                    return false;
+                }
+                int offset = i * numTransitions;
+                for (int t=0; t < numTransitions; ++t) {
+                    double diff = row[t] - max;
+                    if (diff < -SCALED_MAX_LOG_RANGE && row[t] != Double.NEGATIVE_INFINITY) {
+                        return false;
+                    }
+                    expPotentials[offset + t] = Math.exp(diff);
+                }
+                logShift += max;
+            }
+            Arrays.fill(alphas, 0, seqLen * numStates, 0.0);
+            alphas[stateSpace.startStateIndex()] = 1.0;
+            scales[0] = 1.0;
+            double logScaleSum = 0.0;
+            for (int i=1; i < seqLen; ++i) {
+                int prevOffset = (i-1) * numStates;
+                int potOffset = (i-1) * numTransitions;
+                int offset = i * numStates;
+                double scale = 0.0;
+                for (int s=0; s < numStates; ++s) {
+                    double sum = 0.0;
+                    for (int k = inOffsets[s]; k < inOffsets[s+1]; ++k) {
+                        sum += alphas[prevOffset + inFromStates[k]] * expPotentials[potOffset + inTransitions[k]];
+                    }
+                    alphas[offset + s] = sum;
+                    scale += sum;
+                }
+                if (!(scale > 0.0) || Double.isInfinite(scale)) {
+                    return false;
+                }
+                for (int s=0; s < numStates; ++s) {
+                    alphas[offset + s] /= scale;
+                }
+                scales[i] = scale;
+                logScaleSum += Math.log(scale);
+            }
+            double stopAlpha = alphas[(seqLen-1) * numStates + stateSpace.stopStateIndex()];
+            if (!(stopAlpha > 0.0)) {
+                return false;
+            }
+            logZ = logShift + logScaleSum + Math.log(stopAlpha);
+            return true;
+        }
+
+        /**
+         * Scaled backward pass: `betas[i]` is the probability-space beta divided by the product of `scales[i+1..]`
+         */
+        private void computeScaledBetas(double[] betas) {
+            double[] expPotentials = workspace.expPotentials;
+            double[] scales = workspace.scales;
+            Arrays.fill(betas, 0, seqLen * numStates, 0.0);
+            betas[(seqLen-1) * numStates + stateSpace.stopStateIndex()] = 1.0;
+            for (int i=seqLen-2; i >= 0; --i) {
+                int nextOffset = (i+1) * numStates;
+                int potOffset = i * numTransitions;
+                double nextScale = scales[i+1];
+                for (int s=0; s < numStates; ++s) {
+                    double sum = 0.0;
+                    for (int k = outOffsets[s]; k < outOffsets[s+1]; ++k) {
+                        sum += expPotentials[potOffset + outTransitions[k]] * betas[nextOffset + outToStates[k]];
+                    }
+                    betas[i * numStates + s] = sum / nextScale;
+                }
+            }
+        }
+
+        private void computeScaledEdgeMarginals(double[] edgeMarginals) {
+            double[] alphas = alphas();
+            double[] betas = betas();
+            double[] expPotentials = workspace.expPotentials;
+            double[] scales = workspace.scales;
+            // the scale factors of alpha and beta cancel against Z's, except for position i+1's
+            double stopAlpha = alphas[(seqLen-1) * numStates + stateSpace.stopStateIndex()];
+            Arrays.fill(edgeMarginals, 0, (seqLen-1) * numTransitions, 0.0);
+            for (int i=0; i < seqLen-1; ++i) {
+                int potOffset = i * numTransitions;
+                int nextOffset = (i+1) * numStates;
+                double norm = 1.0 / (scales[i+1] * stopAlpha);
+                for (int s=0; s < numStates; ++s) {
+                    double alpha = alphas[i * numStates + s];
+                    if (alpha == 0.0) {
+                        continue;
+                    }
+                    for (int k = outOffsets[s]; k < outOffsets[s+1]; ++k) {
+                        int t = potOffset + outTransitions[k];
+                        edgeMarginals[t] = alpha * expPotentials[t] * betas[nextOffset + outToStates[k]] * norm;
+                    }
+                }
+            }
+        }
 
         private List<S> computeViterbi() {
             // Use the MAX operation to compute alphas
-            double[][] maxAlphas = computeAlphas(new MaxRing());
+            double[] maxAlphas = workspace.maxAlphas;
+            computeAlphas(maxAlphas, workspace.maxRing);
             // Compute the best path iteratively by figuring out which operation lead to it rather
             // than compute and store back-pointers, this is more efficient since a memory read is much
             // cheaper than a write
-            double targetValue =  maxAlphas[seqLen-1][stateSpace.stopStateIndex()];
             int targetState = stateSpace.stopStateIndex();
-            List<S> result = new ArrayList<>();
+            double targetValue =  maxAlphas[(seqLen-1) * numStates + targetState];
+            List<S> result = new ArrayList<>(seqLen - 2);
             for (int pos=seqLen-2; pos >= 0; --pos) {
-                // Need these next two variables to be effectively final
-                int curPos = pos;
-                double curTarget = targetValue;
                 // Find the transition that leads to the target value
-                Transition correctTransition = null;
-                for (Transition trans : stateSpace.transitionsTo(targetState)) {
-                    double value = potentials[curPos][trans.selfIndex] + maxAlphas[curPos][trans.fromState];
-                    if (Math.abs(value - curTarget) < 1.0e-8) {
-                        correctTransition = trans;
+                int prevState = -1;
+                for (int k = inOffsets[targetState]; k < inOffsets[targetState+1]; ++k) {
+                    double value = potentials[pos][inTransitions[k]] + maxAlphas[pos * numStates + inFromStates[k]];
+                    if (Math.abs(value - targetValue) < 1.0e-8) {
+                        prevState = inFromStates[k];
                         break;
                     }
                 }
-                if (correctTransition == null) {
+                if (prevState < 0) {
                     throw new RuntimeException("viterbi can't find path found by computeAlphas(MAX)");
                 }
-                targetState = correctTransition.fromState;
-                targetValue = maxAlphas[pos][targetState];
+                targetState = prevState;
+                targetValue = maxAlphas[pos * numStates + targetState];
                 // Add state to result as long as not start state
                 if (pos > 0) {
                     result.add(stateSpace.states().get(targetState));
@@ -216,56 +574,62 @@ public class ForwardBackwards<S> {
             return result;
         }
 
-        private double[][] computeNodeMarginals() {
-            double[][] alphas = getAlphas();
-            double[][] nodeMarginals = new double[seqLen][numStates];
-            double[][] edgeMarginals = getEdgeMarginals();
+        private void computeNodeMarginals(double[] nodeMarginals) {
+            double[] alphas = alphas();
+            // an unreachable state's alpha, see `isScaled`
+            double unreachable = scaled ? 0.0 : Double.NEGATIVE_INFINITY;
+            double[] edgeMarginals = edgeMarginals();
+            Arrays.fill(nodeMarginals, 0, seqLen * numStates, 0.0);
             // Fist: Must Have All Mass on Start State
-            nodeMarginals[0][stateSpace.startStateIndex()] = 1.0;
+            nodeMarginals[stateSpace.startStateIndex()] = 1.0;
             // Last: Must Have All Mass on Stop State
-            nodeMarginals[seqLen-1][stateSpace.stopStateIndex()] = 1.0;
+            nodeMarginals[(seqLen-1) * numStates + stateSpace.stopStateIndex()] = 1.0;
             // Middle States: leverage edge marginals to compute node marginals
             for (int i=1; i < seqLen-1; ++i) {
                 for (int s=0; s < numStates; ++s) {
-                    if (alphas[i][s] == Double.NEGATIVE_INFINITY) {
+                    if (alphas[i * numStates + s] == unreachable) {
                         continue;
                     }
                     // potential bottleneck
-                    for (Transition t : stateSpace.transitionsFrom(s)) {
-                        nodeMarginals[i][s] += edgeMarginals[i][t.selfIndex];
+                    double marginal = 0.0;
+                    for (int k = outOffsets[s]; k < outOffsets[s+1]; ++k) {
+                        marginal += edgeMarginals[i * numTransitions + outTransitions[k]];
                     }
+                    nodeMarginals[i * numStates + s] = marginal;
                 }
             }
-            return nodeMarginals;
         }
 
-        private double[][] computeEdgeMarginals() {
+        private void computeEdgeMarginals(double[] edgeMarginals) {
             // will trigger alphas, betas computation if not already computed
-            double[][] alphas = getAlphas();
-            double[][] betas = getBetas();
-            double[][] edgeMarginals = new double[seqLen-1][numTransitions];
+            double[] alphas = alphas();
+            double[] betas = betas();
+            Arrays.fill(edgeMarginals, 0, (seqLen-1) * numTransitions, 0.0);
             double logZ = getLogZ();
             for (int i=0; i < seqLen-1; ++i) {
+                double[] curPotentials = potentials[i];
+                int nextOffset = (i+1) * numStates;
                 for (int s=0; s < numStates; ++s) {
+                    double alpha = alphas[i * numStates + s];
                     // skip edges which land on an impossible state
-                    if (alphas[i][s] == Double.NEGATIVE_INFINITY) {
+                    if (alpha == Double.NEGATIVE_INFINITY) {
                         continue;
                     }
-                    for (Transition t: stateSpace.transitionsFrom(s)) {
+                    for (int k = outOffsets[s]; k < outOffsets[s+1]; ++k) {
+                        int t = outTransitions[k];
                         // score for all paths that use `t` transition. Three pieces
                         // (1) score to paths that lead to start of transition (alphas[i][s])
                         // (2) score of transition itself
-                        // (3) score of all paths starting at t.toState
-                        if (potentials[i][t.selfIndex] == Double.NEGATIVE_INFINITY ||
-                            betas[i+1][t.toState] == Double.NEGATIVE_INFINITY) {
+                        // (3) score of all paths starting at the transition's to-state
+                        double beta = betas[nextOffset + outToStates[k]];
+                        if (curPotentials[t] == Double.NEGATIVE_INFINITY || beta == Double.NEGATIVE_INFINITY) {
                             continue;
                         }
-                        double logNumer = alphas[i][s] + potentials[i][t.selfIndex] + betas[i+1][t.toState];
-                        edgeMarginals[i][t.selfIndex] = SloppyMath.sloppyExp(logNumer - logZ);
+                        double logNumer = alpha + curPotentials[t] + beta;
+                        edgeMarginals[i * numTransitions + t] = SloppyMath.sloppyExp(logNumer - logZ);
                     }
                 }
             }
-            return edgeMarginals;
         }
     }
 }
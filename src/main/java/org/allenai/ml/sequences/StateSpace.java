@@ -2,11 +2,7 @@ package org.allenai.ml.sequences;
 
 import org.allenai.ml.util.IOUtils;
 
-import com.gs.collections.api.list.MutableList;
-import com.gs.collections.api.map.primitive.MutableIntObjectMap;
 import com.gs.collections.api.tuple.Pair;
-import com.gs.collections.impl.list.mutable.FastList;
-import com.gs.collections.impl.map.mutable.primitive.IntObjectHashMap;
 import com.gs.collections.impl.tuple.Tuples;
 import lombok.SneakyThrows;
 import lombok.val;
@@ -21,12 +17,50 @@ import java.util.stream.IntStream;
 
 /**
  * A container object for various aspects of the state space. This object is only meant to be built via factory methods.
+ *
+ * __Internal notes__: Besides `Transition` lists, transitions are kept as primitive arrays for inner loops (see
+ * `incoming()` and `outgoing()`), in compressed sparse row layout: the transitions into (or out of) state `s` are
+ * slots `offsets[s]` until `offsets[s+1]`.
  */
 public class StateSpace<S> {
     private final List<S> states;
     private final List<Transition> transitions;
-    private final MutableIntObjectMap<MutableList<Transition>> fromTransitions;
-    private final MutableIntObjectMap<MutableList<Transition>> toTransitions;
+    private final List<List<Transition>> fromTransitions;
+    private final List<List<Transition>> toTransitions;
+    private final int[] transitionFromStates;
+    private final int[] transitionToStates;
+    private final Adjacency incoming;
+    private final Adjacency outgoing;
+
+    /**
+     * Transitions into or out of each state in compressed sparse row form. For a state `s` and each slot `k` from
+     * `offsets[s]` until `offsets[s+1]`, `transitionIndices[k]` is a transition touching `s` and `otherStates[k]` is
+     * its state at the other end (the from-state for `incoming()`, the to-state for `outgoing()`). Slots are in
+     * transition index order. Only for this package's inner loops (e.g. `ForwardBackwards`), which must not
+     * modify the arrays.
+     */
+    static final class Adjacency {
+        final int[] offsets;
+        final int[] otherStates;
+        final int[] transitionIndices;
+
+        private Adjacency(int numStates, List<List<Transition>> byState, boolean otherIsFrom) {
+            this.offsets = new int[numStates + 1];
+            for (int s = 0; s < numStates; s++) {
+                offsets[s + 1] = offsets[s] + byState.get(s).size();
+            }
+            this.otherStates = new int[offsets[numStates]];
+            this.transitionIndices = new int[offsets[numStates]];
+            for (int s = 0; s < numStates; s++) {
+                int k = offsets[s];
+                for (Transition t : byState.get(s)) {
+                    otherStates[k] = otherIsFrom ? t.fromState : t.toState;
+                    transitionIndices[k] = t.selfIndex;
+                    k++;
+                }
+            }
+        }
+    }
 
     /**
      * Package private constructor.
@@ -52,17 +86,25 @@ public class StateSpace<S> {
             int transitionIndex = transitions.size();
             transitions.add(new Transition(startIndex, stopIndex, transitionIndex));
         }
-        this.fromTransitions = new IntObjectHashMap<>(this.states.size());
-        this.toTransitions = new IntObjectHashMap<>(this.states.size());
+        int numStates = this.states.size();
+        List<List<Transition>> fromLists = new ArrayList<>(numStates);
+        List<List<Transition>> toLists = new ArrayList<>(numStates);
+        for (int s = 0; s < numStates; s++) {
+            fromLists.add(new ArrayList<>());
+            toLists.add(new ArrayList<>());
+        }
+        this.transitionFromStates = new int[transitions.size()];
+        this.transitionToStates = new int[transitions.size()];
         for (Transition trans : transitions) {
-            fromTransitions
-                .getIfAbsentPut(trans.fromState, FastList::new)
-                .add(trans);
-            toTransitions
-                .getIfAbsentPut(trans.toState, FastList::new)
-                .add(trans);
-
+            fromLists.get(trans.fromState).add(trans);
+            toLists.get(trans.toState).add(trans);
+            transitionFromStates[trans.selfIndex] = trans.fromState;
+            transitionToStates[trans.selfIndex] = trans.toState;
         }
+        this.incoming = new Adjacency(numStates, toLists, true);
+        this.outgoing = new Adjacency(numStates, fromLists, false);
+        this.fromTransitions = fromLists.stream().map(Collections::unmodifiableList).collect(Collectors.toList());
+        this.toTransitions = toLists.stream().map(Collections::unmodifiableList).collect(Collectors.toList());
     }
 
     public Optional<Transition> transitionFor(S from, S to) {
@@ -75,17 +117,64 @@ public class StateSpace<S> {
     }
 
     public Optional<Transition> transitionFor(int fromIndex, int toIndex) {
-        return transitionsFrom(fromIndex).stream()
-            .filter(t -> t.toState == toIndex)
-            .findFirst();
+        int transitionIndex = transitionIndex(fromIndex, toIndex);
+        return transitionIndex >= 0 ? Optional.of(transitions.get(transitionIndex)) : Optional.empty();
+    }
+
+    /**
+     * @return index of the `fromIndex -> toIndex` transition, or -1 if there isn't one
+     */
+    public int transitionIndex(int fromIndex, int toIndex) {
+        for (int k = outgoing.offsets[fromIndex]; k < outgoing.offsets[fromIndex + 1]; k++) {
+            if (outgoing.otherStates[k] == toIndex) {
+                return outgoing.transitionIndices[k];
+            }
+        }
+        return -1;
     }
 
     public List<Transition> transitionsFrom(int stateIndex) {
-        return Collections.unmodifiableList(fromTransitions.getIfAbsent(stateIndex, FastList::new));
+        return fromTransitions.get(stateIndex);
     }
 
     public List<Transition> transitionsTo(int stateIndex) {
-        return Collections.unmodifiableList(toTransitions.getIfAbsent(stateIndex, FastList::new));
+        return toTransitions.get(stateIndex);
+    }
+
+    Adjacency incoming() {
+        return incoming;
+    }
+
+    Adjacency outgoing() {
+        return outgoing;
+    }
+
+    /**
+     * @return copy of the from-state of each transition, by transition index
+     */
+    public int[] transitionFromStates() {
+        return transitionFromStates.clone();
+    }
+
+    /**
+     * @return copy of the to-state of each transition, by transition index
+     */
+    public int[] transitionToStates() {
+        return transitionToStates.clone();
+    }
+
+    /**
+     * @return from-state of transition `transitionIndex`, without going through its `Transition`
+     */
+    public int transitionFromState(int transitionIndex) {
+        return transitionFromStates[transitionIndex];
+    }
+
+    /**
+     * @return to-state of transition `transitionIndex`, without going through its `Transition`
+     */
+    public int transitionToState(int transitionIndex) {
+        return transitionToStates[transitionIndex];
     }
 
     public Pair<S, S> transition(int transitionIndex) {
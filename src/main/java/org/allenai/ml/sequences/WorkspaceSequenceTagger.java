@@ -0,0 +1,23 @@
+package org.allenai.ml.sequences;
+
+import java.util.List;
+
+/**
+ * `SequenceTagger` which decodes with reusable scratch state `W` (buffers, decoders, etc.). `Evaluation` creates
+ * one workspace per worker thread and passes it to every `bestGuess` that worker makes, so decoding needn't
+ * allocate per sequence. A workspace is only ever used by one thread at a time.
+ */
+public interface WorkspaceSequenceTagger<S, O, W> extends SequenceTagger<S, O> {
+
+    W newWorkspace();
+
+    /**
+     * Same as `bestGuess(input)`, using (and possibly resizing) `workspace` for scratch space
+     */
+    List<S> bestGuess(List<O> input, W workspace);
+
+    @Override
+    default List<S> bestGuess(List<O> input) {
+        return bestGuess(input, newWorkspace());
+    }
+}
@@ -1,47 +1,105 @@
 package org.allenai.ml.sequences.crf;
 
-import org.allenai.ml.linalg.SparseVector;
+import org.allenai.ml.linalg.ImmutableSparseVector;
 import org.allenai.ml.linalg.Vector;
 import org.allenai.ml.sequences.StateSpace;
+import org.allenai.ml.util.CountMinSketch;
+import org.allenai.ml.util.FeatureHasher;
 import org.allenai.ml.util.Indexer;
 import org.allenai.ml.util.Parallel;
+import org.allenai.ml.util.ParallelRuntime;
+import org.allenai.ml.util.ShardedCounter;
 import com.gs.collections.api.map.primitive.ObjectDoubleMap;
 import com.gs.collections.api.tuple.Pair;
+import com.gs.collections.impl.tuple.Tuples;
 import lombok.Builder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Slf4j
 public class CRFFeatureEncoder<S, O, F extends Comparable<F>> {
 
     private final CRFPredicateExtractor<O, F> predicateExtractor;
     public final StateSpace<S> stateSpace;
+    // Either both indexers are set, or (with feature hashing) both hashers
     public final Indexer<F> nodeFeatures;
     public final Indexer<F> edgeFeatures;
+    public final FeatureHasher<F> nodeHasher;
+    public final FeatureHasher<F> edgeHasher;
 
     public CRFFeatureEncoder(CRFPredicateExtractor<O, F> predicateExtractor,
                              StateSpace<S> stateSpace,
                              Indexer<F> nodeFeatures,
                              Indexer<F> edgeFeatures) {
+        this(predicateExtractor, stateSpace, nodeFeatures, edgeFeatures, null, null);
+    }
+
+    private CRFFeatureEncoder(CRFPredicateExtractor<O, F> predicateExtractor,
+                              StateSpace<S> stateSpace,
+                              Indexer<F> nodeFeatures,
+                              Indexer<F> edgeFeatures,
+                              FeatureHasher<F> nodeHasher,
+                              FeatureHasher<F> edgeHasher) {
         this.predicateExtractor = predicateExtractor;
         this.stateSpace = stateSpace;
         this.nodeFeatures = nodeFeatures;
         this.edgeFeatures = edgeFeatures;
+        this.nodeHasher = nodeHasher;
+        this.edgeHasher = edgeHasher;
+    }
+
+    /**
+     * Encoder which hashes node and edge predicates into buckets instead of indexing them, so there is no
+     * feature dictionary to build or store. See `FeatureHasher`.
+     */
+    public static <S, O, F extends Comparable<F>> CRFFeatureEncoder<S, O, F> hashed(
+            CRFPredicateExtractor<O, F> predicateExtractor,
+            StateSpace<S> stateSpace,
+            FeatureHasher<F> nodeHasher,
+            FeatureHasher<F> edgeHasher) {
+        return new CRFFeatureEncoder<>(predicateExtractor, stateSpace, null, null, nodeHasher, edgeHasher);
+    }
+
+    public boolean isHashed() {
+        return nodeHasher != null;
+    }
+
+    /**
+     * Number of node predicate indices, i.e. indexed features or hash buckets
+     */
+    public int numNodeFeatures() {
+        return isHashed() ? nodeHasher.numBuckets : nodeFeatures.size();
+    }
+
+    /**
+     * Number of edge predicate indices, i.e. indexed features or hash buckets
+     */
+    public int numEdgeFeatures() {
+        return isHashed() ? edgeHasher.numBuckets : edgeFeatures.size();
     }
 
     public CRFIndexedExample indexedExample(List<O> example) {
-        List<Vector> nodePreds = indexFeatures(predicateExtractor.nodePredicates(example), nodeFeatures);
-        List<Vector> edgePreds = indexFeatures(predicateExtractor.edgePredicates(example), edgeFeatures);
+        List<Vector> nodePreds = indexFeatures(predicateExtractor.nodePredicates(example), nodeFeatures, nodeHasher);
+        List<Vector> edgePreds = indexFeatures(predicateExtractor.edgePredicates(example), edgeFeatures, edgeHasher);
         return new CRFIndexedExample(nodePreds, edgePreds);
     }
 
-    private static <F extends Comparable<F>> List<Vector> indexFeatures(List<ObjectDoubleMap<F>> featVecs, Indexer<F> index) {
+    private static <F extends Comparable<F>> List<Vector> indexFeatures(List<ObjectDoubleMap<F>> featVecs,
+                                                                        Indexer<F> index,
+                                                                        FeatureHasher<F> hasher) {
         List<Vector> result = new ArrayList<>(featVecs.size());
         for (ObjectDoubleMap<F> featVec : featVecs) {
-            result.add(SparseVector.indexed(featVec, index));
+            result.add(hasher != null
+                ? ImmutableSparseVector.hashed(featVec, hasher)
+                : ImmutableSparseVector.indexed(featVec, index));
         }
         return result;
     }
@@ -50,8 +108,14 @@ public class CRFFeatureEncoder<S, O, F extends Comparable<F>> {
         List<O> observations = labeledExample.stream()
             .map(Pair::getOne)
             .collect(Collectors.toList());
-        List<Vector> nodePreds = indexFeatures(predicateExtractor.nodePredicates(observations), nodeFeatures);
-        List<Vector> edgePreds = indexFeatures(predicateExtractor.edgePredicates(observations), edgeFeatures);
+        List<Vector> nodePreds =
+            indexFeatures(predicateExtractor.nodePredicates(observations), nodeFeatures, nodeHasher);
+        List<Vector> edgePreds =
+            indexFeatures(predicateExtractor.edgePredicates(observations), edgeFeatures, edgeHasher);
+        return new CRFIndexedExample(nodePreds, edgePreds, goldLabels(stateSpace, labeledExample));
+    }
+
+    private static <S, O> int[] goldLabels(StateSpace<S> stateSpace, List<Pair<O, S>> labeledExample) {
         int[] goldLabels = labeledExample.stream()
             .map(Pair::getTwo)
             .mapToInt(stateSpace::stateIndex)
@@ -64,7 +128,7 @@ public class CRFFeatureEncoder<S, O, F extends Comparable<F>> {
             throw new IllegalArgumentException("Must use StateSpace stopState to end sequence, instead got " +
                 labeledExample.get(labeledExample.size()-1).getTwo());
         }
-        return new CRFIndexedExample(nodePreds, edgePreds, goldLabels);
+        return goldLabels;
     }
 
     @Builder
@@ -72,60 +136,282 @@ public class CRFFeatureEncoder<S, O, F extends Comparable<F>> {
         private long randSeed = 0L;
         private int numThreads = 1;
         private double probabilityToAccept = 1.0;
+        // If above 1, keep only predicates occurring at least this many times, counted exactly.
+        // Takes precedence over `probabilityToAccept`
+        private int minFeatureCount;
+        // If positive, count occurrences into a count-min sketch this wide before exact counting,
+        // so only predicates that might reach `minFeatureCount` get exact counters
+        private int countSketchWidth;
+        // rows in the count-min sketch, 0 for the default
+        private int countSketchDepth;
+        // If set, run on this rather than a pool of `numThreads` threads started for the build
+        private ParallelRuntime runtime;
     }
 
-    public static <S, O, F extends Comparable<F>> CRFFeatureEncoder build(
+    private final static int DEFAULT_COUNT_SKETCH_DEPTH = 4;
+
+    /**
+     * Index the node and edge predicates of `examples`. With `opts.minFeatureCount` above 1, predicates are counted
+     * exactly (see `ShardedCounter.frequent`) and indexed in sorted order, so the result doesn't depend on the
+     * number of threads. Otherwise each predicate occurrence is kept with `opts.probabilityToAccept`; workers
+     * intern straight into shared `Indexer.ConcurrentBuilder`s, so there are no per-worker feature sets to merge
+     * afterwards, and the kept predicates are then indexed in sorted order.
+     */
+    public static <S, O, F extends Comparable<F>> CRFFeatureEncoder<S, O, F> build(
             List<List<O>> examples,
             CRFPredicateExtractor<O, F> predicateExtractor,
             StateSpace<S> stateSpace,
             BuildOpts opts) {
 
-        class IndexData {
-            private final Set<F> nodeFeatures = new HashSet<>();
-            private final Set<F> edgeFeatures = new HashSet<>();
-            private final Random rand = new Random(opts.randSeed);
+        if (opts.minFeatureCount > 1) {
+            return buildFromCounts(examples, predicateExtractor, stateSpace, opts);
+        }
+        List<Pair<Integer, List<O>>> numbered = IntStream.range(0, examples.size())
+            .mapToObj(idx -> Tuples.pair(idx, examples.get(idx)))
+            .collect(Collectors.toList());
+        return buildStochastically((driver, mrOpts) -> Parallel.mapReduce(numbered, driver, mrOpts),
+            predicateExtractor, stateSpace, opts);
+    }
+
+    /**
+     * Like `build`, but reads `examples` once as they stream in (see `Parallel.mapReduce(Stream, ...)`) rather than
+     * needing them all in memory, e.g. for a corpus read lazily from disk. Exact counting needs more than one pass,
+     * so `opts.minFeatureCount` isn't supported.
+     */
+    public static <S, O, F extends Comparable<F>> CRFFeatureEncoder<S, O, F> build(
+            Stream<List<O>> examples,
+            CRFPredicateExtractor<O, F> predicateExtractor,
+            StateSpace<S> stateSpace,
+            BuildOpts opts) {
+        if (opts.minFeatureCount > 1) {
+            throw new IllegalArgumentException("Exact feature counts need the examples in a List");
         }
+        // the source is read in order by a single thread, see `Parallel.mapReduce(Stream, ...)`
+        AtomicInteger nextIdx = new AtomicInteger();
+        Stream<Pair<Integer, List<O>>> numbered = examples.map(ex -> Tuples.pair(nextIdx.getAndIncrement(), ex));
+        return buildStochastically((driver, mrOpts) -> Parallel.mapReduce(numbered, driver, mrOpts),
+            predicateExtractor, stateSpace, opts);
+    }
+
+    /**
+     * Keep/drop decisions for an example's predicates come from a `Random` seeded by `opts.randSeed` and the
+     * example's position, so a given seed keeps the same predicates however examples are scheduled across threads.
+     *
+     * @param mapReduce runs a driver over the examples, each paired with its position
+     */
+    private static <S, O, F extends Comparable<F>> CRFFeatureEncoder<S, O, F> buildStochastically(
+            BiConsumer<Parallel.MapReduceDriver<Pair<Integer, List<O>>, Void>, Parallel.MROpts> mapReduce,
+            CRFPredicateExtractor<O, F> predicateExtractor,
+            StateSpace<S> stateSpace,
+            BuildOpts opts) {
+        Indexer.ConcurrentBuilder<F> nodeFeatures = Indexer.concurrentBuilder();
+        Indexer.ConcurrentBuilder<F> edgeFeatures = Indexer.concurrentBuilder();
 
         @RequiredArgsConstructor
-        class IndexWorker implements Parallel.MapReduceDriver<List<O>, IndexData> {
+        class IndexWorker implements Parallel.MapReduceDriver<Pair<Integer, List<O>>, Void> {
 
             @Override
-            public IndexData newData() {
-                return new IndexData();
+            public Void newData() {
+                return null;
             }
 
             @Override
-            public void update(IndexData data, List<O> lst) {
-                stochasticAddAll(data.rand, data.nodeFeatures, predicateExtractor.nodePredicates(lst));
-                stochasticAddAll(data.rand, data.edgeFeatures, predicateExtractor.edgePredicates(lst));
+            public void update(Void data, Pair<Integer, List<O>> numberedExample) {
+                Random rand = exampleRandom(opts.randSeed, numberedExample.getOne());
+                List<O> lst = numberedExample.getTwo();
+                stochasticAddAll(rand, nodeFeatures, predicateExtractor.nodePredicates(lst));
+                stochasticAddAll(rand, edgeFeatures, predicateExtractor.edgePredicates(lst));
             }
 
             @Override
-            public void merge(IndexData a, IndexData b) {
-                a.nodeFeatures.addAll(b.nodeFeatures);
-                a.edgeFeatures.addAll(b.edgeFeatures);
+            public void merge(Void a, Void b) {
+                // features are already in the shared builders
             }
 
-            private void stochasticAddAll(Random rand, Set<F> set, List<ObjectDoubleMap<F>> featVecs) {
+            private void stochasticAddAll(Random rand, Indexer.ConcurrentBuilder<F> builder,
+                                          List<ObjectDoubleMap<F>> featVecs) {
                 for (ObjectDoubleMap<F> featVec : featVecs) {
-                    Set<F> fSet = featVec.keySet();
-                    List<F> fList = new ArrayList<>(fSet);
-                    Collections.sort(fList);
                     for (F f : featVec.keysView()) {
                         if (rand.nextDouble() < opts.probabilityToAccept) {
-                            set.add(f);
+                            builder.intern(f);
                         }
                     }
                 }
             }
         }
-        log.info("Indexing features with {} prob to keep and {} threads", opts.probabilityToAccept, opts.numThreads);
-        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-feature-index", opts.numThreads);
-        IndexData indexData = Parallel.mapReduce(examples, new IndexWorker(), mrOpts);
-        Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
-        return new CRFFeatureEncoder(predicateExtractor,
+        ParallelRuntime.withRuntime(opts.runtime, "mr-feature-index", opts.numThreads, runtime -> {
+            log.info("Indexing features with {} prob to keep and {} threads", opts.probabilityToAccept,
+                runtime.numWorkers);
+            mapReduce.accept(new IndexWorker(), runtime.mrOpts());
+            return null;
+        });
+        return new CRFFeatureEncoder<>(predicateExtractor,
             stateSpace,
-            Indexer.fromStream(indexData.nodeFeatures.stream()),
-            Indexer.fromStream(indexData.edgeFeatures.stream()));
+            nodeFeatures.freeze(),
+            edgeFeatures.freeze());
+    }
+
+    /**
+     * `Random` for the example at `exampleIdx`. The seed is mixed (MurmurHash3's 64-bit finalizer) since
+     * `Random`'s first outputs for nearby seeds are correlated.
+     */
+    private static Random exampleRandom(long seed, long exampleIdx) {
+        long h = seed + exampleIdx * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return new Random(h);
+    }
+
+    private static <S, O, F extends Comparable<F>> CRFFeatureEncoder<S, O, F> buildFromCounts(
+            List<List<O>> examples,
+            CRFPredicateExtractor<O, F> predicateExtractor,
+            StateSpace<S> stateSpace,
+            BuildOpts opts) {
+        return ParallelRuntime.withRuntime(opts.runtime, "mr-feature-count", opts.numThreads, runtime -> {
+            log.info("Indexing features seen at least {} times with {} threads", opts.minFeatureCount,
+                runtime.numWorkers);
+            List<F> nodeFeatures = ShardedCounter.frequent(examples,
+                (example, emit) -> predicateExtractor.nodePredicates(example)
+                    .forEach(fv -> fv.forEachKey(emit::accept)),
+                opts.minFeatureCount, newSketch(opts), runtime.mrOpts());
+            List<F> edgeFeatures = ShardedCounter.frequent(examples,
+                (example, emit) -> predicateExtractor.edgePredicates(example)
+                    .forEach(fv -> fv.forEachKey(emit::accept)),
+                opts.minFeatureCount, newSketch(opts), runtime.mrOpts());
+            return new CRFFeatureEncoder<>(predicateExtractor,
+                stateSpace,
+                Indexer.fromStream(nodeFeatures.stream()),
+                Indexer.fromStream(edgeFeatures.stream()));
+        });
+    }
+
+    private static CountMinSketch newSketch(BuildOpts opts) {
+        if (opts.countSketchWidth <= 0) {
+            return null;
+        }
+        int depth = opts.countSketchDepth > 0 ? opts.countSketchDepth : DEFAULT_COUNT_SKETCH_DEPTH;
+        return new CountMinSketch(opts.countSketchWidth, depth);
+    }
+
+    /**
+     * Index the features of `labeledExamples` and encode each example in the same parallel pass: workers intern
+     * each predicate and use the returned index right away instead of looking it up in a second pass. Every
+     * feature is kept, so this requires `opts.probabilityToAccept` of 1.0 and no `opts.minFeatureCount`; use
+     * `build` followed by `indexLabeledExample` to prune. Predicates are indexed in sorted order, so the result
+     * doesn't depend on the number of threads; a second, cheaper parallel pass renumbers the encoded examples.
+     * @return the encoder and the encoded examples, in the same order as `labeledExamples`
+     */
+    public static <S, O, F extends Comparable<F>> Pair<CRFFeatureEncoder<S, O, F>, List<CRFIndexedExample>>
+        buildAndIndex(List<List<Pair<O, S>>> labeledExamples,
+                      CRFPredicateExtractor<O, F> predicateExtractor,
+                      StateSpace<S> stateSpace,
+                      BuildOpts opts) {
+        if (opts.probabilityToAccept < 1.0 || opts.minFeatureCount > 1) {
+            throw new IllegalArgumentException("Single-pass indexing keeps every feature, use build() to prune");
+        }
+        Indexer.ConcurrentBuilder<F> nodeFeatures = Indexer.concurrentBuilder();
+        Indexer.ConcurrentBuilder<F> edgeFeatures = Indexer.concurrentBuilder();
+        // examples encoded with interned indices, renumbered once the builders are frozen
+        List<List<Vector>> internedNodePreds = new ArrayList<>(Collections.nCopies(labeledExamples.size(), null));
+        List<List<Vector>> internedEdgePreds = new ArrayList<>(Collections.nCopies(labeledExamples.size(), null));
+        CRFIndexedExample[] indexed = new CRFIndexedExample[labeledExamples.size()];
+        List<Integer> positions = IntStream.range(0, indexed.length).boxed().collect(Collectors.toList());
+
+        class IndexWorker implements Parallel.MapReduceDriver<Integer, Void> {
+
+            @Override
+            public Void newData() {
+                return null;
+            }
+
+            @Override
+            public void update(Void data, Integer position) {
+                val labeledExample = labeledExamples.get(position);
+                List<O> observations = labeledExample.stream()
+                    .map(Pair::getOne)
+                    .collect(Collectors.toList());
+                // each worker writes distinct slots, joining the workers publishes them
+                internedNodePreds.set(position,
+                    internFeatures(predicateExtractor.nodePredicates(observations), nodeFeatures));
+                internedEdgePreds.set(position,
+                    internFeatures(predicateExtractor.edgePredicates(observations), edgeFeatures));
+            }
+
+            @Override
+            public void merge(Void a, Void b) {
+                // examples are already in place
+            }
+        }
+        val encoder = ParallelRuntime.withRuntime(opts.runtime, "mr-feature-index", opts.numThreads, runtime -> {
+            log.info("Indexing features and examples with {} threads", runtime.numWorkers);
+            Parallel.mapReduce(positions, new IndexWorker(), runtime.mrOpts());
+            int[] nodeRemap = new int[nodeFeatures.size()];
+            int[] edgeRemap = new int[edgeFeatures.size()];
+            val frozen = new CRFFeatureEncoder<S, O, F>(predicateExtractor,
+                stateSpace,
+                nodeFeatures.freeze(nodeRemap),
+                edgeFeatures.freeze(edgeRemap));
+            Parallel.mapReduce(positions, new Parallel.MapReduceDriver<Integer, Void>() {
+                @Override
+                public Void newData() {
+                    return null;
+                }
+
+                @Override
+                public void update(Void data, Integer position) {
+                    indexed[position] = new CRFIndexedExample(
+                        renumber(internedNodePreds.get(position), nodeRemap, frozen.nodeFeatures.size()),
+                        renumber(internedEdgePreds.get(position), edgeRemap, frozen.edgeFeatures.size()),
+                        goldLabels(stateSpace, labeledExamples.get(position)));
+                    internedNodePreds.set(position, null);
+                    internedEdgePreds.set(position, null);
+                }
+
+                @Override
+                public void merge(Void a, Void b) {
+                    // examples are already in place
+                }
+            }, runtime.mrOpts());
+            return frozen;
+        });
+        return Tuples.pair(encoder, Arrays.asList(indexed));
+    }
+
+    private static List<Vector> renumber(List<Vector> vecs, int[] oldToNew, int numFeatures) {
+        List<Vector> result = new ArrayList<>(vecs.size());
+        for (Vector vec : vecs) {
+            int[] indices = new int[(int) vec.numStoredEntries()];
+            double[] values = new double[indices.length];
+            int numEntries = 0;
+            for (Vector.Iterator it = vec.iterator(); !it.isExhausted(); it.advance()) {
+                indices[numEntries] = oldToNew[(int) it.index()];
+                values[numEntries] = it.value();
+                numEntries++;
+            }
+            result.add(ImmutableSparseVector.of(indices, values, numEntries, numFeatures));
+        }
+        return result;
+    }
+
+    private static <F extends Comparable<F>> List<Vector> internFeatures(List<ObjectDoubleMap<F>> featVecs,
+                                                                         Indexer.ConcurrentBuilder<F> builder) {
+        List<Vector> result = new ArrayList<>(featVecs.size());
+        for (ObjectDoubleMap<F> featVec : featVecs) {
+            int[] indices = new int[featVec.size()];
+            double[] values = new double[featVec.size()];
+            int[] numEntries = new int[1];
+            featVec.forEachKeyValue((f, v) -> {
+                indices[numEntries[0]] = builder.intern(f);
+                values[numEntries[0]] = v;
+                numEntries[0]++;
+            });
+            // The final number of features isn't known until the builder is frozen, but `CRFIndexedExample` only
+            // keeps the indices and values
+            result.add(ImmutableSparseVector.of(indices, values, numEntries[0], Integer.MAX_VALUE));
+        }
+        return result;
     }
 }
@@ -82,6 +82,13 @@ public class CRFIndexedExample {
         return goldLabels.toArray();
     }
 
+    /**
+     * Gold state at position `idx`, without copying all of them like `getGoldLabels`
+     */
+    public int getGoldLabel(int idx) {
+        return goldLabels.get(idx);
+    }
+
     public boolean isLabeled() {
         return goldLabels != null;
     }
@@ -145,6 +152,13 @@ public class CRFIndexedExample {
         return new Iterator(start, stop);
     }
 
+    /**
+     * @return total number of non-zero node and edge predicates over all positions
+     */
+    public int numActivePredicates() {
+        return allPredicateIndices.size();
+    }
+
     public int getSequenceLength() {
         return sequenceLength;
     }
@@ -1,15 +1,12 @@
 package org.allenai.ml.sequences.crf;
 
 import org.allenai.ml.linalg.Vector;
-import org.allenai.ml.objective.ExampleObjectiveFn;
+import org.allenai.ml.objective.WorkspaceObjectiveFn;
 import org.allenai.ml.sequences.ForwardBackwards;
-import org.allenai.ml.sequences.Transition;
-import com.gs.collections.api.block.function.primitive.IntToIntFunction;
+import org.allenai.ml.sequences.StateSpace;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 
-import java.util.List;
-
 /**
  * Log-likelihood objective function for CRF training. The objective per-example boils down to
  * an actual and expected components:
@@ -18,78 +15,122 @@ import java.util.List;
  * @param <S>
  */
 @RequiredArgsConstructor
-public class CRFLogLikelihoodObjective<S> implements ExampleObjectiveFn<CRFIndexedExample> {
+public class CRFLogLikelihoodObjective<S>
+    implements WorkspaceObjectiveFn<CRFIndexedExample, CRFLogLikelihoodObjective.Workspace<S>> {
 
     private final CRFWeightsEncoder<S> weightEncoder;
+    private final ForwardBackwards.Engine engine;
+
+    public CRFLogLikelihoodObjective(CRFWeightsEncoder<S> weightEncoder) {
+        this(weightEncoder, ForwardBackwards.Engine.LOG_SPACE);
+    }
+
+    /**
+     * Scratch space for `evaluate`, reused across the examples a worker evaluates. Buffers grow to the longest
+     * sequence seen so far.
+     */
+    public static final class Workspace<S> {
+        private final ForwardBackwards<S> forwardBackwards;
+        private final ForwardBackwards<S>.Workspace fbWorkspace;
+        private final double[] nodeScratch;
+        // node/edge blocks of the parameters and the gradient, usually the same vectors every call
+        private final CRFWeightsEncoder<S>.WeightViews params;
+        private final CRFWeightsEncoder<S>.WeightViews grad;
+
+        private Workspace(CRFWeightsEncoder<S> weightEncoder, ForwardBackwards.Engine engine) {
+            StateSpace<S> stateSpace = weightEncoder.stateSpace;
+            this.forwardBackwards = new ForwardBackwards<>(stateSpace, engine);
+            this.fbWorkspace = forwardBackwards.newWorkspace();
+            this.nodeScratch = new double[stateSpace.states().size()];
+            this.params = weightEncoder.newWeightViews();
+            this.grad = weightEncoder.newWeightViews();
+        }
+    }
 
     @Override
-    public double evaluate(CRFIndexedExample example, Vector inParams, Vector outGrad) {
+    public Workspace<S> newWorkspace() {
+        return new Workspace<>(weightEncoder, engine);
+    }
+
+    @Override
+    public double evaluate(CRFIndexedExample example, Vector inParams, Vector outGrad, Workspace<S> workspace) {
         if (!example.isLabeled()) {
             throw new IllegalArgumentException("Requires labeled example");
         }
-        double[][] logPotentials = weightEncoder.fillPotentials(inParams, example);
-        val fb = new ForwardBackwards<S>(weightEncoder.stateSpace);
-        val fbResult = fb.compute(logPotentials);
+        int seqLen = example.getSequenceLength();
+        double[][] logPotentials = workspace.fbWorkspace.potentialRows(seqLen - 1);
+        weightEncoder.fillPotentials(workspace.params.pointAt(inParams), example, logPotentials, workspace.nodeScratch);
+        val fbResult = workspace.forwardBackwards.compute(logPotentials, seqLen, workspace.fbWorkspace);
+        int numStates = weightEncoder.stateSpace.states().size();
+        int numTransitions = weightEncoder.stateSpace.transitions().size();
+        // the gradient's node and edge blocks, laid out as `CRFWeightsEncoder.nodeWeights` and `edgeWeights`
+        Vector nodeGrad = workspace.grad.pointAt(outGrad).nodeWeights();
+        Vector edgeGrad = workspace.grad.edgeWeights();
         // Actual
-        int[] goldLabels = example.getGoldLabels();
         double logNumerator = 0.0;
-        for (int idx = 0; idx + 1 < goldLabels.length; idx++) {
-            int from = goldLabels[idx];
-            int to = goldLabels[idx + 1];
-            val transition = weightEncoder.stateSpace.transitionFor(from, to);
-            if (!transition.isPresent()) {
+        for (int idx = 0; idx + 1 < seqLen; idx++) {
+            int from = example.getGoldLabel(idx);
+            int to = example.getGoldLabel(idx + 1);
+            int transIdx = weightEncoder.stateSpace.transitionIndex(from, to);
+            if (transIdx < 0) {
                 val states = weightEncoder.stateSpace.states();
                 throw new IllegalArgumentException(String.format("Gold transition doesn't exist [%s, %s]",
                     states.get(from), states.get(to)));
             }
             // Objective contribution is the sum of gold transition scores
-            logNumerator += logPotentials[idx][transition.get().selfIndex];
+            logNumerator += logPotentials[idx][transIdx];
             // Gradient are the features on those transitions
-            Vector.Iterator nodePredIt = example.getNodePredicateValues(idx);
-            updateGrad(outGrad, nodePredIt, (predIdx) -> weightEncoder.nodeWeightIndex(predIdx, from), 1.0);
-            Vector.Iterator edgePredIt = example.getEdgePredicateValues(idx);
-            int transIdx = transition.get().selfIndex;
-            updateGrad(outGrad, edgePredIt, (predIdx) -> weightEncoder.edgeWeightIndex(predIdx, transIdx), 1.0);
+            updateGrad(nodeGrad, example.getNodePredicateValues(idx), numStates, from);
+            updateGrad(edgeGrad, example.getEdgePredicateValues(idx), numTransitions, transIdx);
         }
         // Expected
         double logDenominator = fbResult.getLogZ();
-        double[][] nodeMarginals = fbResult.getNodeMarginals();
-        double[][] edgeMarginals = fbResult.getEdgeMarginals();
-        int numStates = weightEncoder.stateSpace.states().size();
-        int numTransitions = weightEncoder.stateSpace.transitions().size();
-        for (int idx = 0; idx+1 < example.getSequenceLength(); idx++) {
-            Vector.Iterator nodePreds = example.getNodePredicateValues(idx);
-            while (!nodePreds.isExhausted()) {
-                int predIdx = (int) nodePreds.index();
-                double predVal = nodePreds.value();
-                for (int s = 0; s < numStates; s++) {
-                    int weightIdx = weightEncoder.nodeWeightIndex(predIdx, s);
-                    outGrad.inc(weightIdx, predVal * -nodeMarginals[idx][s]);
-                }
-                nodePreds.advance();
-            }
-            Vector.Iterator edgePreds = example.getEdgePredicateValues(idx);
-            while (!edgePreds.isExhausted()) {
-                int predIdx = (int) edgePreds.index();
-                double predVal = edgePreds.value();
-                for (int t=0; t < numTransitions; ++t) {
-                    int weightIdx = weightEncoder.edgeWeightIndex(predIdx, t);
-                    outGrad.inc(weightIdx, predVal * -edgeMarginals[idx][t]);
-                }
-                edgePreds.advance();
-            }
+        double[] nodeMarginals = fbResult.flatNodeMarginals();
+        double[] edgeMarginals = fbResult.flatEdgeMarginals();
+        for (int idx = 0; idx+1 < seqLen; idx++) {
+            subtractExpected(nodeGrad, example.getNodePredicateValues(idx), nodeMarginals, idx * numStates,
+                numStates);
+            subtractExpected(edgeGrad, example.getEdgePredicateValues(idx), edgeMarginals, idx * numTransitions,
+                numTransitions);
         }
         assert logNumerator <= logDenominator;
         return logNumerator - logDenominator;
     }
 
-    private void updateGrad(Vector outGrad, Vector.Iterator predIt, IntToIntFunction weightIndexMap, double scale) {
-        predIt.reset();
+    /**
+     * Relative work `evaluate` does for `example`, for balancing examples across threads (see
+     * `BatchObjectiveFn.withCosts`). Forward-backward is linear in the sequence length and the potentials and
+     * expected gradient are linear in the active predicates, each times the states or transitions.
+     */
+    public double cost(CRFIndexedExample example) {
+        int numTransitions = weightEncoder.stateSpace.transitions().size();
+        return (double) numTransitions * (example.getSequenceLength() + example.numActivePredicates());
+    }
+
+    /**
+     * For each predicate, subtract its value times `marginals[marginalOffset + j]` from `block` entry
+     * `predIdx * width + j`, for `j` in `[0, width)`. `block` is a node or edge block of the gradient, whose
+     * predicates' weights are contiguous.
+     */
+    private static void subtractExpected(Vector block, Vector.Iterator predIt, double[] marginals,
+                                         int marginalOffset, int width) {
         while (!predIt.isExhausted()) {
-            int predIdx = (int) predIt.index();
+            long base = predIt.index() * width;
             double predVal = predIt.value();
-            int weightIdx = weightIndexMap.valueOf(predIdx);
-            outGrad.inc(weightIdx, scale * predVal);
+            for (int j = 0; j < width; j++) {
+                block.inc(base + j, predVal * -marginals[marginalOffset + j]);
+            }
+            predIt.advance();
+        }
+    }
+
+    /**
+     * Add each predicate value to `block` entry `predIdx * width + column`, `block` being a node or edge block of
+     * the gradient
+     */
+    private static void updateGrad(Vector block, Vector.Iterator predIt, int width, int column) {
+        while (!predIt.isExhausted()) {
+            block.inc(predIt.index() * width + column, predIt.value());
             predIt.advance();
         }
     }
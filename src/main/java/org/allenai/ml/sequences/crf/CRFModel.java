@@ -2,7 +2,8 @@ package org.allenai.ml.sequences.crf;
 
 import org.allenai.ml.linalg.Vector;
 import org.allenai.ml.sequences.ForwardBackwards;
-import org.allenai.ml.sequences.SequenceTagger;
+import org.allenai.ml.sequences.WorkspaceSequenceTagger;
+import org.allenai.ml.sequences.StateSpace;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.val;
@@ -12,7 +13,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 @RequiredArgsConstructor
-public class CRFModel<S, O, F extends Comparable<F>> implements SequenceTagger<S, O> {
+public class CRFModel<S, O, F extends Comparable<F>>
+        implements WorkspaceSequenceTagger<S, O, CRFModel.DecodeScratch<S>> {
     public final CRFFeatureEncoder<S, O, F> featureEncoder;
     public final CRFWeightsEncoder<S> weightsEncoder;
     // This is private because it's mutable. The weights() method
@@ -21,6 +23,26 @@ public class CRFModel<S, O, F extends Comparable<F>> implements SequenceTagger<S
     @Setter
     private InferenceMode inferenceMode = InferenceMode.VITERBI;
 
+    /**
+     * Decoding buffers for one thread, see `WorkspaceSequenceTagger`
+     */
+    public static class DecodeScratch<S> {
+        private final ForwardBackwards<S> forwardBackwards;
+        private final ForwardBackwards<S>.Workspace workspace;
+        // decodes over the edge marginals for MAX_TOKEN
+        private final ForwardBackwards<S>.Workspace marginalsWorkspace;
+        private final double[] nodeScratch;
+        private final CRFWeightsEncoder<S>.WeightViews weights;
+
+        private DecodeScratch(StateSpace<S> stateSpace, CRFWeightsEncoder<S>.WeightViews weights) {
+            this.forwardBackwards = new ForwardBackwards<>(stateSpace);
+            this.workspace = forwardBackwards.newWorkspace();
+            this.marginalsWorkspace = forwardBackwards.newWorkspace();
+            this.nodeScratch = new double[stateSpace.states().size()];
+            this.weights = weights;
+        }
+    }
+
     public static enum InferenceMode {
         VITERBI,
         MAX_TOKEN
@@ -34,23 +56,53 @@ public class CRFModel<S, O, F extends Comparable<F>> implements SequenceTagger<S
     }
 
     @Override
-    public List<S> bestGuess(List<O> input) {
+    public DecodeScratch<S> newWorkspace() {
+        return new DecodeScratch<>(featureEncoder.stateSpace, weightsEncoder.newWeightViews().pointAt(weights));
+    }
+
+    private static boolean isStartStopOnly(List<?> input) {
         if (input.size() < 2) {
             throw new IllegalArgumentException("Need to have at least two elements");
         }
-        if (input.size() == 2) {
+        return input.size() == 2;
+    }
+
+    /**
+     * One-shot decode with buffers sized to `input`, cheaper than a `DecodeScratch` for a single sequence. Use
+     * `bestGuess(input, scratch)` to decode many.
+     */
+    @Override
+    public List<S> bestGuess(List<O> input) {
+        if (isStartStopOnly(input)) {
             // only have start stop, so return empty (unpadded)
             return new ArrayList<>();
         }
-        input = new ArrayList<>(input);
-        val indexedExample = featureEncoder.indexedExample(input);
+        val indexedExample = featureEncoder.indexedExample(new ArrayList<>(input));
         double[][] potentials = weightsEncoder.fillPotentials(weights, indexedExample);
         val forwardBackwards = new ForwardBackwards<>(featureEncoder.stateSpace);
-        ForwardBackwards.Result fbResult = forwardBackwards.compute(potentials);
+        ForwardBackwards<S>.Result fbResult = forwardBackwards.compute(potentials);
         if (inferenceMode == InferenceMode.VITERBI) {
             return fbResult.getViterbi();
         }
         double[][] edgeMarginals = fbResult.getEdgeMarginals();
         return forwardBackwards.compute(edgeMarginals).getViterbi();
     }
+
+    @Override
+    public List<S> bestGuess(List<O> input, DecodeScratch<S> scratch) {
+        if (isStartStopOnly(input)) {
+            return new ArrayList<>();
+        }
+        val indexedExample = featureEncoder.indexedExample(new ArrayList<>(input));
+        int seqLen = indexedExample.getSequenceLength();
+        double[][] potentials = scratch.workspace.potentialRows(seqLen - 1);
+        weightsEncoder.fillPotentials(scratch.weights, indexedExample, potentials, scratch.nodeScratch);
+        val fbResult = scratch.forwardBackwards.compute(potentials, seqLen, scratch.workspace);
+        if (inferenceMode == InferenceMode.VITERBI) {
+            return fbResult.getViterbi();
+        }
+        double[][] edgeMarginals = scratch.marginalsWorkspace.potentialRows(seqLen - 1);
+        fbResult.copyEdgeMarginals(edgeMarginals);
+        return scratch.forwardBackwards.compute(edgeMarginals, seqLen, scratch.marginalsWorkspace).getViterbi();
+    }
 }
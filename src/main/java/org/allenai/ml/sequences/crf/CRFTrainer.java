@@ -4,14 +4,17 @@ import com.gs.collections.api.tuple.Pair;
 import lombok.val;
 import org.allenai.ml.linalg.Vector;
 import org.allenai.ml.objective.BatchObjectiveFn;
-import org.allenai.ml.objective.ExampleObjectiveFn;
 import org.allenai.ml.optimize.*;
+import org.allenai.ml.sequences.ForwardBackwards;
 import org.allenai.ml.sequences.StateSpace;
-import org.allenai.ml.util.Parallel;
+import org.allenai.ml.util.FeatureHasher;
+import org.allenai.ml.util.MapReduceStats;
+import org.allenai.ml.util.ParallelRuntime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -21,12 +24,21 @@ public class CRFTrainer<S, O, F extends Comparable<F>> {
 
     private final static Logger logger = LoggerFactory.getLogger(CRFTrainer.class);
 
+    // Edge templates are usually a bias plus a few transition predicates, and every edge bucket
+    // costs a weight per transition, so far fewer buckets than for node predicates
+    public final static int DEFAULT_NUM_EDGE_HASH_BUCKETS = 64;
+
     public static class Opts<S, O, F extends Comparable<F>> {
         public int numThreads = 1;
         public double sigmaSq = 1.0;
         // Flop a coin with the 1.0/value to decide
         // to keep a given feature. Larger value prunes more
         public int minExpectedFeatureCount = 1;
+        // Keep only predicates seen at least this many times, counted exactly. Deterministic,
+        // unlike `minExpectedFeatureCount`, and takes precedence over it when above 1
+        public int minFeatureCount = 0;
+        // If positive, width of a count-min sketch used to bound memory while counting for `minFeatureCount`
+        public int featureCountSketchWidth = 0;
         // Separate from optimzierOpts since it's specific to the LBFGS choice
         // and optimizerOpts is only for general NewtonMethod options
         // use '0' for gradient descent
@@ -35,14 +47,41 @@ public class CRFTrainer<S, O, F extends Comparable<F>> {
         // with its own callback
         public NewtonMethod.Opts optimizerOpts = new NewtonMethod.Opts();
         // Callback given CRFModel to continue after each iter
-        // defaults to always continuing
+        // defaults to always continuing. The model's weights are the optimizer's
+        // iterate, recycled once the callback returns, so keep
+        // `modelForWeights(model.weights())` rather than the model itself
         public Predicate<CRFModel<S, O, F>> iterCallback = (model) -> true;
+        // How `BatchObjectiveFn` workers accumulate the gradient, `SHARED` keeps memory
+        // flat in `numThreads`
+        public BatchObjectiveFn.GradientAccumulation gradientAccumulation = BatchObjectiveFn.GradientAccumulation.AUTO;
+        // Split training examples statically across threads by estimated cost (sequence length and
+        // active predicates) rather than scheduling chunks of examples dynamically
+        public boolean costBalancedPartitions = false;
+        // If positive, hash node predicates into this many buckets (and edge predicates into
+        // `numEdgeHashBuckets`) rather than indexing them. Skips feature collection, so can't be
+        // combined with `minExpectedFeatureCount` or `minFeatureCount` pruning
+        public int numHashBuckets = 0;
+        public int numEdgeHashBuckets = DEFAULT_NUM_EDGE_HASH_BUCKETS;
+        // Give hashed predicates a random +1/-1 sign so collisions cancel in expectation
+        public boolean signedHashing = false;
+        // If set, feature indexing and training run on this (the caller closes it) rather than on
+        // pools of `numThreads` threads started for each
+        public ParallelRuntime runtime = null;
+        // If set, gets per-thread timings of every objective evaluation, e.g. to check how well
+        // `numThreads` threads are used
+        public Consumer<MapReduceStats> objectiveStatsListener = null;
+        // How the objective runs forward-backward, see `ForwardBackwards.Engine`
+        public ForwardBackwards.Engine forwardBackwardsEngine = ForwardBackwards.Engine.LOG_SPACE;
     }
 
     public final CRFFeatureEncoder<S, O, F> featureEncoder;
     public final CRFPredicateExtractor<O, F> predicateExtractor;
     public final CRFWeightsEncoder<S> weightEncoder;
-    private final Opts opts;
+    private final Opts<S, O, F> opts;
+    // Examples encoded while building `featureEncoder` (when no features are pruned), reused if the
+    // first `train` gets the same data. Dropped after that call so the trainer doesn't pin them
+    private List<List<Pair<O, S>>> preIndexedData;
+    private List<CRFIndexedExample> preIndexedExamples;
 
     /**
      *
@@ -52,7 +91,7 @@ public class CRFTrainer<S, O, F extends Comparable<F>> {
     public CRFTrainer(
         List<List<Pair<O, S>>> labeledData,
         CRFPredicateExtractor<O, F> predicateExtractor,
-        Opts opts)
+        Opts<S, O, F> opts)
     {
         this.opts = opts;
         this.predicateExtractor = predicateExtractor;
@@ -72,16 +111,32 @@ public class CRFTrainer<S, O, F extends Comparable<F>> {
         val featOpts = CRFFeatureEncoder.BuildOpts.builder()
             .numThreads(opts.numThreads)
             .probabilityToAccept(featAcceptProb)
+            .minFeatureCount(opts.minFeatureCount)
+            .countSketchWidth(opts.featureCountSketchWidth)
+            .runtime(opts.runtime)
             .build();
-        List<List<O>> unlabeledData = labeledData.stream()
-            .map(labeledDatum -> labeledDatum.stream().map(Pair::getOne).collect(Collectors.toList()))
-            .collect(Collectors.toList());
-        this.featureEncoder = CRFFeatureEncoder.build(unlabeledData, predicateExtractor, stateSpace, featOpts);
+        if (opts.numHashBuckets > 0) {
+            if (featAcceptProb < 1.0 || opts.minFeatureCount > 1) {
+                throw new IllegalArgumentException("Hashed predicates aren't collected, so can't be pruned");
+            }
+            this.featureEncoder = CRFFeatureEncoder.hashed(predicateExtractor, stateSpace,
+                FeatureHasher.of(opts.numHashBuckets, opts.signedHashing),
+                FeatureHasher.of(opts.numEdgeHashBuckets, opts.signedHashing));
+        } else if (featAcceptProb < 1.0 || opts.minFeatureCount > 1) {
+            List<List<O>> unlabeledData = labeledData.stream()
+                .map(labeledDatum -> labeledDatum.stream().map(Pair::getOne).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+            this.featureEncoder = CRFFeatureEncoder.build(unlabeledData, predicateExtractor, stateSpace, featOpts);
+        } else {
+            val encoderAndExamples =
+                CRFFeatureEncoder.buildAndIndex(labeledData, predicateExtractor, stateSpace, featOpts);
+            this.featureEncoder = encoderAndExamples.getOne();
+            this.preIndexedData = labeledData;
+            this.preIndexedExamples = encoderAndExamples.getTwo();
+        }
         logger.info("Number of node predicates: {}, edge predicates: {}",
-            featureEncoder.nodeFeatures.size(), featureEncoder.edgeFeatures.size());
-        this.weightEncoder = new CRFWeightsEncoder<>(stateSpace,
-            featureEncoder.nodeFeatures.size(),
-            featureEncoder.edgeFeatures.size());
+            featureEncoder.numNodeFeatures(), featureEncoder.numEdgeFeatures());
+        this.weightEncoder = CRFWeightsEncoder.forFeatures(featureEncoder);
     }
 
     private void ensureStartStopPadded(List<List<S>> justLabels, S startState, S stopState) {
@@ -108,20 +163,27 @@ public class CRFTrainer<S, O, F extends Comparable<F>> {
                 .collect(Collectors.toList()),
             featureEncoder.stateSpace.startState(),
             featureEncoder.stateSpace.stopState());
-        ExampleObjectiveFn<CRFIndexedExample> objective = new CRFLogLikelihoodObjective<>(weightEncoder);
-        List<CRFIndexedExample> indexedData = labeledData.stream()
-            .map(featureEncoder::indexLabeledExample)
-            .collect(toList());
-        val mrOpts = Parallel.MROpts.withIdAndThreads("mr-crf-training", opts.numThreads);
-        BatchObjectiveFn<CRFIndexedExample> objFn =
-            new BatchObjectiveFn<>(indexedData, objective, weightEncoder.numParameters(), mrOpts);
-        GradientFn regularizer = Regularizer.l2(objFn.dimension(), opts.sigmaSq);
-        val cachedObjFn = new CachingGradientFn(opts.lbfgsHistorySize, objFn.add(regularizer));
-        val quasiNewton = QuasiNewton.lbfgs(opts.lbfgsHistorySize);
-        opts.optimizerOpts.iterCallback = (ws) -> opts.iterCallback.test(modelForWeights(ws));
-        val optimzier = new NewtonMethod(__ -> quasiNewton, opts.optimizerOpts);
-        Vector weights = optimzier.minimize(cachedObjFn).xmin;
-        objFn.shutdown();
+        CRFLogLikelihoodObjective<S> objective = new CRFLogLikelihoodObjective<>(weightEncoder, opts.forwardBackwardsEngine);
+        List<CRFIndexedExample> indexedData = labeledData == preIndexedData
+            ? preIndexedExamples
+            : labeledData.stream().map(featureEncoder::indexLabeledExample).collect(toList());
+        preIndexedData = null;
+        preIndexedExamples = null;
+        Vector weights = ParallelRuntime.withRuntime(opts.runtime, "mr-crf-training", opts.numThreads, runtime -> {
+            BatchObjectiveFn<CRFIndexedExample> objFn =
+                new BatchObjectiveFn<>(indexedData, objective, weightEncoder.numParameters(), runtime)
+                    .withGradientAccumulation(opts.gradientAccumulation)
+                    .withStatsListener(opts.objectiveStatsListener);
+            if (opts.costBalancedPartitions) {
+                objFn.withCosts(objective::cost);
+            }
+            GradientFn regularizer = Regularizer.l2(objFn.dimension(), opts.sigmaSq);
+            val cachedObjFn = new CachingGradientFn(opts.lbfgsHistorySize, objFn.add(regularizer));
+            val quasiNewton = QuasiNewton.lbfgs(opts.lbfgsHistorySize);
+            opts.optimizerOpts.iterCallback = (ws) -> opts.iterCallback.test(modelForWeights(ws));
+            val optimzier = new NewtonMethod(__ -> quasiNewton, opts.optimizerOpts);
+            return optimzier.minimize(cachedObjFn).xmin;
+        });
         return modelForWeights(weights);
     }
 }
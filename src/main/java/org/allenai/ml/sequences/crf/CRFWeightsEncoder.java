@@ -2,10 +2,9 @@ package org.allenai.ml.sequences.crf;
 
 import org.allenai.ml.linalg.Vector;
 import org.allenai.ml.sequences.StateSpace;
-import org.allenai.ml.sequences.Transition;
 import lombok.RequiredArgsConstructor;
 
-import java.util.List;
+import java.util.Arrays;
 
 @RequiredArgsConstructor
 public class CRFWeightsEncoder<S> {
@@ -13,21 +12,109 @@ public class CRFWeightsEncoder<S> {
     public final int numNodePredicates;
     public final int numEdgePredicates;
 
+    /**
+     * Weights for the predicates of `featureEncoder`, whether they're indexed or hashed
+     */
+    public static <S> CRFWeightsEncoder<S> forFeatures(CRFFeatureEncoder<S, ?, ?> featureEncoder) {
+        return new CRFWeightsEncoder<>(featureEncoder.stateSpace,
+            featureEncoder.numNodeFeatures(),
+            featureEncoder.numEdgeFeatures());
+    }
 
     /**
      * Parameters for a CRF problem are the number of node predicates needed for each label and for each
-     * state space transition.
+     * state space transition. The node block comes first, followed by the edge block.
+     *
+     * __NOTE__: CRF weights are indexed by `int` and trained and saved as on-heap arrays, so a CRF is limited to
+     * `Integer.MAX_VALUE` parameters even though `OffHeapDenseVector` can hold more.
      * @return total number of parameters
+     * @throws IllegalStateException if there are more than `Integer.MAX_VALUE`
      */
     public int numParameters() {
-        int numNodeParameters = numNodePredicates * stateSpace.states().size();
-        int numEdgeParameters = numEdgePredicates * stateSpace.transitions().size();
-        return numNodeParameters + numEdgeParameters;
+        return checkedParameters((long) numNodeParameters() + numEdgeParameters());
+    }
+
+    public int numNodeParameters() {
+        return checkedParameters((long) numNodePredicates * stateSpace.states().size());
+    }
+
+    public int numEdgeParameters() {
+        return checkedParameters((long) numEdgePredicates * stateSpace.transitions().size());
+    }
+
+    private static int checkedParameters(long numParameters) {
+        if (numParameters > Integer.MAX_VALUE) {
+            throw new IllegalStateException(String.format(
+                "CRF needs %d parameters, more than the supported %d; prune or hash predicates",
+                numParameters, Integer.MAX_VALUE));
+        }
+        return (int) numParameters;
+    }
+
+    /**
+     * @return view of the node block of `weights`, indexed by `predIdx * numStates + state`
+     */
+    public Vector nodeWeights(Vector weights) {
+        return weights.view(0, numNodeParameters());
+    }
+
+    /**
+     * @return view of the edge block of `weights`, indexed by `predIdx * numTransitions + transition`
+     */
+    public Vector edgeWeights(Vector weights) {
+        return weights.view(numNodeParameters(), numEdgeParameters());
+    }
+
+    /**
+     * `nodeWeights` and `edgeWeights` views of one weights vector, kept around (e.g. in a worker's workspace) so
+     * per-example code doesn't build views per call. `pointAt` only rebuilds them for a different vector.
+     */
+    public final class WeightViews {
+        private Vector weights;
+        private Vector nodeWeights;
+        private Vector edgeWeights;
+
+        private WeightViews() {
+            // use newWeightViews()
+        }
+
+        /**
+         * @return `this`, viewing `weights`
+         */
+        public WeightViews pointAt(Vector weights) {
+            if (weights != this.weights) {
+                this.weights = weights;
+                this.nodeWeights = CRFWeightsEncoder.this.nodeWeights(weights);
+                this.edgeWeights = CRFWeightsEncoder.this.edgeWeights(weights);
+            }
+            return this;
+        }
+
+        public Vector nodeWeights() {
+            return nodeWeights;
+        }
+
+        public Vector edgeWeights() {
+            return edgeWeights;
+        }
+    }
+
+    public WeightViews newWeightViews() {
+        return new WeightViews();
     }
 
     // only visible for testing
     static double[] fillRowPotentials(Vector weights, Vector.Iterator predValueIt, int numValues, int weightOffset) {
         double[] rowPotentials = new double[numValues];
+        addRowPotentials(rowPotentials, weights, predValueIt, numValues, weightOffset);
+        return rowPotentials;
+    }
+
+    private static void addRowPotentials(double[] rowPotentials,
+                                         Vector weights,
+                                         Vector.Iterator predValueIt,
+                                         int numValues,
+                                         int weightOffset) {
         while (!predValueIt.isExhausted()) {
             long predIdx = predValueIt.index();
             double predVal = predValueIt.value();
@@ -37,41 +124,46 @@ public class CRFWeightsEncoder<S> {
             }
             predValueIt.advance();
         }
-        return rowPotentials;
     }
 
-    /**
-     * Produce an array of the scores for the states given the input predicate indices/values. Note this
-     * code tends to be a bottleneck, so written more producedurally than otherwise
-     * @param weights CRF weights
-     * @param predValueIt Iterator over the pred index/values we want to score
-     * @return array in size of `stateSpace.states().size()` of scores
-     */
-    private double[] nodePotentials(Vector weights, Vector.Iterator predValueIt) {
-        int numStates = stateSpace.states().size();
-        return fillRowPotentials(weights, predValueIt, numStates, 0);
+    double[][] fillPotentials(Vector weights,  CRFIndexedExample example) {
+        int numTransitions = example.getSequenceLength() - 1;
+        double[][] potentials = new double[numTransitions][stateSpace.transitions().size()];
+        fillPotentials(weights, example, potentials, new double[stateSpace.states().size()]);
+        return potentials;
     }
 
-    private double[] edgePotentials(Vector weights, Vector.Iterator predValueIt) {
-        List<Transition> transitions = stateSpace.transitions();
-        int transitionOffset = numNodePredicates;
-        return fillRowPotentials(weights, predValueIt, transitions.size(), transitionOffset);
+    /**
+     * Allocation-free `fillPotentials`: overwrites `potentials[i]` for each of the `seqLen - 1` positions, using
+     * `nodeScratch` for the node scores. Rows of `potentials` need at least one slot per transition and
+     * `nodeScratch` one per state; either may be longer (e.g. buffers reused across examples). This code tends to
+     * be a bottleneck, so it's written more procedurally than otherwise.
+     */
+    void fillPotentials(Vector weights, CRFIndexedExample example, double[][] potentials, double[] nodeScratch) {
+        fillPotentials(newWeightViews().pointAt(weights), example, potentials, nodeScratch);
     }
 
-    double[][] fillPotentials(Vector weights,  CRFIndexedExample example) {
-        int numTransitions = example.getSequenceLength() - 1;
-        List<Transition> transitions = stateSpace.transitions();
-        double[][] potentials = new double[numTransitions][transitions.size()];
-        for (int i=0; i < numTransitions; ++i) {
+    /**
+     * Same as the `Vector` overload, reading the weights through views kept from earlier calls
+     */
+    void fillPotentials(WeightViews weights, CRFIndexedExample example, double[][] potentials,
+                        double[] nodeScratch) {
+        int numPositions = example.getSequenceLength() - 1;
+        int numTransitions = stateSpace.transitions().size();
+        int numStates = stateSpace.states().size();
+        Vector nodeWeights = weights.nodeWeights();
+        Vector edgeWeights = weights.edgeWeights();
+        for (int i=0; i < numPositions; ++i) {
+            double[] row = potentials[i];
+            Arrays.fill(row, 0, numTransitions, 0.0);
+            addRowPotentials(row, edgeWeights, example.getEdgePredicateValues(i), numTransitions, 0);
             // The index is in terms of state
-            double[] nodePotentials = nodePotentials(weights, example.getNodePredicateValues(i));
-            double[] edgePotentials = edgePotentials(weights, example.getEdgePredicateValues(i));
-            for (int t = 0; t < transitions.size(); t++) {
-                int s = transitions.get(t).fromState;
-                potentials[i][t] = edgePotentials[t] + nodePotentials[s];
+            Arrays.fill(nodeScratch, 0, numStates, 0.0);
+            addRowPotentials(nodeScratch, nodeWeights, example.getNodePredicateValues(i), numStates, 0);
+            for (int t = 0; t < numTransitions; t++) {
+                row[t] += nodeScratch[stateSpace.transitionFromState(t)];
             }
         }
-        return potentials;
     }
 
     public int nodeWeightIndex(int predIdx, int fromState) {
@@ -79,7 +171,7 @@ public class CRFWeightsEncoder<S> {
     }
 
     public int edgeWeightIndex(int predIdx, int transitionIdx) {
-        return numNodePredicates + predIdx * stateSpace.transitions().size() + transitionIdx;
+        return numNodeParameters() + predIdx * stateSpace.transitions().size() + transitionIdx;
     }
 
 }
@@ -2,12 +2,14 @@ package org.allenai.ml.sequences.crf.conll;
 
 import lombok.extern.slf4j.Slf4j;
 import org.allenai.ml.linalg.DenseVector;
+import org.allenai.ml.linalg.FloatDenseVector;
 import org.allenai.ml.linalg.Vector;
 import org.allenai.ml.sequences.StateSpace;
 import org.allenai.ml.sequences.crf.CRFFeatureEncoder;
 import org.allenai.ml.sequences.crf.CRFModel;
 import org.allenai.ml.sequences.crf.CRFPredicateExtractor;
 import org.allenai.ml.sequences.crf.CRFWeightsEncoder;
+import org.allenai.ml.util.FeatureHasher;
 import org.allenai.ml.util.IOUtils;
 import org.allenai.ml.util.Indexer;
 import com.gs.collections.api.list.ImmutableList;
@@ -19,19 +21,20 @@ import com.gs.collections.impl.map.mutable.primitive.ObjectDoubleHashMap;
 import com.gs.collections.impl.tuple.Tuples;
 import com.gs.collections.impl.tuple.primitive.PrimitiveTuples;
 import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
 import lombok.val;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.util.stream.Collectors.toList;
 
@@ -80,6 +83,49 @@ public class ConllFormat {
         return result;
     }
 
+    /**
+     * Lazy version of `readData`: lines are read only as the returned stream is consumed, so a corpus can be
+     * processed (e.g. by `Parallel.mapReduce(Stream, ...)`) without holding it all in memory. Closing the returned
+     * stream closes `lines`.
+     */
+    public static Stream<List<Row>> streamData(Stream<String> lines, boolean labeled) {
+        Iterator<String> lineIt = lines.iterator();
+        Iterator<List<String>> chunkIt = new Iterator<List<String>>() {
+            private List<String> next = readChunk();
+
+            private List<String> readChunk() {
+                List<String> cur = new ArrayList<>();
+                while (lineIt.hasNext()) {
+                    String line = lineIt.next();
+                    if (line.trim().isEmpty()) {
+                        return cur;
+                    }
+                    cur.add(line);
+                }
+                // like `readData`, lines after the last blank line aren't a datum
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public List<String> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                List<String> chunk = next;
+                next = readChunk();
+                return chunk;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunkIt, Spliterator.ORDERED), false)
+            .map(chunk -> readDatum(chunk, labeled))
+            .onClose(lines::close);
+    }
+
     public static class Row {
         public final ImmutableList<String> features;
         private final String label;
@@ -251,35 +297,122 @@ public class ConllFormat {
         return new ConllPredicateExtractor(nodeTemplates, edgeTemplates);
     }
 
-    private final static String DATA_VERSION = "1.1";
+    private final static String DATA_VERSION = "1.3";
 
     public static void saveModel(DataOutputStream dos,
                                  List<String> featureTemplateLines,
                                  CRFFeatureEncoder<String, Row, String> featureEncoder,
                                  Vector weights) throws IOException {
-        // save feature templates, node feature indexer, edge feature indexer
+        // save feature templates, state space, then either the node/edge feature hashers
+        // or node/edge feature indexers
         dos.writeUTF(DATA_VERSION);
         IOUtils.saveList(dos, featureTemplateLines);
         featureEncoder.stateSpace.save(dos);
-        featureEncoder.nodeFeatures.save(dos);
-        featureEncoder.edgeFeatures.save(dos);
+        dos.writeBoolean(featureEncoder.isHashed());
+        if (featureEncoder.isHashed()) {
+            featureEncoder.nodeHasher.save(dos);
+            featureEncoder.edgeHasher.save(dos);
+        } else {
+            featureEncoder.nodeFeatures.save(dos);
+            featureEncoder.edgeFeatures.save(dos);
+        }
         IOUtils.saveDoubles(dos, weights.toDoubles());
     }
 
     public static CRFModel<String, Row, String> loadModel(DataInputStream dis) throws IOException {
+        return loadModel(dis, false);
+    }
+
+    /**
+     * @param singlePrecision store the weights as a `FloatDenseVector`, halving their memory at the cost of
+     *                        precision. Only suitable for inference.
+     */
+    public static CRFModel<String, Row, String> loadModel(DataInputStream dis, boolean singlePrecision)
+        throws IOException {
+        val modelForWeights = loadModelHeader(dis);
+        Vector weights = singlePrecision
+            ? FloatDenseVector.of(IOUtils.loadDoublesAsFloats(dis))
+            : DenseVector.of(IOUtils.loadDoubles(dis));
+        return modelForWeights.apply(weights);
+    }
+
+    /**
+     * Load a model saved by `saveModel` from `channel`'s current position. The feature indexers and weights are
+     * read in bulk from the channel or, if `memoryMap`, mapped read-only (see `Indexer.map` and
+     * `IOUtils.mapDoubles`) so they're paged in lazily and live off-heap.
+     */
+    @SneakyThrows
+    public static CRFModel<String, Row, String> loadModel(FileChannel channel, boolean memoryMap) {
+        if (memoryMap) {
+            val prefix = IOUtils.readHeader(channel, ConllFormat::loadModelPrefix);
+            if (prefix.isHashed()) {
+                return modelFor(prefix, null, null).apply(IOUtils.mapDoubles(channel));
+            }
+            Indexer<String> nodeFeatures = Indexer.map(channel);
+            Indexer<String> edgeFeatures = Indexer.map(channel);
+            return modelFor(prefix, nodeFeatures, edgeFeatures).apply(IOUtils.mapDoubles(channel));
+        }
+        val modelForWeights = IOUtils.readHeader(channel, ConllFormat::loadModelHeader);
+        return modelForWeights.apply(DenseVector.of(IOUtils.loadDoubles(channel)));
+    }
+
+    /**
+     * Everything `saveModel` writes before the weights
+     * @return how to make the model once the weights are loaded
+     */
+    @SneakyThrows
+    private static Function<Vector, CRFModel<String, Row, String>> loadModelHeader(DataInputStream dis) {
+        val prefix = loadModelPrefix(dis);
+        if (prefix.isHashed()) {
+            return modelFor(prefix, null, null);
+        }
+        Indexer<String> nodeFeatures = Indexer.load(dis);
+        Indexer<String> edgeFeatures = Indexer.load(dis);
+        return modelFor(prefix, nodeFeatures, edgeFeatures);
+    }
+
+    /**
+     * Everything `saveModel` writes before the feature indexers (if any)
+     */
+    @RequiredArgsConstructor
+    private static class ModelPrefix {
+        private final CRFPredicateExtractor<Row, String> predExtractor;
+        private final StateSpace<String> stateSpace;
+        // null unless the model hashes features
+        private final FeatureHasher<String> nodeHasher;
+        private final FeatureHasher<String> edgeHasher;
+
+        private boolean isHashed() {
+            return nodeHasher != null;
+        }
+    }
+
+    @SneakyThrows
+    private static ModelPrefix loadModelPrefix(DataInputStream dis) {
         IOUtils.ensureVersionMatch(dis, DATA_VERSION);
         val predExtractor = predicatesFromTemplate(IOUtils.loadList(dis).stream());
         val stateSpace = StateSpace.load(dis);
-        Indexer<String> nodeFeatures = Indexer.load(dis);
-        Indexer<String> edgeFeatures = Indexer.load(dis);
-        val featureEncoder =
-            new CRFFeatureEncoder<String, Row, String>(predExtractor, stateSpace, nodeFeatures, edgeFeatures);
-        val weightEncoder = new CRFWeightsEncoder<String>(stateSpace, nodeFeatures.size(), edgeFeatures.size());
-        Vector weights = DenseVector.of(IOUtils.loadDoubles(dis));
-        Pair<Row, Row> startStopObservations = Tuples.pair(
-            new Row(Arrays.asList(startState)),
-            new Row(Arrays.asList(stopState)));
-        return new CRFModel<String, Row, String>(featureEncoder, weightEncoder, weights);
+        if (dis.readBoolean()) {
+            FeatureHasher<String> nodeHasher = FeatureHasher.load(dis);
+            FeatureHasher<String> edgeHasher = FeatureHasher.load(dis);
+            return new ModelPrefix(predExtractor, stateSpace, nodeHasher, edgeHasher);
+        }
+        return new ModelPrefix(predExtractor, stateSpace, null, null);
+    }
+
+    /**
+     * @param nodeFeatures ignored (and typically null) if the model hashes features
+     * @param edgeFeatures ignored (and typically null) if the model hashes features
+     */
+    private static Function<Vector, CRFModel<String, Row, String>> modelFor(ModelPrefix prefix,
+                                                                          Indexer<String> nodeFeatures,
+                                                                          Indexer<String> edgeFeatures) {
+        val featureEncoder = prefix.isHashed()
+            ? CRFFeatureEncoder.hashed(prefix.predExtractor, prefix.stateSpace, prefix.nodeHasher, prefix.edgeHasher)
+            : new CRFFeatureEncoder<String, Row, String>(prefix.predExtractor, prefix.stateSpace,
+                nodeFeatures, edgeFeatures);
+        val weightEncoder = CRFWeightsEncoder.forFeatures(featureEncoder);
+        return weights -> new CRFModel<String, Row, String>(featureEncoder, weightEncoder, weights);
     }
 
     public static void main(String[] args) {
@@ -1,20 +1,27 @@
 package org.allenai.ml.sequences.crf.conll;
 
 import org.allenai.ml.sequences.Evaluation;
+import org.allenai.ml.sequences.crf.CRFModel;
 import org.allenai.ml.util.IOUtils;
 import com.gs.collections.api.tuple.Pair;
 import com.gs.collections.impl.tuple.Tuples;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
-import org.allenai.ml.util.Parallel;
+import org.allenai.ml.util.ParallelRuntime;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 
@@ -26,6 +33,15 @@ public class Evaluator {
 
         @Option(name = "-data", usage = "where to read data", required = true)
         public String dataPath;
+
+        @Option(name = "-singlePrecision", usage = "load model weights as floats (can't be combined with -mapModel)")
+        public boolean singlePrecision = false;
+
+        @Option(name = "-mapModel", usage = "memory-map model features and weights rather than reading them onto the heap")
+        public boolean mapModel = false;
+
+        @Option(name = "-streamData", usage = "read data while evaluating rather than loading it all first")
+        public boolean streamData = false;
     }
 
     @SneakyThrows
@@ -33,20 +49,57 @@ public class Evaluator {
      * Returns pair of (token-accuracy, inference-time-per-instance-as-millis)
      */
     public static Pair<Double, Double> evaluateModel(Opts opts) {
-        val dis = new DataInputStream(new FileInputStream(opts.modelPath));
-        val crf = ConllFormat.loadModel(dis);
+        if (opts.singlePrecision && opts.mapModel) {
+            // mapped weights stay doubles in the file, there's nothing to narrow
+            throw new IllegalArgumentException("-singlePrecision and -mapModel can't be combined");
+        }
+        val crf = loadModel(opts);
+        if (opts.streamData) {
+            return evaluateStreamed(crf, opts);
+        }
         val data = ConllFormat.readData(IOUtils.linesFromPath(opts.dataPath), true);
         long start = System.currentTimeMillis();
         List<List<Pair<String, ConllFormat.Row>>> evalData = data.stream()
             .map(x -> x.stream().map(ConllFormat.Row::asLabeledPair).collect(toList()))
             .collect(toList());
-        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-test-eval", 1);
-        double acc = Evaluation.compute(crf, evalData, mrOpts).tokenAccuracy.accuracy();
+        double acc;
+        try (ParallelRuntime runtime = ParallelRuntime.fixed("mr-test-eval", 1)) {
+            acc = Evaluation.compute(crf, evalData, runtime).tokenAccuracy.accuracy();
+        }
         long stop = System.currentTimeMillis();
-        Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
         return Tuples.pair(acc, (double)(stop-start)/data.size());
     }
 
+    /**
+     * Evaluate while reading the data, so the time per instance includes reading and parsing it
+     */
+    private static Pair<Double, Double> evaluateStreamed(CRFModel<String, ConllFormat.Row, String> crf, Opts opts) {
+        AtomicInteger numExamples = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        double acc;
+        try (ParallelRuntime runtime = ParallelRuntime.fixed("mr-test-eval", 1);
+             Stream<List<ConllFormat.Row>> data = ConllFormat.streamData(IOUtils.linesFromPath(opts.dataPath), true)) {
+            Stream<List<Pair<String, ConllFormat.Row>>> evalData = data
+                .peek(__ -> numExamples.incrementAndGet())
+                .map(x -> x.stream().map(ConllFormat.Row::asLabeledPair).collect(toList()));
+            acc = Evaluation.compute(crf, evalData, runtime).tokenAccuracy.accuracy();
+        }
+        long stop = System.currentTimeMillis();
+        return Tuples.pair(acc, (double)(stop-start)/numExamples.get());
+    }
+
+    @SneakyThrows
+    private static CRFModel<String, ConllFormat.Row, String> loadModel(Opts opts) {
+        if (opts.singlePrecision) {
+            try (val dis = new DataInputStream(new BufferedInputStream(new FileInputStream(opts.modelPath)))) {
+                return ConllFormat.loadModel(dis, true);
+            }
+        }
+        try (val channel = FileChannel.open(Paths.get(opts.modelPath), StandardOpenOption.READ)) {
+            return ConllFormat.loadModel(channel, opts.mapModel);
+        }
+    }
+
     public static void main(String[] args) {
         val opts = new Opts();
         val cmdLineParser = new CmdLineParser(opts);
@@ -5,6 +5,7 @@ import org.allenai.ml.eval.TrainCriterionEval;
 import org.allenai.ml.linalg.Vector;
 import org.allenai.ml.objective.BatchObjectiveFn;
 import org.allenai.ml.optimize.*;
+import org.allenai.ml.sequences.ForwardBackwards;
 import org.allenai.ml.sequences.StateSpace;
 import org.allenai.ml.sequences.Evaluation;
 import com.gs.collections.api.tuple.Pair;
@@ -12,7 +13,7 @@ import com.gs.collections.impl.tuple.Tuples;
 import lombok.SneakyThrows;
 import lombok.val;
 import org.allenai.ml.sequences.crf.*;
-import org.allenai.ml.util.Parallel;
+import org.allenai.ml.util.ParallelRuntime;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -50,6 +51,12 @@ public class Trainer {
         @Option(name = "-featureKeepProb", usage = "probability of keeping a feature predicate")
         public double featureKeepProb = 1.0;
 
+        @Option(name = "-minFeatureCount", usage = "keep only feature predicates seen at least this many times")
+        public int minFeatureCount = 0;
+
+        @Option(name = "-featureCountSketchWidth", usage = "width of a count-min sketch to bound memory when counting features (0 for none)")
+        public int featureCountSketchWidth = 0;
+
         @Option(name = "-maxTrainIters", usage = "max number of train iterations")
         public int maxIterations = Integer.MAX_VALUE;
 
@@ -61,6 +68,27 @@ public class Trainer {
 
         @Option(name= "-maxNumDipIters", usage = "How many iterations after test eval drop to continue training")
         public int maxNumDipIters = 3;
+
+        @Option(name = "-gradientAccumulation", usage = "how threads accumulate the gradient (DENSE, SPARSE, AUTO or SHARED)")
+        public BatchObjectiveFn.GradientAccumulation gradientAccumulation = BatchObjectiveFn.GradientAccumulation.AUTO;
+
+        @Option(name = "-costBalancedPartitions", usage = "split examples across threads statically by estimated cost")
+        public boolean costBalancedPartitions = false;
+
+        @Option(name = "-logThreadStats", usage = "log per-thread timings of every objective evaluation")
+        public boolean logThreadStats = false;
+
+        @Option(name = "-forwardBackwardsEngine", usage = "forward-backward in LOG_SPACE or SCALED probability space (falls back to log space as needed)")
+        public ForwardBackwards.Engine forwardBackwardsEngine = ForwardBackwards.Engine.LOG_SPACE;
+
+        @Option(name = "-numHashBuckets", usage = "hash node predicates into this many buckets rather than indexing them (0 to index)")
+        public int numHashBuckets = 0;
+
+        @Option(name = "-numEdgeHashBuckets", usage = "buckets for edge predicates when hashing")
+        public int numEdgeHashBuckets = CRFTrainer.DEFAULT_NUM_EDGE_HASH_BUCKETS;
+
+        @Option(name = "-signedHashing", usage = "give hashed predicates a random sign")
+        public boolean signedHashing = false;
     }
 
     private static <T> Pair<List<T>, List<T>> splitData(List<T> original, double splitForSecond) {
@@ -78,6 +106,50 @@ public class Trainer {
         return Tuples.pair(first, second);
     }
 
+    /**
+     * Train on `trainLabeledData`, evaluating on both splits after every iteration, and return the model that
+     * did best on `testLabeledData`
+     */
+    private static CRFModel<String, ConllFormat.Row, String> trainWithEval(
+            List<List<Pair<ConllFormat.Row, String>>> trainLabeledData,
+            List<List<Pair<ConllFormat.Row, String>>> testLabeledData,
+            CRFPredicateExtractor<ConllFormat.Row, String> predExtractor,
+            CRFTrainer.Opts<String, ConllFormat.Row, String> trainOpts,
+            Opts opts,
+            ParallelRuntime runtime) {
+        CRFTrainer<String, ConllFormat.Row, String> trainer =
+            new CRFTrainer<>(trainLabeledData, predExtractor, trainOpts);
+
+        // Setup iteration callback, weird trick here where you require
+        // the trainer to make a model for each iteration but then need
+        // to modify the iteration-callback to use it
+        List<List<Pair<String, ConllFormat.Row>>> trainEvalData = trainLabeledData.stream()
+            .map(x -> x.stream().map(Pair::swap).collect(toList()))
+            .collect(toList());
+        List<List<Pair<String, ConllFormat.Row>>> testEvalData = testLabeledData.stream()
+            .map(x -> x.stream().map(Pair::swap).collect(toList()))
+            .collect(toList());
+        ToDoubleFunction<CRFModel<String, ConllFormat.Row, String>> trainEvalFn = (model) -> {
+            Evaluation<String> eval = Evaluation.compute(model, trainEvalData, runtime);
+            return eval.tokenAccuracy.accuracy();
+        };
+        ToDoubleFunction<CRFModel<String, ConllFormat.Row, String>> testEvalFn = (model) -> {
+            Evaluation<String> eval = Evaluation.compute(model, testEvalData, runtime);
+            return eval.tokenAccuracy.accuracy();
+        };
+        // the model passed to the callback is only valid during the call, so the best one is copied
+        TrainCriterionEval<CRFModel<String, ConllFormat.Row, String>> criterion =
+            new TrainCriterionEval<>(testEvalFn, model -> trainer.modelForWeights(model.weights()));
+        criterion.maxNumDipIters = opts.maxNumDipIters;
+        trainOpts.iterCallback = (CRFModel<String, ConllFormat.Row, String> crfModel) -> {
+            logger.info("Train Accuracy: {}", trainEvalFn.applyAsDouble(crfModel));
+            return criterion.test(crfModel);
+        };
+        trainer.train(trainLabeledData);
+        // Criterion may have better model than last iteration
+        return criterion.getBestModel();
+    }
+
     @SneakyThrows
     public static void trainAndSaveModel(Opts opts) {
         // Load labeled data
@@ -103,40 +175,28 @@ public class Trainer {
         trainOpts.lbfgsHistorySize = opts.lbfgsHistorySize;
         trainOpts.optimizerOpts.maxIters = opts.maxIterations;
         trainOpts.minExpectedFeatureCount = (int) (1.0/opts.featureKeepProb);
+        trainOpts.minFeatureCount = opts.minFeatureCount;
+        trainOpts.featureCountSketchWidth = opts.featureCountSketchWidth;
         trainOpts.numThreads = opts.numThreads;
-
-        // Trainer
-        CRFTrainer<String, ConllFormat.Row, String> trainer =
-            new CRFTrainer<>(trainLabeledData, predExtractor, trainOpts);
-
-        // Setup iteration callback, weird trick here where you require
-        // the trainer to make a model for each iteration but then need
-        // to modify the iteration-callback to use it
-        Parallel.MROpts evalMrOpts = Parallel.MROpts.withIdAndThreads("mr-crf-train-eval", opts.numThreads);
-        List<List<Pair<String, ConllFormat.Row>>> trainEvalData = trainLabeledData.stream()
-            .map(x -> x.stream().map(Pair::swap).collect(toList()))
-            .collect(toList());
-        List<List<Pair<String, ConllFormat.Row>>> testEvalData = testLabeledData.stream()
-            .map(x -> x.stream().map(Pair::swap).collect(toList()))
-            .collect(toList());
-        ToDoubleFunction<CRFModel<String, ConllFormat.Row, String>> trainEvalFn = (model) -> {
-            Evaluation<String> eval = Evaluation.compute(model, trainEvalData, evalMrOpts);
-            return eval.tokenAccuracy.accuracy();
-        };
-        ToDoubleFunction<CRFModel<String, ConllFormat.Row, String>> testEvalFn = (model) -> {
-            Evaluation<String> eval = Evaluation.compute(model, testEvalData, evalMrOpts);
-            return eval.tokenAccuracy.accuracy();
-        };
-        TrainCriterionEval<CRFModel<String, ConllFormat.Row, String>> criterion = new TrainCriterionEval<>(testEvalFn);
-        criterion.maxNumDipIters = opts.maxNumDipIters;
-        trainOpts.iterCallback = (CRFModel<String, ConllFormat.Row, String> crfModel) -> {
-            logger.info("Train Accuracy: {}", trainEvalFn.applyAsDouble(crfModel));
-            return criterion.test(crfModel);
-        };
-        trainer.train(trainLabeledData);
-        // Criterion may have better model than last iteration
-        CRFModel<String, ConllFormat.Row, String> crfModel = criterion.getBestModel();
-            Parallel.shutdownExecutor(evalMrOpts.executorService, Long.MAX_VALUE);
+        trainOpts.gradientAccumulation = opts.gradientAccumulation;
+        trainOpts.costBalancedPartitions = opts.costBalancedPartitions;
+        trainOpts.forwardBackwardsEngine = opts.forwardBackwardsEngine;
+        if (opts.logThreadStats) {
+            trainOpts.objectiveStatsListener = stats -> {
+                logger.info("Objective evaluation: {}", stats);
+                stats.workers.forEach(worker -> logger.info("  {}", worker));
+            };
+        }
+        trainOpts.numHashBuckets = opts.numHashBuckets;
+        trainOpts.numEdgeHashBuckets = opts.numEdgeHashBuckets;
+        trainOpts.signedHashing = opts.signedHashing;
+
+        // One pool for feature indexing, training and the per-iteration evaluations
+        CRFModel<String, ConllFormat.Row, String> crfModel;
+        try (ParallelRuntime runtime = ParallelRuntime.fixed("mr-crf-train", opts.numThreads)) {
+            trainOpts.runtime = runtime;
+            crfModel = trainWithEval(trainLabeledData, testLabeledData, predExtractor, trainOpts, opts, runtime);
+        }
         Vector weights = crfModel.weights();
         val dos = new DataOutputStream(new FileOutputStream(opts.modelPath));
         logger.info("Writing model to {}", opts.modelPath);
@@ -0,0 +1,66 @@
+package org.allenai.ml.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed-memory approximate counter (Cormode and Muthukrishnan's count-min sketch): `depth` rows of `width` counters,
+ * each element incrementing one hashed counter per row. `estimate` is the minimum over the rows, which never
+ * undercounts and overcounts by at most `2N / width` (N total increments) with probability `1 - 2^-depth`.
+ *
+ * Meant as a cheap first pass before exact counting: an element whose estimate is below a cutoff is certainly below
+ * it, so only the (few) candidates that pass need exact counters.
+ *
+ * __Internal notes__: Counters are an `AtomicIntegerArray`, so all workers can share one sketch and memory stays
+ * fixed in the number of threads. Counters saturate at `Integer.MAX_VALUE` rather than wrapping.
+ */
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final AtomicIntegerArray counts;
+
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException(String.format("Need positive width and depth, got %d x %d",
+                width, depth));
+        }
+        if ((long) width * depth > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sketch too large: " + width + " x " + depth);
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counts = new AtomicIntegerArray(width * depth);
+    }
+
+    private int cell(int row, int hash) {
+        // MurmurHash3's 32-bit finalizer on a per-row offset of `hashCode` gives (roughly) independent row hashes
+        int h = hash + row * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return row * width + (int) (((h & 0xffffffffL) * width) >>> 32);
+    }
+
+    public void add(Object elem) {
+        int hash = elem.hashCode();
+        for (int row = 0; row < depth; row++) {
+            int cell = cell(row, hash);
+            if (counts.get(cell) < Integer.MAX_VALUE) {
+                counts.incrementAndGet(cell);
+            }
+        }
+    }
+
+    /**
+     * @return an upper bound on the number of times `elem` has been added
+     */
+    public int estimate(Object elem) {
+        int hash = elem.hashCode();
+        int result = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            result = Math.min(result, counts.get(cell(row, hash)));
+        }
+        return result;
+    }
+}
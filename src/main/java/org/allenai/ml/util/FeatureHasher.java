@@ -0,0 +1,90 @@
+package org.allenai.ml.util;
+
+import lombok.val;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Dictionary-free alternative to an `Indexer` for features: each feature's `toString()` is hashed to a 64-bit
+ * value which picks one of `numBuckets` indices. Memory and model size are bounded by `numBuckets` no matter how
+ * many distinct features there are, and there is nothing to collect before training, at the cost of colliding
+ * features sharing a weight.
+ *
+ * With `signed` hashing, another bit of the hash gives each feature a +1/-1 sign, so collisions cancel out in
+ * expectation rather than always adding up (Weinberger et al., "Feature Hashing for Large Scale Multitask
+ * Learning").
+ *
+ * __Internal notes__: The hash is FNV-1a over the UTF-16 chars followed by the MurmurHash3 64-bit finalizer, so
+ * every bit of the result depends on every char; the bucket comes from the low 63 bits and the sign from the top
+ * bit.
+ */
+public final class FeatureHasher<F> {
+    public final int numBuckets;
+    public final boolean signed;
+
+    private FeatureHasher(int numBuckets, boolean signed) {
+        if (numBuckets <= 0) {
+            throw new IllegalArgumentException("Need a positive number of buckets, got " + numBuckets);
+        }
+        this.numBuckets = numBuckets;
+        this.signed = signed;
+    }
+
+    public static <F> FeatureHasher<F> of(int numBuckets, boolean signed) {
+        return new FeatureHasher<>(numBuckets, signed);
+    }
+
+    public static long hash64(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int idx = 0; idx < s.length(); idx++) {
+            h ^= s.charAt(idx);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public long hash(F feature) {
+        return hash64(feature.toString());
+    }
+
+    /**
+     * @return bucket of a feature with hash `hash`, in `[0, numBuckets)`
+     */
+    public int bucket(long hash) {
+        // drop the sign bit so the remainder is non-negative
+        return (int) ((hash & Long.MAX_VALUE) % numBuckets);
+    }
+
+    /**
+     * @return +1 or -1 for a feature with hash `hash` if `signed`, otherwise always +1
+     */
+    public double sign(long hash) {
+        return signed && hash < 0 ? -1.0 : 1.0;
+    }
+
+    private final static String DATA_VERSION = "1.0";
+
+    public void save(DataOutputStream dos) throws IOException {
+        dos.writeUTF(DATA_VERSION);
+        dos.writeInt(numBuckets);
+        dos.writeBoolean(signed);
+    }
+
+    public static <F> FeatureHasher<F> load(DataInputStream dis) throws IOException {
+        IOUtils.ensureVersionMatch(dis, DATA_VERSION);
+        val numBuckets = dis.readInt();
+        return new FeatureHasher<>(numBuckets, dis.readBoolean());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FeatureHasher(numBuckets=%d, signed=%s)", numBuckets, signed);
+    }
+}
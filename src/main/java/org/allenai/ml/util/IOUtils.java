@@ -3,13 +3,18 @@ package org.allenai.ml.util;
 import lombok.SneakyThrows;
 import lombok.val;
 
-import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileReader;
-import java.nio.charset.Charset;
+import org.allenai.ml.linalg.OffHeapDenseVector;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 public class IOUtils {
@@ -24,11 +29,27 @@ public class IOUtils {
         }
     }
 
+    /*
+     * Arrays of doubles are saved as an `int` length followed by big-endian doubles, i.e. what
+     * `DataOutputStream.writeInt`/`writeDouble` produce. __BOTTLENECK__: For large models, reading or writing one
+     * `double` at a time through a `DataInputStream` (each call a `readFully` of 8 bytes, a syscall when the
+     * stream isn't buffered) dominates load time, so every path below moves `BULK_BYTES` sized blocks and
+     * decodes them through a `DoubleBuffer` view.
+     */
+
+    private final static int BULK_BYTES = 1 << 16;
+    private final static int BULK_DOUBLES = BULK_BYTES / Double.BYTES;
+
     @SneakyThrows
     public static void saveDoubles(DataOutputStream dos, double[] xs) {
         dos.writeInt(xs.length);
-        for (int idx = 0; idx < xs.length; idx++) {
-            dos.writeDouble(xs[idx]);
+        byte[] block = new byte[BULK_BYTES];
+        DoubleBuffer blockDoubles = ByteBuffer.wrap(block).asDoubleBuffer();
+        for (int start = 0; start < xs.length; start += BULK_DOUBLES) {
+            int n = Math.min(BULK_DOUBLES, xs.length - start);
+            blockDoubles.clear();
+            blockDoubles.put(xs, start, n);
+            dos.write(block, 0, n * Double.BYTES);
         }
     }
 
@@ -36,12 +57,161 @@ public class IOUtils {
     public static double[] loadDoubles(DataInputStream dis) {
         int n = dis.readInt();
         double[] xs = new double[n];
-        for (int idx = 0; idx < n; idx++) {
-            xs[idx] = dis.readDouble();
+        byte[] block = new byte[BULK_BYTES];
+        DoubleBuffer blockDoubles = ByteBuffer.wrap(block).asDoubleBuffer();
+        for (int start = 0; start < n; start += BULK_DOUBLES) {
+            int numInBlock = Math.min(BULK_DOUBLES, n - start);
+            dis.readFully(block, 0, numInBlock * Double.BYTES);
+            blockDoubles.clear();
+            blockDoubles.get(xs, start, numInBlock);
+        }
+        return xs;
+    }
+
+    /**
+     * Read the layout written by `saveDoubles`, narrowing each entry to a `float` as it's read so the
+     * full `double[]` is never materialized
+     */
+    @SneakyThrows
+    public static float[] loadDoublesAsFloats(DataInputStream dis) {
+        int n = dis.readInt();
+        float[] xs = new float[n];
+        byte[] block = new byte[BULK_BYTES];
+        DoubleBuffer blockDoubles = ByteBuffer.wrap(block).asDoubleBuffer();
+        for (int start = 0; start < n; start += BULK_DOUBLES) {
+            int numInBlock = Math.min(BULK_DOUBLES, n - start);
+            dis.readFully(block, 0, numInBlock * Double.BYTES);
+            blockDoubles.clear();
+            for (int idx = 0; idx < numInBlock; idx++) {
+                xs[start + idx] = (float) blockDoubles.get(idx);
+            }
+        }
+        return xs;
+    }
+
+    /**
+     * Same layout as `saveDoubles(DataOutputStream, double[])`, written at the channel's current position
+     */
+    @SneakyThrows
+    public static void saveDoubles(WritableByteChannel channel, double[] xs) {
+        ByteBuffer block = ByteBuffer.allocateDirect(BULK_BYTES);
+        DoubleBuffer blockDoubles = block.asDoubleBuffer();
+        block.putInt(xs.length);
+        block.flip();
+        writeFully(channel, block);
+        for (int start = 0; start < xs.length; start += BULK_DOUBLES) {
+            int n = Math.min(BULK_DOUBLES, xs.length - start);
+            blockDoubles.clear();
+            blockDoubles.put(xs, start, n);
+            block.clear().limit(n * Double.BYTES);
+            writeFully(channel, block);
+        }
+    }
+
+    /**
+     * Same layout as `loadDoubles(DataInputStream)`, read from the channel's current position
+     */
+    @SneakyThrows
+    public static double[] loadDoubles(ReadableByteChannel channel) {
+        ByteBuffer block = ByteBuffer.allocateDirect(BULK_BYTES);
+        DoubleBuffer blockDoubles = block.asDoubleBuffer();
+        block.limit(Integer.BYTES);
+        readFully(channel, block);
+        int n = block.getInt(0);
+        double[] xs = new double[n];
+        for (int start = 0; start < n; start += BULK_DOUBLES) {
+            int numInBlock = Math.min(BULK_DOUBLES, n - start);
+            block.clear().limit(numInBlock * Double.BYTES);
+            readFully(channel, block);
+            blockDoubles.clear();
+            blockDoubles.get(xs, start, numInBlock);
         }
         return xs;
     }
 
+    /**
+     * Memory-map (read-only) doubles saved by `saveDoubles` at the channel's current position, and move the
+     * position past them. Pages are only read from disk when touched and are shared across processes mapping the
+     * same file. The returned vector stays valid after `channel` is closed.
+     */
+    @SneakyThrows
+    public static OffHeapDenseVector mapDoubles(FileChannel channel) {
+        long position = channel.position();
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, header);
+        int n = header.getInt(0);
+        long dataPosition = position + Integer.BYTES;
+        val vec = OffHeapDenseVector.map(channel, dataPosition, n, FileChannel.MapMode.READ_ONLY);
+        channel.position(dataPosition + (long) n * Double.BYTES);
+        return vec;
+    }
+
+    /**
+     * Read a header with `headerFn` through a buffered stream over `channel`, then position `channel` right after
+     * what `headerFn` consumed (the buffer will generally have read past that). Useful for files with a small
+     * stream-encoded header followed by bulk data, e.g. saved models.
+     */
+    @SneakyThrows
+    public static <T> T readHeader(FileChannel channel, Function<DataInputStream, T> headerFn) {
+        long start = channel.position();
+        val counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        T header = headerFn.apply(new DataInputStream(counter));
+        channel.position(start + counter.numRead);
+        return header;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long numRead = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                numRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bs, int off, int len) throws IOException {
+            int n = super.read(bs, off, len);
+            if (n > 0) {
+                numRead += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            numRead += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException("Channel ended with " + buf.remaining() + " bytes left to read");
+            }
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
     @SneakyThrows
     public static Stream<String> linesFromPath(String path) {
         return new BufferedReader(new FileReader(path)).lines();
@@ -4,25 +4,35 @@ import com.gs.collections.api.map.primitive.ObjectDoubleMap;
 import com.gs.collections.api.map.primitive.ObjectIntMap;
 import com.gs.collections.impl.map.mutable.primitive.ObjectDoubleHashMap;
 import com.gs.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+import lombok.SneakyThrows;
 import lombok.val;
 import org.allenai.ml.linalg.Vector;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * A list that implements O(1) random access lookup AND O(1) <code>indexOf</code> calls. It also
  * does not permit duplicate elements.
+ *
+ * Saved `String` indexers can either be loaded onto the heap or memory-mapped with `map`, in which case
+ * `get` and `indexOf` run directly against the mapped bytes of a `StringTable` and the strings never
+ * live on the heap (`get` decodes a fresh `String` each call).
  * @param <T>
  */
 public class Indexer<T extends Comparable<T>> extends AbstractList<T> {
 
+    // Exactly one of (list, objToIndex) or table is set
     private final List<T> list;
     private final ObjectIntMap<T> objToIndex;
+    private final StringTable table;
 
     private Indexer(Stream<T> elems) {
         this.list = elems
@@ -33,31 +43,38 @@ public class Indexer<T extends Comparable<T>> extends AbstractList<T> {
             m.put(list.get(idx), idx);
         }
         this.objToIndex = m.toImmutable();
+        this.table = null;
+    }
+
+    private Indexer(StringTable table) {
+        this.list = null;
+        this.objToIndex = null;
+        this.table = table;
     }
 
     @Override
     public int size() {
-        return list.size();
+        return table != null ? table.size() : list.size();
     }
 
     @Override
     public boolean isEmpty() {
-        return list.isEmpty();
+        return size() == 0;
     }
 
     @Override
     public boolean contains(Object o) {
-        return objToIndex.containsKey(o);
+        return indexOf(o) >= 0;
     }
 
     @Override
     public Iterator<T> iterator() {
-        return list.iterator();
+        return table != null ? super.iterator() : list.iterator();
     }
 
     @Override
     public Object[] toArray() {
-        return list.toArray();
+        return table != null ? super.toArray() : list.toArray();
     }
 
     @Override
@@ -66,13 +83,17 @@ public class Indexer<T extends Comparable<T>> extends AbstractList<T> {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public T get(int index) {
-        return list.get(index);
+        return table != null ? (T) table.get(index) : list.get(index);
     }
 
     @Override
     public int indexOf(Object o) {
-        return objToIndex.get(o);
+        if (table != null) {
+            return o instanceof String ? table.indexOf((String) o) : -1;
+        }
+        return objToIndex.getIfAbsent(o, -1);
     }
 
     @Override
@@ -83,7 +104,7 @@ public class Indexer<T extends Comparable<T>> extends AbstractList<T> {
 
     @Override
     public List<T> subList(int fromIndex, int toIndex) {
-        return list.subList(fromIndex, toIndex);
+        return table != null ? super.subList(fromIndex, toIndex) : list.subList(fromIndex, toIndex);
     }
 
 
@@ -91,6 +112,88 @@ public class Indexer<T extends Comparable<T>> extends AbstractList<T> {
         return new Indexer<>(stream);
     }
 
+    public static <T extends Comparable<T>> ConcurrentBuilder<T> concurrentBuilder() {
+        return new ConcurrentBuilder<>();
+    }
+
+    /**
+     * Thread-safe, growable indexer. Any number of threads can `intern` elements at once and immediately get back
+     * the element's index. Those indices are dense and in first-intern order, which with several threads depends
+     * on scheduling, so `freeze` renumbers the elements in sorted order: the final `Indexer` only depends on which
+     * elements were interned, and `freeze(oldToNew)` reports the renumbering for callers that kept interned
+     * indices.
+     *
+     * __Internal notes__: Lookups of already-interned elements are a lock-free `ConcurrentHashMap.get`; only the
+     * first intern of an element takes the bin lock in `computeIfAbsent`, which also ensures each element draws
+     * exactly one index from the counter.
+     */
+    public static class ConcurrentBuilder<T extends Comparable<T>> {
+        private final ConcurrentHashMap<T, Integer> objToIndex = new ConcurrentHashMap<>();
+        private final AtomicInteger nextIndex = new AtomicInteger();
+        private volatile boolean frozen = false;
+
+        private ConcurrentBuilder() {
+            // use Indexer.concurrentBuilder()
+        }
+
+        /**
+         * @return index of `elem`, adding it if this is the first time it's been seen
+         */
+        public int intern(T elem) {
+            ensureNotFrozen();
+            Integer idx = objToIndex.get(elem);
+            if (idx != null) {
+                return idx;
+            }
+            return objToIndex.computeIfAbsent(elem, __ -> nextIndex.getAndIncrement());
+        }
+
+        /**
+         * @return index of `elem` or -1 if it hasn't been interned
+         */
+        public int indexOf(Object elem) {
+            ensureNotFrozen();
+            Integer idx = objToIndex.get(elem);
+            return idx != null ? idx : -1;
+        }
+
+        // interned indices disagree with the frozen `Indexer`'s, so stop handing them out
+        private void ensureNotFrozen() {
+            if (frozen) {
+                throw new IllegalStateException("Indexer builder is frozen, use the Indexer from freeze()");
+            }
+        }
+
+        public int size() {
+            return nextIndex.get();
+        }
+
+        /**
+         * Build the immutable `Indexer` of the interned elements in sorted order. Callers must make sure all
+         * `intern` calls have finished (e.g. by joining the worker threads) before freezing; later `intern` and
+         * `indexOf` calls throw.
+         */
+        public Indexer<T> freeze() {
+            return freeze(null);
+        }
+
+        /**
+         * Like `freeze()`, and if `oldToNew` isn't null (it needs at least `size()` slots) set `oldToNew[i]` to
+         * the final index of the element `intern` gave index `i`
+         */
+        public Indexer<T> freeze(int[] oldToNew) {
+            frozen = true;
+            List<T> elems = new ArrayList<>(objToIndex.keySet());
+            Collections.sort(elems);
+            if (oldToNew != null) {
+                for (int idx = 0; idx < elems.size(); idx++) {
+                    oldToNew[objToIndex.get(elems.get(idx))] = idx;
+                }
+            }
+            return new Indexer<>(elems.stream());
+        }
+    }
+
     public ObjectDoubleMap<T> toMap(Vector vector) {
         ObjectDoubleHashMap<T> m = new ObjectDoubleHashMap<T>();
         vector.nonZeroEntries().forEach(e -> {
@@ -99,19 +202,57 @@ public class Indexer<T extends Comparable<T>> extends AbstractList<T> {
         return m;
     }
 
-    private final static String DATA_VERSION = "2.0";
+    // 2.0 saved a plain list of strings, which loading re-hashes into a map
+    private final static String LIST_DATA_VERSION = "2.0";
+    private final static String DATA_VERSION = "3.0";
 
     public void save(DataOutputStream dos) throws IOException {
         dos.writeUTF(DATA_VERSION);
-        if (list.size() != objToIndex.size()) {
+        if (table == null && list.size() != objToIndex.size()) {
             throw new RuntimeException("Trying to save indexer with list/set size mismatch");
         }
-        IOUtils.saveList(dos, list.stream().map(Object::toString).collect(Collectors.toList()));
+        StringTable.write(dos, stream().map(Object::toString).collect(Collectors.toList()));
     }
 
+    /**
+     * Load a saved indexer onto the heap. Reads both the current format and the older list format.
+     */
     public static Indexer<String> load(DataInputStream dis) throws IOException {
-        IOUtils.ensureVersionMatch(dis, DATA_VERSION);
-        val lst = IOUtils.loadList(dis);
-        return new Indexer<>(lst.stream());
+        return load(dis, dis.readUTF());
+    }
+
+    /**
+     * Like `load(dis)`, for callers which have already read the leading version string (e.g. to tell an indexer
+     * apart from some other saved object)
+     */
+    public static Indexer<String> load(DataInputStream dis, String version) throws IOException {
+        if (version.equals(LIST_DATA_VERSION)) {
+            val lst = IOUtils.loadList(dis);
+            return new Indexer<>(lst.stream());
+        }
+        ensureCurrentVersion(version);
+        return new Indexer<>(StringTable.read(dis));
+    }
+
+    /**
+     * Memory-map (read-only) an indexer saved at the channel's current position, and move the position past it.
+     * The result stays valid after `channel` is closed. Only reads the current format.
+     */
+    public static Indexer<String> map(FileChannel channel) throws IOException {
+        ensureCurrentVersion(IOUtils.readHeader(channel, Indexer::readVersion));
+        return new Indexer<>(StringTable.map(channel));
+    }
+
+    @SneakyThrows
+    private static String readVersion(DataInputStream dis) {
+        return dis.readUTF();
+    }
+
+    private static void ensureCurrentVersion(String version) {
+        if (!version.equals(DATA_VERSION)) {
+            throw new IllegalArgumentException(String.format(
+                "Data versions't don't match. Saved is %s but current code is %s",
+                version, DATA_VERSION));
+        }
     }
 }
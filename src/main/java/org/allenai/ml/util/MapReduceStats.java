@@ -0,0 +1,77 @@
+package org.allenai.ml.util;
+
+import lombok.RequiredArgsConstructor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Timings of a single `Parallel.mapReduce` call, passed to `MROpts.statsListener` when it's set. Times are in
+ * nanoseconds. Compare workers' `busyNanos` to spot load imbalance: `imbalance()` near 1.0 means the workers
+ * finished together, while a high value means the call waited on stragglers and extra threads would mostly idle.
+ */
+@RequiredArgsConstructor
+public class MapReduceStats {
+
+    @RequiredArgsConstructor
+    public static class WorkerStats {
+        public final int workerIdx;
+        public final String threadName;
+        public final long numElements;
+        // from submitting the worker until it started running, e.g. waiting for a free pool thread
+        public final long queuedNanos;
+        // from starting to finishing its elements
+        public final long busyNanos;
+        // CPU time of `busyNanos`, -1 if the JVM can't measure it for this thread
+        public final long cpuNanos;
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d elems, %.1f ms busy, %.1f ms cpu, %.1f ms queued", threadName,
+                numElements, busyNanos / 1e6, cpuNanos / 1e6, queuedNanos / 1e6);
+        }
+    }
+
+    public final List<WorkerStats> workers;
+    // time the caller spent blocked on the workers' futures
+    public final long waitNanos;
+    // time to merge the workers' results
+    public final long mergeNanos;
+    // time of the entire call
+    public final long totalNanos;
+
+    /**
+     * @return slowest worker's busy time over the mean busy time, 1.0 if perfectly balanced
+     */
+    public double imbalance() {
+        long maxBusy = workers.stream().mapToLong(w -> w.busyNanos).max().orElse(0L);
+        double meanBusy = workers.stream().mapToLong(w -> w.busyNanos).average().orElse(0.0);
+        return meanBusy > 0.0 ? maxBusy / meanBusy : 1.0;
+    }
+
+    public long numElements() {
+        return workers.stream().mapToLong(w -> w.numElements).sum();
+    }
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * @return CPU time of the current thread, or -1 if it can't be measured
+     */
+    static long currentThreadCpuNanos() {
+        try {
+            return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : -1L;
+        } catch (UnsupportedOperationException e) {
+            // e.g. virtual threads
+            return -1L;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MapReduceStats(%d workers, %d elems, %.1f ms total, %.1f ms waiting, " +
+                "%.1f ms merging, imbalance %.2f)", workers.size(), numElements(), totalNanos / 1e6,
+            waitNanos / 1e6, mergeNanos / 1e6, imbalance());
+    }
+}
@@ -4,9 +4,14 @@ import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.allenai.ml.linalg.ExecutionPolicy;
 
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 
@@ -23,6 +28,34 @@ public class Parallel {
         void merge(D a, D b);
     }
 
+    /**
+     * Driver with per-worker scratch state: each worker calls `newWorkerContext` once on its own thread before its
+     * first `update`, passes the context to every `update` and `closeWorkerContext`s it when done, so `update` can
+     * reuse buffers rather than allocate them per element. Unlike `D`, the context is never merged.
+     */
+    public interface WorkerContextDriver<T, D, C> extends MapReduceDriver<T, D> {
+        C newWorkerContext();
+
+        void update(D data, T elem, C context);
+
+        default void closeWorkerContext(C context) {
+            // nothing to release by default
+        }
+
+        /**
+         * Update with a context just for `elem`, for callers outside `mapReduce`
+         */
+        @Override
+        default void update(D data, T elem) {
+            C context = newWorkerContext();
+            try {
+                update(data, elem, context);
+            } finally {
+                closeWorkerContext(context);
+            }
+        }
+    }
+
     public static <T, D> D mapReduce(List<T> data, MapReduceDriver<T, D> driver) {
         return mapReduce(data, driver, new MROpts());
     }
@@ -32,18 +65,12 @@ public class Parallel {
         public int numWorkers = Runtime.getRuntime().availableProcessors();
         public ExecutorService executorService;
         public double maxSecs = 1000000.0;
-
-        private static class CustomThreadFactory implements ThreadFactory {
-
-            private final String id;
-            public CustomThreadFactory(String id) {
-                this.id = id;
-            }
-
-            public Thread newThread(Runnable r) {
-                return new Thread(r, id);
-            }
-        }
+        // Number of consecutive elements a worker claims at a time. Non-positive picks a size
+        // giving each worker about `AUTO_CHUNKS_PER_WORKER` chunks
+        public int chunkSize = 0;
+        // If set, each `mapReduce` collects per-worker timings and passes them to this on the calling
+        // thread before returning
+        public Consumer<MapReduceStats> statsListener = null;
 
         public static MROpts withThreads(int numThreads) {
             return withIdAndThreads("mr-opts", numThreads);
@@ -52,8 +79,7 @@ public class Parallel {
         public static MROpts withIdAndThreads(String id, int numThreads) {
             val opts = new MROpts();
             opts.numWorkers = numThreads;
-            ThreadFactory namedThreadFactory = new CustomThreadFactory(id);
-            opts.executorService = Executors.newFixedThreadPool(numThreads, namedThreadFactory );
+            opts.executorService = Executors.newFixedThreadPool(numThreads, ParallelRuntime.namedThreadFactory(id));
             return opts;
         }
 
@@ -62,20 +88,23 @@ public class Parallel {
     @SneakyThrows
     /**
      * Trys to shutdown a thread pool and will try to do so over and over until
-     * it has been successfully shutdown. The calling thread is halted up to `maxMillis`
-     * to wait for the Thread pool to shutdown
+     * all of its threads have terminated. The calling thread is halted up to `maxMillis`
+     * to wait for the Thread pool to shutdown. The common `ForkJoinPool` can't be shut down,
+     * so it's left alone.
      * @returns true if shutdown was clean and false if timed-out
      */
     public static boolean shutdownExecutor(ExecutorService executorService, long maxMillis) {
+        if (executorService == ForkJoinPool.commonPool()) {
+            return true;
+        }
         final long sleepInterval = 100;
         long slept = 0L;
         executorService.shutdown();
         while (true) {
             executorService.shutdownNow();
-            if (executorService.isShutdown()) {
+            if (executorService.awaitTermination(sleepInterval, TimeUnit.MILLISECONDS)) {
                 return true;
             }
-            Thread.sleep(sleepInterval);
             slept += sleepInterval;
             if ((slept / sleepInterval) % 10 == 0) {
                 log.info("Slept total of {} ms waiting for thread pool shutdown", slept);
@@ -86,40 +115,399 @@ public class Parallel {
         }
     }
 
-    @SneakyThrows()
+    // With automatic chunk sizes, enough chunks per worker that a few long elements don't leave the
+    // other workers idle, but few enough that claiming chunks is negligible
+    private final static int AUTO_CHUNKS_PER_WORKER = 16;
+
+    static int chunkSize(int numElems, int numWorkers, int requestedChunkSize) {
+        if (requestedChunkSize > 0) {
+            return requestedChunkSize;
+        }
+        long numChunks = (long) numWorkers * AUTO_CHUNKS_PER_WORKER;
+        return (int) Math.max(1, (numElems + numChunks - 1) / numChunks);
+    }
+
+    /**
+     * Static split of a data set into contiguous ranges of roughly equal total cost, for data whose elements take
+     * very different amounts of work (e.g. sentences of different lengths). Compute it once with `balanced` and
+     * pass it to every `mapReduce` over the same data, so balancing costs nothing per pass and workers don't
+     * contend on a shared cursor.
+     */
+    public static final class Partition {
+        // part `i` is elements `[bounds[i], bounds[i+1])`
+        private final int[] bounds;
+
+        private Partition(int[] bounds) {
+            this.bounds = bounds;
+        }
+
+        /**
+         * Split `data` into `numParts` contiguous ranges so each range's summed `cost` is as close as possible to
+         * `1/numParts` of the total. Each boundary goes on whichever side of the element crossing it puts the
+         * running cost closer to its target, so the boundaries are off by at most half an element's cost each.
+         */
+        public static <T> Partition balanced(List<T> data, ToDoubleFunction<? super T> cost, int numParts) {
+            if (numParts <= 0) {
+                throw new IllegalArgumentException("Need a positive number of parts, got " + numParts);
+            }
+            double[] cumCosts = new double[data.size()];
+            double totalCost = 0.0;
+            int idx = 0;
+            for (T elem : data) {
+                double elemCost = cost.applyAsDouble(elem);
+                if (elemCost < 0.0 || Double.isNaN(elemCost)) {
+                    throw new IllegalArgumentException("Element costs must be non-negative, got " + elemCost);
+                }
+                totalCost += elemCost;
+                cumCosts[idx++] = totalCost;
+            }
+            int[] bounds = new int[numParts + 1];
+            int elemIdx = 0;
+            for (int part = 1; part < numParts; part++) {
+                double target = totalCost * part / numParts;
+                while (elemIdx < cumCosts.length && cumCosts[elemIdx] <= target) {
+                    elemIdx++;
+                }
+                // the element crossing the target goes wherever leaves the smaller overshoot
+                if (elemIdx < cumCosts.length &&
+                    cumCosts[elemIdx] - target < target - prevCumCost(cumCosts, elemIdx)) {
+                    elemIdx++;
+                }
+                bounds[part] = Math.max(elemIdx, bounds[part - 1]);
+            }
+            bounds[numParts] = cumCosts.length;
+            return new Partition(bounds);
+        }
+
+        private static double prevCumCost(double[] cumCosts, int idx) {
+            return idx > 0 ? cumCosts[idx - 1] : 0.0;
+        }
+
+        public int numParts() {
+            return bounds.length - 1;
+        }
+
+        /**
+         * @return number of elements in the partitioned data
+         */
+        public int size() {
+            return bounds[bounds.length - 1];
+        }
+
+        public int start(int part) {
+            return bounds[part];
+        }
+
+        public int end(int part) {
+            return bounds[part + 1];
+        }
+    }
+
+    /**
+     * Like `mapReduce(data, driver, mrOpts)` but worker `i` processes exactly part `i` of `partition` rather than
+     * claiming chunks dynamically, so there's one worker per part and `mrOpts.chunkSize` is ignored.
+     */
+    public static <T, D> D mapReduce(List<T> data, MapReduceDriver<T, D> driver, MROpts mrOpts, Partition partition) {
+        if (partition.size() != data.size()) {
+            throw new IllegalArgumentException(String.format("Partition covers %d elements but data has %d",
+                partition.size(), data.size()));
+        }
+        return run(data, driver, mrOpts, partition);
+    }
+
     /**
      * Perform an in-memory version of MapReduce targeted at accumulating sufficient statistics
      * from a data-set.
+     *
+     * Elements are scheduled dynamically: each of the `numWorkers` workers repeatedly claims the next
+     * `mrOpts.chunkSize` consecutive elements from a shared cursor until the data runs out, so workers that
+     * draw short elements (e.g. short sentences) just process more chunks. Which worker's `D` an element is
+     * `update`d into therefore varies from run to run.
+     *
+     * The workers' results are then merged pairwise in a tree on the executor (see `treeMerge`), so `merge` may run
+     * on several threads at once, though never twice on the same `D` at the same time. The result is one of the
+     * workers' `D`s rather than a fresh `newData()`.
      */
     public static <T, D> D mapReduce(List<T> data, MapReduceDriver<T, D> driver, MROpts mrOpts) {
-        ExecutorService executorService = mrOpts.executorService != null ?
-            mrOpts.executorService :
-            Executors.newFixedThreadPool(mrOpts.numWorkers);
-        @RequiredArgsConstructor
-        class Worker implements Runnable {
-            private final List<T> dataSlice;
-            private final D data = driver.newData();
-            public void run() {
-                for (T t : dataSlice) {
-                    driver.update(data, t);
+        return run(data, driver, mrOpts, null);
+    }
+
+    /**
+     * A worker's private `D` and, if `collectStats`, its timings. `process` does the worker's share of updates.
+     */
+    private abstract static class Worker<T, D> implements Runnable {
+        private final int workerIdx;
+        private final MapReduceDriver<T, D> driver;
+        // `driver` if it takes a worker context, otherwise null
+        private final WorkerContextDriver<T, D, Object> contextDriver;
+        private final boolean collectStats;
+        final D data;
+        private Object context;
+        private long numElements, submitNanos, startNanos, endNanos, cpuNanos;
+        private String threadName;
+
+        Worker(int workerIdx, MapReduceDriver<T, D> driver, boolean collectStats) {
+            this.workerIdx = workerIdx;
+            this.driver = driver;
+            @SuppressWarnings("unchecked")
+            WorkerContextDriver<T, D, Object> contextDriver = driver instanceof WorkerContextDriver
+                ? (WorkerContextDriver<T, D, Object>) driver
+                : null;
+            this.contextDriver = contextDriver;
+            this.collectStats = collectStats;
+            this.data = driver.newData();
+        }
+
+        abstract void process() throws InterruptedException;
+
+        void update(T elem) {
+            if (contextDriver != null) {
+                contextDriver.update(data, elem, context);
+            } else {
+                driver.update(data, elem);
+            }
+            numElements++;
+        }
+
+        @Override
+        public void run() {
+            if (collectStats) {
+                startNanos = System.nanoTime();
+            }
+            long startCpuNanos = collectStats ? MapReduceStats.currentThreadCpuNanos() : -1L;
+            // Already one of `numWorkers` threads, so don't let vector operations fan out further
+            ExecutionPolicy.withThreadDefault(ExecutionPolicy.sequential(), this::processUnchecked);
+            if (collectStats) {
+                long endCpuNanos = MapReduceStats.currentThreadCpuNanos();
+                endNanos = System.nanoTime();
+                cpuNanos = startCpuNanos >= 0 && endCpuNanos >= 0 ? endCpuNanos - startCpuNanos : -1L;
+                threadName = Thread.currentThread().getName();
+            }
+        }
+
+        @SneakyThrows
+        private void processUnchecked() {
+            if (contextDriver == null) {
+                process();
+                return;
+            }
+            context = contextDriver.newWorkerContext();
+            try {
+                process();
+            } finally {
+                contextDriver.closeWorkerContext(context);
+                context = null;
+            }
+        }
+
+        MapReduceStats.WorkerStats stats() {
+            return new MapReduceStats.WorkerStats(workerIdx, threadName, numElements,
+                startNanos - submitNanos, endNanos - startNanos, cpuNanos);
+        }
+    }
+
+    /**
+     * @param partition static assignment of elements to workers, or null to schedule chunks dynamically
+     */
+    private static <T, D> D run(List<T> data, MapReduceDriver<T, D> driver, MROpts mrOpts, Partition partition) {
+        // chunks are claimed by position
+        List<T> elems = data instanceof RandomAccess ? data : new ArrayList<>(data);
+        int numElems = elems.size();
+        int chunkSize = chunkSize(numElems, mrOpts.numWorkers, mrOpts.chunkSize);
+        AtomicInteger cursor = new AtomicInteger();
+        // no point in workers that can't get a chunk
+        int numWorkers = partition != null
+            ? partition.numParts()
+            : (int) Math.min(mrOpts.numWorkers, ((long) numElems + chunkSize - 1) / chunkSize);
+        List<Worker<T, D>> workers = new ArrayList<>(numWorkers);
+        for (int idx = 0; idx < numWorkers; idx++) {
+            int part = idx;
+            workers.add(new Worker<T, D>(idx, driver, mrOpts.statsListener != null) {
+                private void updateRange(int start, int end) {
+                    for (int elemIdx = start; elemIdx < end; elemIdx++) {
+                        update(elems.get(elemIdx));
+                    }
                 }
+
+                @Override
+                void process() {
+                    if (partition != null) {
+                        updateRange(partition.start(part), partition.end(part));
+                        return;
+                    }
+                    int start;
+                    // a cursor that wrapped around int max is past the end too
+                    while ((start = cursor.getAndAdd(chunkSize)) < numElems && start >= 0) {
+                        updateRange(start, (int) Math.min(numElems, (long) start + chunkSize));
+                    }
+                }
+            });
+        }
+        return execute(workers, driver, mrOpts, null);
+    }
+
+    // With a streamed source, chunk size if `MROpts.chunkSize` isn't set, since the number of elements isn't known
+    final static int DEFAULT_STREAM_CHUNK_SIZE = 256;
+    // Chunks buffered between reading a streamed source and the workers, per worker
+    private final static int QUEUED_CHUNKS_PER_WORKER = 2;
+
+    /**
+     * Streaming version of `mapReduce(List, ...)`: the calling thread reads `source` into chunks of
+     * `mrOpts.chunkSize` elements (`DEFAULT_STREAM_CHUNK_SIZE` if not set) and hands them to the workers through a
+     * bounded queue, so at most about `numWorkers * (QUEUED_CHUNKS_PER_WORKER + 1)` chunks are in memory at once
+     * and the data set needn't fit in memory (e.g. lines streamed from a file). Reading `source` blocks while the
+     * workers are behind. `source` is only read from the calling thread, so it doesn't have to be thread-safe.
+     */
+    public static <T, D> D mapReduce(Iterator<T> source, MapReduceDriver<T, D> driver, MROpts mrOpts) {
+        int chunkSize = mrOpts.chunkSize > 0 ? mrOpts.chunkSize : DEFAULT_STREAM_CHUNK_SIZE;
+        int numWorkers = mrOpts.numWorkers;
+        BlockingQueue<List<T>> queue = new ArrayBlockingQueue<>(numWorkers * QUEUED_CHUNKS_PER_WORKER);
+        // each worker stops at the first of these it takes
+        List<T> endOfSource = new ArrayList<>();
+        List<Worker<T, D>> workers = new ArrayList<>(numWorkers);
+        for (int idx = 0; idx < numWorkers; idx++) {
+            workers.add(new Worker<T, D>(idx, driver, mrOpts.statsListener != null) {
+                @Override
+                void process() throws InterruptedException {
+                    List<T> chunk;
+                    while ((chunk = queue.take()) != endOfSource) {
+                        for (T elem : chunk) {
+                            update(elem);
+                        }
+                    }
+                }
+            });
+        }
+        return execute(workers, driver, mrOpts, futures -> {
+            List<T> chunk = new ArrayList<>(chunkSize);
+            while (source.hasNext()) {
+                chunk.add(source.next());
+                if (chunk.size() == chunkSize) {
+                    enqueue(queue, chunk, futures);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                enqueue(queue, chunk, futures);
             }
+            for (int idx = 0; idx < numWorkers; idx++) {
+                enqueue(queue, endOfSource, futures);
+            }
+        });
+    }
+
+    public static <T, D> D mapReduce(Stream<T> source, MapReduceDriver<T, D> driver, MROpts mrOpts) {
+        try (Stream<T> stream = source) {
+            return mapReduce(stream.iterator(), driver, mrOpts);
         }
-        List<Worker> workers = Functional.partition(data, mrOpts.numWorkers).stream()
-            .map(Worker::new)
-            .collect(toList());
-        List<Future<?>> futures =  workers.stream().map(executorService::submit).collect(toList());
-        for (Future<?> future : futures) {
-            future.get((long) mrOpts.maxSecs * 1000, TimeUnit.MILLISECONDS);
+    }
+
+    public static <T, D> D mapReduce(Spliterator<T> source, MapReduceDriver<T, D> driver, MROpts mrOpts) {
+        return mapReduce(Spliterators.iterator(source), driver, mrOpts);
+    }
+
+    /**
+     * Block until `chunk` is queued, but fail rather than wait forever if a worker has died and the queue may never
+     * drain
+     */
+    @SneakyThrows
+    private static <T> void enqueue(BlockingQueue<List<T>> queue, List<T> chunk, List<Future<?>> futures) {
+        while (!queue.offer(chunk, 10, TimeUnit.MILLISECONDS)) {
+            for (Future<?> future : futures) {
+                if (future.isDone()) {
+                    // rethrows the worker's failure, a worker can't otherwise finish before the end of the source
+                    future.get();
+                    throw new IllegalStateException("mapReduce worker finished before the end of the source");
+                }
+            }
         }
-        D finalData = driver.newData();
-        for (Worker worker : workers) {
-            driver.merge(finalData, worker.data);
+    }
+
+    /**
+     * Run `workers` on the executor, then `produce` (if any) on the calling thread, wait for the workers and merge
+     * their results. If anything fails, cancels (interrupts) the workers before rethrowing.
+     */
+    @SneakyThrows
+    private static <T, D> D execute(List<Worker<T, D>> workers,
+                                    MapReduceDriver<T, D> driver,
+                                    MROpts mrOpts,
+                                    Consumer<List<Future<?>>> produce) {
+        final long callStart = System.nanoTime();
+        // Without an executor, run on a pool just for this call. Repeated callers should share a `ParallelRuntime`
+        ExecutorService executorService = mrOpts.executorService != null ?
+            mrOpts.executorService :
+            Executors.newFixedThreadPool(mrOpts.numWorkers, ParallelRuntime.namedThreadFactory("mr-transient"));
+        List<Future<?>> futures = new ArrayList<>(workers.size());
+        boolean finished = false;
+        try {
+            for (Worker<T, D> worker : workers) {
+                worker.submitNanos = System.nanoTime();
+                futures.add(executorService.submit(worker));
+            }
+            if (produce != null) {
+                produce.accept(futures);
+            }
+            long waitStart = System.nanoTime();
+            for (Future<?> future : futures) {
+                future.get((long) mrOpts.maxSecs * 1000, TimeUnit.MILLISECONDS);
+            }
+            long mergeStart = System.nanoTime();
+            List<D> results = workers.stream().map(w -> w.data).collect(toList());
+            D finalData = results.isEmpty()
+                ? driver.newData()
+                : treeMerge(results, driver, executorService, (long) mrOpts.maxSecs * 1000);
+            if (mrOpts.statsListener != null) {
+                long end = System.nanoTime();
+                List<MapReduceStats.WorkerStats> workerStats = workers.stream().map(Worker::stats).collect(toList());
+                mrOpts.statsListener.accept(
+                    new MapReduceStats(workerStats, mergeStart - waitStart, end - mergeStart, end - callStart));
+            }
+            finished = true;
+            return finalData;
+        } finally {
+            if (!finished) {
+                futures.forEach(future -> future.cancel(true));
+            }
+            // we created this thread pool, need to clean up
+            if (mrOpts.executorService == null) {
+                shutdownExecutor(executorService, (long) mrOpts.maxSecs * 1000);
+            }
         }
-        // we created this thread pool, need to clean up
-        if (mrOpts.executorService == null) {
-            shutdownExecutor(executorService, (long) mrOpts.maxSecs * 1000);
+    }
+
+    /**
+     * Merge `results` pairwise in rounds, `results[i] += results[i + stride]` for `stride = 1, 2, 4, ...`, with the
+     * merges of a round running concurrently on `executorService`. Takes `ceil(log2(n))` rounds rather than the `n`
+     * sequential merges of folding into one result, which matters when merging is expensive (e.g. full-dimension
+     * gradients). Each result takes part in at most one merge per round, so `merge` only needs to be safe for
+     * disjoint pairs.
+     *
+     * @return `results[0]`, into which everything has been merged
+     */
+    @SneakyThrows
+    private static <T, D> D treeMerge(List<D> results,
+                                      MapReduceDriver<T, D> driver,
+                                      ExecutorService executorService,
+                                      long maxMillis) {
+        int n = results.size();
+        for (int stride = 1; stride < n; stride *= 2) {
+            List<Future<?>> futures = new ArrayList<>();
+            int lastPair = ((n - 1 - stride) / (2 * stride)) * 2 * stride;
+            for (int idx = 0; idx + stride < n; idx += 2 * stride) {
+                D a = results.get(idx);
+                D b = results.get(idx + stride);
+                if (idx == lastPair) {
+                    // the caller would just wait anyway, so do one merge of the round here
+                    driver.merge(a, b);
+                } else {
+                    futures.add(executorService.submit(() ->
+                        ExecutionPolicy.withThreadDefault(ExecutionPolicy.sequential(), () -> driver.merge(a, b))));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get(maxMillis, TimeUnit.MILLISECONDS);
+            }
         }
-        return finalData;
+        return results.get(0);
     }
 }
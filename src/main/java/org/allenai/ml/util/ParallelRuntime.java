@@ -0,0 +1,206 @@
+package org.allenai.ml.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Long-lived executor for `Parallel.mapReduce`, meant to be created once and shared by every parallel stage of a
+ * job (feature indexing, objective evaluation, evaluation) rather than each stage starting and tearing down its own
+ * thread pool. Use `mrOpts()` to get options which run on it and `close()` it (e.g. with try-with-resources) when
+ * done, which waits for its threads to exit.
+ *
+ * Backends:
+ * - `fixed`: a fixed pool of platform threads named `<id>-0`, `<id>-1`, ...
+ * - `commonForkJoin`: the JVM's common `ForkJoinPool`, nothing to start or shut down
+ * - `virtualThreads`: a virtual thread per task (JDK 21+), named `<id>-0`, `<id>-1`, ...
+ *
+ * __Internal notes__: The library targets Java 8, so virtual threads are created reflectively.
+ */
+@Slf4j
+public final class ParallelRuntime implements AutoCloseable {
+
+    public enum Backend {
+        FIXED_POOL,
+        COMMON_FORK_JOIN,
+        VIRTUAL_THREADS
+    }
+
+    public final String id;
+    public final Backend backend;
+    public final int numWorkers;
+    private final ExecutorService executorService;
+    // platform threads this runtime started, joined on `close`
+    private final List<Thread> threads;
+    private volatile boolean closed = false;
+
+    private ParallelRuntime(String id, Backend backend, int numWorkers, ExecutorService executorService) {
+        this(id, backend, numWorkers, executorService, Collections.emptyList());
+    }
+
+    private ParallelRuntime(String id, Backend backend, int numWorkers, ExecutorService executorService,
+                            List<Thread> threads) {
+        if (numWorkers <= 0) {
+            throw new IllegalArgumentException("Need a positive number of workers, got " + numWorkers);
+        }
+        this.id = id;
+        this.backend = backend;
+        this.numWorkers = numWorkers;
+        this.executorService = executorService;
+        this.threads = threads;
+    }
+
+    /**
+     * Names threads `<id>-<n>` so thread dumps show which pool and which worker a thread is
+     */
+    static ThreadFactory namedThreadFactory(String id) {
+        return namedThreadFactory(id, null);
+    }
+
+    /**
+     * @param created if not null, gets each thread the factory creates
+     */
+    private static ThreadFactory namedThreadFactory(String id, List<Thread> created) {
+        AtomicInteger threadNum = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, id + "-" + threadNum.getAndIncrement());
+            if (created != null) {
+                created.add(thread);
+            }
+            return thread;
+        };
+    }
+
+    public static ParallelRuntime fixed(String id, int numThreads) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("Need a positive number of threads, got " + numThreads);
+        }
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        return new ParallelRuntime(id, Backend.FIXED_POOL, numThreads,
+            Executors.newFixedThreadPool(numThreads, namedThreadFactory(id, threads)), threads);
+    }
+
+    /**
+     * Run on `ForkJoinPool.commonPool()`, splitting work into `numWorkers` tasks. Closing doesn't affect the pool.
+     */
+    public static ParallelRuntime commonForkJoin(int numWorkers) {
+        return new ParallelRuntime("fork-join-common", Backend.COMMON_FORK_JOIN, numWorkers,
+            ForkJoinPool.commonPool());
+    }
+
+    public static ParallelRuntime commonForkJoin() {
+        return commonForkJoin(ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Run each of `numWorkers` tasks on its own virtual thread.
+     *
+     * @throws UnsupportedOperationException if the JVM doesn't have (non-preview) virtual threads
+     */
+    public static ParallelRuntime virtualThreads(String id, int numWorkers) {
+        if (numWorkers <= 0) {
+            throw new IllegalArgumentException("Need a positive number of workers, got " + numWorkers);
+        }
+        ExecutorService executorService;
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, id + "-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            executorService = (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later", e);
+        }
+        return new ParallelRuntime(id, Backend.VIRTUAL_THREADS, numWorkers, executorService);
+    }
+
+    public static boolean virtualThreadsSupported() {
+        try {
+            virtualThreads("virtual-thread-check", 1).close();
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return fresh options which run `numWorkers` workers on this runtime. Other fields (e.g. `chunkSize`) can be
+     * set on the result, and `Parallel.shutdownExecutor` must not be called on its executor.
+     */
+    public Parallel.MROpts mrOpts() {
+        if (closed) {
+            throw new IllegalStateException("ParallelRuntime " + id + " is closed");
+        }
+        Parallel.MROpts mrOpts = new Parallel.MROpts();
+        mrOpts.numWorkers = numWorkers;
+        mrOpts.executorService = executorService;
+        return mrOpts;
+    }
+
+    /**
+     * Apply `fn` to `shared` if it isn't null, otherwise to a `fixed(id, numThreads)` runtime which is closed
+     * afterwards. For code which takes an optional runtime from its caller.
+     */
+    public static <R> R withRuntime(ParallelRuntime shared, String id, int numThreads,
+                                    Function<ParallelRuntime, R> fn) {
+        if (shared != null) {
+            return fn.apply(shared);
+        }
+        try (ParallelRuntime runtime = fixed(id, numThreads)) {
+            return fn.apply(runtime);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stop accepting work and wait for the runtime's threads to finish. Idempotent.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (backend != Backend.COMMON_FORK_JOIN && !Parallel.shutdownExecutor(executorService, Long.MAX_VALUE)) {
+            log.warn("Threads of ParallelRuntime {} didn't terminate", id);
+        }
+        // the pool reports termination just before its last threads exit
+        synchronized (threads) {
+            for (Thread thread : threads) {
+                joinUninterruptibly(thread);
+            }
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ParallelRuntime(id=%s, backend=%s, numWorkers=%d)", id, backend, numWorkers);
+    }
+}
@@ -0,0 +1,181 @@
+package org.allenai.ml.util;
+
+import com.gs.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Occurrence counts for a single worker, split into shards by element hash. Each worker of a parallel pass counts
+ * into its own `ShardedCounter`, and `atLeast` then merges the workers' counts one shard at a time in parallel,
+ * since a given element lands in the same shard for every worker.
+ *
+ * __Internal notes__: Counts are primitive `ObjectIntHashMap`s, so counting doesn't box. Not thread-safe; use one
+ * per worker.
+ */
+public class ShardedCounter<T> {
+    // shards per worker thread, so the shard merges balance across threads
+    private final static int SHARDS_PER_THREAD = 4;
+
+    private final List<ObjectIntHashMap<T>> shards;
+
+    public ShardedCounter(int numShards) {
+        if (numShards <= 0) {
+            throw new IllegalArgumentException("Need a positive number of shards, got " + numShards);
+        }
+        this.shards = new ArrayList<>(numShards);
+        for (int idx = 0; idx < numShards; idx++) {
+            shards.add(new ObjectIntHashMap<>());
+        }
+    }
+
+    private int shardOf(T elem) {
+        // Fibonacci hash, then map the high bits onto [0, numShards) so the shard doesn't correlate with the low
+        // bits the maps themselves index by
+        long mixed = (elem.hashCode() * 0x9e3779b9) & 0xffffffffL;
+        return (int) ((mixed * shards.size()) >>> 32);
+    }
+
+    public void increment(T elem) {
+        shards.get(shardOf(elem)).addToValue(elem, 1);
+    }
+
+    public int numShards() {
+        return shards.size();
+    }
+
+    /**
+     * @return default number of shards for counting with `numThreads` workers
+     */
+    public static int defaultNumShards(int numThreads) {
+        return SHARDS_PER_THREAD * numThreads;
+    }
+
+    /**
+     * `frequent` with `defaultNumShards` for the workers of `mrOpts`
+     */
+    public static <E, T extends Comparable<T>> List<T> frequent(List<E> data,
+                                                               BiConsumer<E, Consumer<T>> occurrences,
+                                                               int minCount,
+                                                               CountMinSketch sketch,
+                                                               Parallel.MROpts mrOpts) {
+        return frequent(data, occurrences, minCount, defaultNumShards(mrOpts.numWorkers), sketch, mrOpts);
+    }
+
+    /**
+     * Exact count cutoff over a data set: the elements that `occurrences` emits at least `minCount` times across
+     * all of `data`, counted in parallel according to `mrOpts`.
+     *
+     * @param occurrences emits each occurrence of an element in a datum (so an element can be emitted repeatedly)
+     * @param sketch if not null, a first pass adds every occurrence to this sketch and the counting pass then only
+     *               keeps exact counts for elements whose estimate reaches `minCount`, which bounds memory when most
+     *               elements are rare. Should start out empty.
+     * @return the frequent elements in sorted order
+     */
+    public static <E, T extends Comparable<T>> List<T> frequent(List<E> data,
+                                                               BiConsumer<E, Consumer<T>> occurrences,
+                                                               int minCount,
+                                                               int numShards,
+                                                               CountMinSketch sketch,
+                                                               Parallel.MROpts mrOpts) {
+        if (sketch != null) {
+            Parallel.mapReduce(data, new Parallel.MapReduceDriver<E, Void>() {
+                @Override
+                public Void newData() {
+                    return null;
+                }
+
+                @Override
+                public void update(Void data, E elem) {
+                    occurrences.accept(elem, sketch::add);
+                }
+
+                @Override
+                public void merge(Void a, Void b) {
+                    // sketch is shared
+                }
+            }, mrOpts);
+        }
+        List<ShardedCounter<T>> counters = Parallel.mapReduce(data,
+            new Parallel.MapReduceDriver<E, List<ShardedCounter<T>>>() {
+                @Override
+                public List<ShardedCounter<T>> newData() {
+                    List<ShardedCounter<T>> counter = new ArrayList<>();
+                    counter.add(new ShardedCounter<>(numShards));
+                    return counter;
+                }
+
+                @Override
+                public void update(List<ShardedCounter<T>> counter, E elem) {
+                    ShardedCounter<T> c = counter.get(0);
+                    occurrences.accept(elem, t -> {
+                        if (sketch == null || sketch.estimate(t) >= minCount) {
+                            c.increment(t);
+                        }
+                    });
+                }
+
+                @Override
+                public void merge(List<ShardedCounter<T>> a, List<ShardedCounter<T>> b) {
+                    // just gather the workers' counters, `atLeast` merges them shard by shard
+                    a.addAll(b);
+                }
+            }, mrOpts);
+        return atLeast(counters, minCount, mrOpts);
+    }
+
+    /**
+     * Sum the counts of `counters` (which must all have the same number of shards) and keep the elements seen at
+     * least `minCount` times. Shards are merged in parallel according to `mrOpts`. Consumes `counters`.
+     *
+     * @return the frequent elements in sorted order, so the result doesn't depend on how the data was split up
+     */
+    public static <T extends Comparable<T>> List<T> atLeast(List<ShardedCounter<T>> counters,
+                                                           int minCount,
+                                                           Parallel.MROpts mrOpts) {
+        if (counters.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int numShards = counters.get(0).numShards();
+        if (counters.stream().anyMatch(c -> c.numShards() != numShards)) {
+            throw new IllegalArgumentException("Counters have different numbers of shards");
+        }
+        List<Integer> shardIdxs = IntStream.range(0, numShards).boxed().collect(Collectors.toList());
+        List<T> frequent = Parallel.mapReduce(shardIdxs, new Parallel.MapReduceDriver<Integer, List<T>>() {
+            @Override
+            public List<T> newData() {
+                return new ArrayList<>();
+            }
+
+            @Override
+            public void update(List<T> data, Integer shardIdx) {
+                // sum into the first worker's shard rather than a fresh map
+                val merged = counters.get(0).shards.get(shardIdx);
+                for (int idx = 1; idx < counters.size(); idx++) {
+                    val shard = counters.get(idx).shards.get(shardIdx);
+                    shard.forEachKeyValue(merged::addToValue);
+                    shard.clear();
+                }
+                merged.forEachKeyValue((elem, count) -> {
+                    if (count >= minCount) {
+                        data.add(elem);
+                    }
+                });
+                merged.clear();
+            }
+
+            @Override
+            public void merge(List<T> a, List<T> b) {
+                a.addAll(b);
+            }
+        }, mrOpts);
+        Collections.sort(frequent);
+        return frequent;
+    }
+}
@@ -0,0 +1,199 @@
+package org.allenai.ml.util;
+
+import lombok.val;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Read-only string table which answers `get(idx)` and `indexOf(str)` directly against a `ByteBuffer`, so it can
+ * be memory-mapped from a file rather than materialized as `String` objects and a hash map on the heap. The
+ * layout (all big-endian) is:
+ *
+ * - `int` number of strings, `int` number of hash slots (a power of two), `int` number of string bytes
+ * - `int[numStrings + 1]` offsets of each string in the string bytes
+ * - `int[2 * numSlots]` open-addressing (linear probing) hash slots of `(String.hashCode(), idx + 1)`, `0` if empty
+ * - UTF-8 bytes of every string, in index order
+ *
+ * __Internal notes__: Keeping the full `hashCode` in each slot means a probe only compares bytes when the hashes
+ * match, and `String` caches its `hashCode` so lookups with an existing feature string don't hash at all. Slots
+ * are at most half full.
+ */
+final class StringTable {
+    private final static int HEADER_BYTES = 3 * Integer.BYTES;
+
+    private final ByteBuffer buf;
+    private final int numStrings;
+    private final int slotMask;
+    private final int offsetsStart;
+    private final int slotsStart;
+    private final int bytesStart;
+
+    private StringTable(ByteBuffer buf) {
+        this.buf = buf;
+        this.numStrings = buf.getInt(0);
+        int numSlots = buf.getInt(Integer.BYTES);
+        this.slotMask = numSlots - 1;
+        this.offsetsStart = HEADER_BYTES;
+        this.slotsStart = offsetsStart + (numStrings + 1) * Integer.BYTES;
+        this.bytesStart = slotsStart + 2 * numSlots * Integer.BYTES;
+    }
+
+    private static long numBytes(int numStrings, int numSlots, int numStringBytes) {
+        return HEADER_BYTES + (numStrings + 1L) * Integer.BYTES + 2L * numSlots * Integer.BYTES + numStringBytes;
+    }
+
+    private static int slotFor(int hash) {
+        // spread high bits since the mask only keeps the low ones
+        return hash ^ (hash >>> 16);
+    }
+
+    static void write(DataOutputStream dos, List<String> strs) throws IOException {
+        int numStrings = strs.size();
+        int numSlots = Integer.highestOneBit(Math.max(1, 2 * numStrings - 1)) << 1;
+        byte[][] encoded = new byte[numStrings][];
+        long numStringBytes = 0;
+        for (int idx = 0; idx < numStrings; idx++) {
+            String str = strs.get(idx);
+            encoded[idx] = str.getBytes(StandardCharsets.UTF_8);
+            if (!new String(encoded[idx], StandardCharsets.UTF_8).equals(str)) {
+                throw new IllegalArgumentException("String isn't valid UTF-16 and can't be stored: " + str);
+            }
+            numStringBytes += encoded[idx].length;
+        }
+        long totalBytes = numBytes(numStrings, numSlots, (int) Math.min(numStringBytes, Integer.MAX_VALUE));
+        if (numStringBytes > Integer.MAX_VALUE || totalBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("String table too large: " + numStringBytes + " bytes of strings");
+        }
+        val out = ByteBuffer.allocate((int) totalBytes);
+        out.putInt(numStrings).putInt(numSlots).putInt((int) numStringBytes);
+        int offset = 0;
+        for (int idx = 0; idx < numStrings; idx++) {
+            out.putInt(offset);
+            offset += encoded[idx].length;
+        }
+        out.putInt(offset);
+        int slotsStart = out.position();
+        int mask = numSlots - 1;
+        for (int idx = 0; idx < numStrings; idx++) {
+            int hash = strs.get(idx).hashCode();
+            int slot = slotFor(hash) & mask;
+            while (out.getInt(slotsStart + 2 * slot * Integer.BYTES + Integer.BYTES) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            out.putInt(slotsStart + 2 * slot * Integer.BYTES, hash);
+            out.putInt(slotsStart + 2 * slot * Integer.BYTES + Integer.BYTES, idx + 1);
+        }
+        out.position(slotsStart + 2 * numSlots * Integer.BYTES);
+        for (byte[] bs : encoded) {
+            out.put(bs);
+        }
+        dos.write(out.array());
+    }
+
+    /**
+     * Read a table written by `write` onto the heap, as one byte array
+     */
+    static StringTable read(DataInputStream dis) throws IOException {
+        int numStrings = dis.readInt();
+        int numSlots = dis.readInt();
+        int numStringBytes = dis.readInt();
+        byte[] bs = new byte[(int) numBytes(numStrings, numSlots, numStringBytes)];
+        ByteBuffer.wrap(bs).putInt(numStrings).putInt(numSlots).putInt(numStringBytes);
+        dis.readFully(bs, HEADER_BYTES, bs.length - HEADER_BYTES);
+        return new StringTable(ByteBuffer.wrap(bs));
+    }
+
+    /**
+     * Map (read-only) a table written by `write` at the channel's current position and move the position past it
+     */
+    static StringTable map(FileChannel channel) throws IOException {
+        long position = channel.position();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+                throw new IOException("Channel ended inside a string table header");
+            }
+        }
+        long size = numBytes(header.getInt(0), header.getInt(Integer.BYTES), header.getInt(2 * Integer.BYTES));
+        val mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        channel.position(position + size);
+        return new StringTable(mapped);
+    }
+
+    int size() {
+        return numStrings;
+    }
+
+    private int offset(int idx) {
+        return buf.getInt(offsetsStart + idx * Integer.BYTES);
+    }
+
+    String get(int idx) {
+        if (idx < 0 || idx >= numStrings) {
+            throw new IndexOutOfBoundsException("Index " + idx + " for size " + numStrings);
+        }
+        int start = offset(idx);
+        byte[] bs = new byte[offset(idx + 1) - start];
+        for (int i = 0; i < bs.length; i++) {
+            bs[i] = buf.get(bytesStart + start + i);
+        }
+        return new String(bs, StandardCharsets.UTF_8);
+    }
+
+    int indexOf(String str) {
+        int hash = str.hashCode();
+        for (int slot = slotFor(hash) & slotMask; ; slot = (slot + 1) & slotMask) {
+            int slotPosition = slotsStart + 2 * slot * Integer.BYTES;
+            int idxPlusOne = buf.getInt(slotPosition + Integer.BYTES);
+            if (idxPlusOne == 0) {
+                return -1;
+            }
+            if (buf.getInt(slotPosition) == hash && matches(idxPlusOne - 1, str)) {
+                return idxPlusOne - 1;
+            }
+        }
+    }
+
+    /**
+     * Compare the UTF-8 bytes of string `idx` with `str` code point by code point, without decoding to a `String`
+     */
+    private boolean matches(int idx, String str) {
+        int pos = bytesStart + offset(idx);
+        int end = bytesStart + offset(idx + 1);
+        int charIdx = 0;
+        int numChars = str.length();
+        while (pos < end) {
+            int b = buf.get(pos) & 0xff;
+            int codePoint;
+            if (b < 0x80) {
+                codePoint = b;
+                pos += 1;
+            } else if (b < 0xe0) {
+                codePoint = ((b & 0x1f) << 6) | (buf.get(pos + 1) & 0x3f);
+                pos += 2;
+            } else if (b < 0xf0) {
+                codePoint = ((b & 0x0f) << 12) | ((buf.get(pos + 1) & 0x3f) << 6) | (buf.get(pos + 2) & 0x3f);
+                pos += 3;
+            } else {
+                codePoint = ((b & 0x07) << 18) | ((buf.get(pos + 1) & 0x3f) << 12) |
+                    ((buf.get(pos + 2) & 0x3f) << 6) | (buf.get(pos + 3) & 0x3f);
+                pos += 4;
+            }
+            if (charIdx >= numChars) {
+                return false;
+            }
+            int strCodePoint = str.codePointAt(charIdx);
+            if (strCodePoint != codePoint) {
+                return false;
+            }
+            charIdx += Character.charCount(strCodePoint);
+        }
+        return charIdx == numChars;
+    }
+}
@@ -4,7 +4,9 @@ import com.gs.collections.api.tuple.Pair;
 import com.gs.collections.impl.map.mutable.primitive.ObjectDoubleHashMap;
 import com.gs.collections.impl.tuple.Tuples;
 import lombok.SneakyThrows;
+import lombok.val;
 import org.allenai.ml.eval.Accuracy;
+import org.allenai.ml.optimize.NewtonMethod;
 import org.allenai.ml.util.IOUtils;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -54,11 +56,68 @@ public class ClassificationEndToEndTest {
         maxEntModel.save(dos);
         DataInputStream dis = new DataInputStream(new FileInputStream(modelFile));
         maxEntModel = MaxEntModel.load(dis, featureExtractor);
+        DataInputStream singlePrecisionDis = new DataInputStream(new FileInputStream(modelFile));
+        val singlePrecisionModel = MaxEntModel.load(singlePrecisionDis, featureExtractor, true);
         Accuracy acc = new Accuracy();
+        Accuracy singlePrecisionAcc = new Accuracy();
         for (Pair<Set<String>, String> pair : testData) {
             String guess = maxEntModel.bestGuess(pair.getOne());
             acc.update(guess.equals(pair.getTwo()));
+            String singlePrecisionGuess = singlePrecisionModel.bestGuess(pair.getOne());
+            singlePrecisionAcc.update(singlePrecisionGuess.equals(pair.getTwo()));
+            val probs = maxEntModel.probabilities(pair.getOne());
+            val singlePrecisionProbs = singlePrecisionModel.probabilities(pair.getOne());
+            probs.forEachKeyValue((label, prob) ->
+                Assert.assertEquals(singlePrecisionProbs.get(label), prob, 1.0e-4));
         }
         assertTrue(acc.accuracy() > 0.8);
+        Assert.assertEquals(singlePrecisionAcc.accuracy(), acc.accuracy(), 0.01);
+    }
+
+    @SneakyThrows
+    public void testHashedFeaturesSaveLoad() {
+        // label is whether "good" appears in the bag
+        List<Pair<Set<String>, String>> trainData = new ArrayList<>();
+        for (int idx = 0; idx < 200; idx++) {
+            Set<String> bag = new HashSet<>(Arrays.asList("w" + (idx % 13), "v" + (idx % 7)));
+            boolean good = idx % 3 == 0;
+            bag.add(good ? "good" : "bad");
+            trainData.add(Tuples.pair(bag, good ? "pos" : "neg"));
+        }
+        FeatureExtractor<Set<String>, String> featureExtractor = bag -> {
+            ObjectDoubleHashMap<String> fv = new ObjectDoubleHashMap<>(bag.size());
+            bag.forEach(x -> fv.put(x, 1.0));
+            return fv;
+        };
+        MaxEntModel.TrainOpts trainOpts = new MaxEntModel.TrainOpts();
+        trainOpts.sigmaSq = 1.0;
+        trainOpts.numHashBuckets = 256;
+        trainOpts.signedHashing = true;
+        trainOpts.optimizerOpts = new NewtonMethod.Opts();
+        trainOpts.optimizerOpts.tolerance = 1.0e-6;
+        val model = MaxEntModel.train(trainData, featureExtractor, trainOpts);
+        File modelFile = File.createTempFile("hashed-classification", "model");
+        modelFile.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(modelFile))) {
+            model.save(dos);
+        }
+        MaxEntModel<String, Set<String>, String> loaded;
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(modelFile))) {
+            loaded = MaxEntModel.load(dis, featureExtractor);
+        }
+        MaxEntModel<String, Set<String>, String> mapped;
+        try (val raf = new RandomAccessFile(modelFile, "r")) {
+            mapped = MaxEntModel.load(raf.getChannel(), featureExtractor, true);
+        }
+        for (Pair<Set<String>, String> pair : trainData) {
+            Assert.assertEquals(model.bestGuess(pair.getOne()), pair.getTwo());
+            val probs = model.probabilities(pair.getOne());
+            val loadedProbs = loaded.probabilities(pair.getOne());
+            val mappedProbs = mapped.probabilities(pair.getOne());
+            probs.forEachKeyValue((label, prob) -> {
+                Assert.assertEquals(loadedProbs.get(label), prob);
+                Assert.assertEquals(mappedProbs.get(label), prob);
+            });
+        }
     }
 }
@@ -0,0 +1,50 @@
+package org.allenai.ml.linalg;
+
+import lombok.val;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.*;
+
+@Test
+public class ConcurrentDenseVectorTest {
+
+    public void testConcurrentIncsAreNotLost() throws Exception {
+        int numThreads = 4;
+        int numIncs = 10000;
+        val v = ConcurrentDenseVector.of(3);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            val futures = IntStream.range(0, numThreads)
+                .mapToObj(__ -> executor.submit(() -> {
+                    for (int idx = 0; idx < numIncs; idx++) {
+                        v.inc(idx % 3, 0.5);
+                    }
+                }))
+                .collect(Collectors.toList());
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double total = 0.5 * numThreads * numIncs;
+        assertEquals(v.at(0) + v.at(1) + v.at(2), total);
+        assertEquals(v.at(2), 0.5 * numThreads * (numIncs / 3));
+    }
+
+    public void testMatchesDenseVector() {
+        val v = ConcurrentDenseVector.of(3);
+        v.set(0, 1.0);
+        v.inc(1, -2.0);
+        v.addInPlace(2.0, DenseVector.of(1.0, 1.0, 1.0));
+        assertEquals(v.toDoubles(), new double[]{3.0, 0.0, 2.0});
+        assertTrue(v.closeTo(DenseVector.of(3.0, 0.0, 2.0)));
+        VectorTest.testCopy(v);
+    }
+}
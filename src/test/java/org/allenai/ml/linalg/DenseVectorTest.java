@@ -7,6 +7,7 @@ import java.util.List;
 
 import static java.util.stream.Collectors.toList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 @Test
 public class DenseVectorTest {
@@ -55,4 +56,35 @@ public class DenseVectorTest {
         val vec = DenseVector.of(new double[]{1.0,2.0,3.0});
         vec.at(5);
     }
-}
\ No newline at end of file
+
+    public void testDenseKernelsMatchSparse() {
+        val dense = DenseVector.of(1.0, -2.0, 3.0, 0.0);
+        val other = DenseVector.of(0.5, 0.5, 0.0, 2.0);
+        val sparseOther = SparseVector.make(4);
+        sparseOther.set(0, 0.5);
+        sparseOther.set(1, 0.5);
+        sparseOther.set(3, 2.0);
+        assertEquals(dense.dotProduct(other), -0.5);
+        assertEquals(dense.dotProduct(sparseOther), -0.5);
+        assertEquals(dense.l2NormSquared(), 14.0);
+        assertEquals(dense.l2Distance(other), dense.l2Distance(sparseOther), 1.0e-10);
+        assertTrue(dense.add(2.0, other).closeTo(dense.add(2.0, sparseOther)));
+        assertEquals(dense.add(2.0, other).toDoubles(), new double[]{2.0, -1.0, 3.0, 4.0});
+
+        val inPlace = dense.copy();
+        inPlace.addInPlace(-1.0, sparseOther);
+        assertEquals(inPlace.toDoubles(), new double[]{0.5, -2.5, 3.0, -2.0});
+        inPlace.scaleInPlace(2.0);
+        assertEquals(inPlace.toDoubles(), new double[]{1.0, -5.0, 6.0, -4.0});
+        inPlace.affineUpdateInPlace(0.5, 1.0);
+        assertEquals(inPlace.toDoubles(), new double[]{1.5, -1.5, 4.0, -1.0});
+        inPlace.mapInPlace((idx, x) -> idx);
+        assertEquals(inPlace.toDoubles(), new double[]{0.0, 1.0, 2.0, 3.0});
+        assertEquals(inPlace.inc(3, 1.0), 4.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testAddInPlaceDimensionMismatch() {
+        DenseVector.of(1.0, 2.0).addInPlace(1.0, DenseVector.of(1.0));
+    }
+}
@@ -0,0 +1,75 @@
+package org.allenai.ml.linalg;
+
+import lombok.val;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static org.testng.Assert.*;
+
+@Test
+public class ExecutionPolicyTest {
+
+    private static DenseVector randomVector(int n, long seed) {
+        Random rand = new Random(seed);
+        double[] xs = new double[n];
+        for (int idx = 0; idx < n; idx++) {
+            xs[idx] = rand.nextDouble() - 0.5;
+        }
+        return DenseVector.of(xs);
+    }
+
+    public void testAutoThreshold() {
+        val policy = ExecutionPolicy.auto(100);
+        assertFalse(policy.isParallel(99));
+        assertTrue(policy.isParallel(100));
+        assertFalse(ExecutionPolicy.sequential().isParallel(Long.MAX_VALUE));
+    }
+
+    public void testParallelRunsOnSuppliedPool() {
+        val pool = new ForkJoinPool(2);
+        try {
+            Set<ForkJoinPool> seenPools = ConcurrentHashMap.newKeySet();
+            ExecutionPolicy.parallel(pool).forRange(1 << 16, (start, stop) -> seenPools.add(ForkJoinTask.getPool()));
+            assertEquals(seenPools.size(), 1);
+            assertTrue(seenPools.contains(pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testParallelMatchesSequential() {
+        val pool = new ForkJoinPool(3);
+        try {
+            int n = 100000;
+            val seqA = randomVector(n, 0L).withExecutionPolicy(ExecutionPolicy.sequential());
+            val seqB = randomVector(n, 1L).withExecutionPolicy(ExecutionPolicy.sequential());
+            val parA = randomVector(n, 0L).withExecutionPolicy(ExecutionPolicy.parallel(pool));
+            val parB = randomVector(n, 1L).withExecutionPolicy(ExecutionPolicy.parallel(pool));
+            assertEquals(parA.dotProduct(parB), seqA.dotProduct(seqB), 1.0e-8);
+            assertEquals(parA.l2NormSquared(), seqA.l2NormSquared(), 1.0e-8);
+            assertEquals(parA.l2Distance(parB), seqA.l2Distance(seqB), 1.0e-8);
+            parA.addInPlace(0.5, parB);
+            seqA.addInPlace(0.5, seqB);
+            parA.affineUpdateInPlace(2.0, 1.0);
+            seqA.affineUpdateInPlace(2.0, 1.0);
+            assertEquals(parA.toDoubles(), seqA.toDoubles());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testThreadDefault() {
+        val policy = ExecutionPolicy.auto(10);
+        ExecutionPolicy before = ExecutionPolicy.current();
+        ExecutionPolicy inside = ExecutionPolicy.withThreadDefault(policy, ExecutionPolicy::current);
+        assertSame(inside, policy);
+        assertSame(ExecutionPolicy.current(), before);
+        assertSame(DenseVector.of(3).executionPolicy(), before);
+        assertFalse(DenseVector.of(3).entries(ExecutionPolicy.sequential()).isParallel());
+    }
+}
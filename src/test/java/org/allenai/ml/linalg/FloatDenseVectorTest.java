@@ -0,0 +1,40 @@
+package org.allenai.ml.linalg;
+
+import lombok.val;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+@Test
+public class FloatDenseVectorTest {
+
+    public void testMatchesDoublePath() {
+        double[] xs = new double[]{0.1, -2.5, 1.0e-3, 3.75, 0.0};
+        val floats = FloatDenseVector.fromDoubles(xs);
+        val doubles = DenseVector.of(xs);
+        val sparse = SparseVector.make(xs.length);
+        sparse.set(1, 2.0);
+        sparse.set(3, -1.0);
+        assertEquals(floats.dimension(), xs.length);
+        assertTrue(floats.closeTo(doubles, 1.0e-6));
+        assertEquals(floats.dotProduct(sparse), doubles.dotProduct(sparse), 1.0e-6);
+        assertEquals(floats.dotProduct(floats), doubles.dotProduct(doubles), 1.0e-6);
+        assertEquals(floats.l2NormSquared(), doubles.l2NormSquared(), 1.0e-6);
+        assertEquals(sparse.dotProduct(floats), sparse.dotProduct(doubles), 1.0e-6);
+        assertTrue(FloatDenseVector.copyOf(sparse).closeTo(sparse));
+    }
+
+    public void testUpdates() {
+        val v = FloatDenseVector.of(1.0f, 2.0f, 3.0f);
+        v.set(0, 4.0);
+        v.inc(1, 1.0);
+        v.scaleInPlace(0.5);
+        assertEquals(v.toDoubles(), new double[]{2.0, 1.5, 1.5});
+        VectorTest.testCopy(v);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testLookupException() {
+        FloatDenseVector.of(1.0f, 2.0f).at(2);
+    }
+}
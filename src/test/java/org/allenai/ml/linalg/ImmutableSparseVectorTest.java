@@ -0,0 +1,93 @@
+package org.allenai.ml.linalg;
+
+import com.gs.collections.impl.map.mutable.primitive.ObjectDoubleHashMap;
+import lombok.val;
+import org.allenai.ml.util.FeatureHasher;
+import org.allenai.ml.util.Indexer;
+import org.testng.annotations.Test;
+
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+@Test
+public class ImmutableSparseVectorTest {
+
+    public void testSortsUnorderedEntries() {
+        val v = ImmutableSparseVector.of(new int[]{5, 1, 3}, new double[]{5.0, 1.0, 3.0}, 3, 10);
+        assertEquals(v.numStoredEntries(), 3);
+        assertEquals(v.at(1), 1.0);
+        assertEquals(v.at(3), 3.0);
+        assertEquals(v.at(5), 5.0);
+        assertEquals(v.at(4), 0.0);
+        val it = v.iterator();
+        long lastIdx = -1;
+        while (!it.isExhausted()) {
+            assertTrue(it.index() > lastIdx);
+            assertEquals(it.value(), (double) it.index());
+            lastIdx = it.index();
+            it.advance();
+        }
+    }
+
+    public void testDotProduct() {
+        val a = ImmutableSparseVector.of(new int[]{0, 2, 4}, new double[]{1.0, 2.0, 3.0}, 3, 5);
+        val b = ImmutableSparseVector.of(new int[]{4, 1, 2}, new double[]{1.0, 5.0, 2.0}, 3, 5);
+        val dense = DenseVector.of(1.0, 1.0, 1.0, 1.0, 1.0);
+        // merge path
+        assertEquals(a.dotProduct(b), 2.0 * 2.0 + 3.0 * 1.0);
+        // vs. mutable and dense
+        assertEquals(a.dotProduct(b.copy()), 7.0);
+        assertEquals(a.dotProduct(dense), 6.0);
+        assertEquals(dense.dotProduct(a), 6.0);
+        assertEquals(a.l2NormSquared(), a.dotProduct(a));
+    }
+
+    public void testIndexed() {
+        val indexer = Indexer.fromStream(Stream.of("a", "b", "c"));
+        val m = new ObjectDoubleHashMap<String>();
+        m.put("c", 2.0);
+        m.put("a", 1.0);
+        m.put("not-indexed", 3.0);
+        val v = ImmutableSparseVector.indexed(m, indexer);
+        assertEquals(v.dimension(), 3);
+        assertTrue(v.closeTo(SparseVector.indexed(m, indexer)));
+    }
+
+    public void testHashed() {
+        val m = new ObjectDoubleHashMap<String>();
+        m.put("a", 1.0);
+        m.put("b", 2.0);
+        m.put("c", 4.0);
+        // everything collides into one bucket and sums
+        val oneBucket = ImmutableSparseVector.hashed(m, FeatureHasher.of(1, false));
+        assertEquals(oneBucket.dimension(), 1);
+        assertEquals(oneBucket.at(0), 7.0);
+        // collisions that cancel leave no entry
+        m.put("c", -3.0);
+        assertEquals(ImmutableSparseVector.hashed(m, FeatureHasher.of(1, false)).numStoredEntries(), 0);
+        m.put("c", 4.0);
+        val hasher = FeatureHasher.<String>of(1 << 20, true);
+        val v = ImmutableSparseVector.hashed(m, hasher);
+        assertEquals(v.dimension(), 1 << 20);
+        m.forEachKeyValue((k, x) -> {
+            long hash = hasher.hash(k);
+            assertEquals(v.at(hasher.bucket(hash)), hasher.sign(hash) * x);
+        });
+    }
+
+    public void testCopy() {
+        val v = ImmutableSparseVector.of(new int[]{2, 0}, new double[]{2.0, 1.0}, 2, 3);
+        VectorTest.testCopy(v);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testThrowsOnSet() {
+        ImmutableSparseVector.copyOf(DenseVector.of(1.0, 2.0)).set(0, 1.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testThrowsOnDuplicate() {
+        ImmutableSparseVector.of(new int[]{1, 1}, new double[]{1.0, 2.0}, 2, 3);
+    }
+}
@@ -0,0 +1,90 @@
+package org.allenai.ml.linalg;
+
+import lombok.val;
+import org.allenai.ml.util.IOUtils;
+import org.testng.annotations.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import static org.testng.Assert.*;
+
+@Test
+public class OffHeapDenseVectorTest {
+
+    // 8 doubles per chunk so small vectors still span several chunks
+    private final static int TEST_CHUNK_BITS = 3;
+
+    private static OffHeapDenseVector offHeapOf(double... xs) {
+        val v = OffHeapDenseVector.allocate(xs.length, TEST_CHUNK_BITS);
+        for (int idx = 0; idx < xs.length; idx++) {
+            v.set(idx, xs[idx]);
+        }
+        return v;
+    }
+
+    private static double[] range(int n, double scale) {
+        double[] xs = new double[n];
+        for (int idx = 0; idx < n; idx++) {
+            xs[idx] = scale * (idx - n / 2);
+        }
+        return xs;
+    }
+
+    public void testKernelsMatchDenseVector() {
+        int n = 29;
+        val a = offHeapOf(range(n, 1.0));
+        val b = offHeapOf(range(n, 0.5));
+        val denseA = DenseVector.of(range(n, 1.0));
+        val denseB = DenseVector.of(range(n, 0.5));
+        assertEquals(a.dimension(), n);
+        assertEquals(a.dotProduct(b), denseA.dotProduct(denseB), 1.0e-10);
+        assertEquals(a.dotProduct(denseB), denseA.dotProduct(denseB), 1.0e-10);
+        assertEquals(a.l2NormSquared(), denseA.l2NormSquared(), 1.0e-10);
+
+        a.addInPlace(2.0, b);
+        denseA.addInPlace(2.0, denseB);
+        a.affineUpdateInPlace(0.5, 1.0);
+        denseA.affineUpdateInPlace(0.5, 1.0);
+        a.mapInPlace((idx, x) -> x + idx);
+        denseA.mapInPlace((idx, x) -> x + idx);
+        assertEquals(a.toDoubles(), denseA.toDoubles());
+        assertTrue(a.closeTo(denseA));
+        VectorTest.testCopy(a);
+    }
+
+    public void testMapSavedDoubles() throws Exception {
+        double[] xs = range(21, 0.25);
+        val file = File.createTempFile("off-heap", "weights");
+        file.deleteOnExit();
+        try (val dos = new DataOutputStream(new FileOutputStream(file))) {
+            IOUtils.saveDoubles(dos, xs);
+        }
+        try (val raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            // skip the int length header
+            val mapped = OffHeapDenseVector.map(channel, Integer.BYTES, xs.length,
+                FileChannel.MapMode.READ_WRITE, TEST_CHUNK_BITS);
+            assertEquals(mapped.toDoubles(), xs);
+            mapped.set(20, 100.0);
+            mapped.flush();
+            // copies are detached from the file
+            val copy = (OffHeapDenseVector) mapped.copy();
+            copy.set(0, -1.0);
+            assertEquals(mapped.at(0), xs[0]);
+
+            channel.position(Integer.BYTES);
+            copy.writeTo(channel);
+            assertEquals(mapped.at(0), -1.0);
+            assertEquals(mapped.at(20), 100.0);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testLookupException() {
+        offHeapOf(1.0, 2.0).at(2);
+    }
+}
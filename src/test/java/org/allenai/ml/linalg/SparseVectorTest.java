@@ -4,7 +4,7 @@ import com.gs.collections.impl.map.mutable.primitive.LongDoubleHashMap;
 import lombok.val;
 import org.testng.annotations.Test;
 
-import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.*;
 
 @Test
 public class SparseVectorTest {
@@ -31,4 +31,49 @@ public class SparseVectorTest {
         sparse.set(0, 1.0);
         VectorTest.testCopy(sparse);
     }
-}
\ No newline at end of file
+
+    public void testIteratorMatchesAt() {
+        // include 0 and 1 since the backing map stores those keys specially
+        val v = SparseVector.make(100);
+        for (long idx : new long[]{0, 1, 7, 42, 99}) {
+            v.set(idx, idx + 0.5);
+        }
+        val it = v.iterator();
+        int numVisited = 0;
+        while (!it.isExhausted()) {
+            assertEquals(it.value(), v.at(it.index()));
+            numVisited++;
+            it.advance();
+        }
+        assertEquals(numVisited, 5);
+        it.reset();
+        assertFalse(it.isExhausted());
+    }
+
+    public void testCursorReuse() {
+        val cursor = new SparseVector.Cursor();
+        val a = SparseVector.make(10);
+        a.set(3, 1.0);
+        val b = SparseVector.make(10);
+        cursor.over(a);
+        assertEquals(cursor.index(), 3);
+        cursor.advance();
+        assertTrue(cursor.isExhausted());
+        cursor.over(b);
+        assertTrue(cursor.isExhausted());
+        // grows past the first vector's size, then reads a smaller one over the stale tail
+        for (int idx = 0; idx < 10; idx++) {
+            b.set(idx, idx + 1.0);
+        }
+        double sum = 0.0;
+        for (cursor.over(b); !cursor.isExhausted(); cursor.advance()) {
+            assertEquals(cursor.value(), cursor.index() + 1.0);
+            sum += cursor.value();
+        }
+        assertEquals(sum, 55.0);
+        cursor.over(a);
+        assertEquals(cursor.index(), 3);
+        cursor.advance();
+        assertTrue(cursor.isExhausted());
+    }
+}
@@ -0,0 +1,96 @@
+package org.allenai.ml.linalg;
+
+import lombok.val;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+@Test
+public class VectorViewTest {
+
+    public void testDenseViewSharesStorage() {
+        val v = DenseVector.of(0.0, 1.0, 2.0, 3.0, 4.0, 5.0);
+        val view = v.view(2, 3);
+        assertTrue(view instanceof DenseVector);
+        assertEquals(view.toDoubles(), new double[]{2.0, 3.0, 4.0});
+        view.set(0, -2.0);
+        view.scaleInPlace(2.0);
+        assertEquals(v.toDoubles(), new double[]{0.0, 1.0, -4.0, 6.0, 8.0, 5.0});
+        assertEquals(view.l2NormSquared(), 16.0 + 36.0 + 64.0);
+        assertEquals(view.dotProduct(v.view(0, 3)), -4.0 * 0.0 + 6.0 * 1.0 + 8.0 * -4.0);
+        view.addInPlace(1.0, DenseVector.of(1.0, 1.0, 1.0));
+        assertEquals(v.at(4), 9.0);
+        // copies are detached
+        val copy = view.copy();
+        copy.set(0, 100.0);
+        assertEquals(v.at(2), -3.0);
+        VectorTest.testCopy(view);
+    }
+
+    public void testStridedView() {
+        // 3 predicates x 2 classes, interleaved by predicate
+        val v = DenseVector.of(0.0, 10.0, 1.0, 11.0, 2.0, 12.0);
+        val secondClass = v.view(1, 3, 2);
+        assertEquals(secondClass.toDoubles(), new double[]{10.0, 11.0, 12.0});
+        secondClass.inc(2, 1.0);
+        assertEquals(v.at(5), 13.0);
+        // views of views collapse onto the parent
+        val nested = secondClass.view(1, 2);
+        assertEquals(nested.toDoubles(), new double[]{11.0, 13.0});
+        assertEquals(nested.dotProduct(DenseVector.of(1.0, 1.0)), 24.0);
+    }
+
+    public void testSparseView() {
+        val v = SparseVector.make(100);
+        v.set(3, 3.0);
+        v.set(50, 50.0);
+        v.set(52, 52.0);
+        v.set(99, 99.0);
+        val view = v.view(50, 10, 2);
+        assertEquals(view.numStoredEntries(), 2);
+        assertEquals(view.at(1), 52.0);
+        assertEquals(view.l2NormSquared(), 50.0 * 50.0 + 52.0 * 52.0);
+        view.set(3, 1.0);
+        assertEquals(v.at(56), 1.0);
+        assertTrue(view.copy() instanceof SparseVector);
+        VectorTest.testCopy(view);
+    }
+
+    public void testOffHeapView() {
+        val v = OffHeapDenseVector.allocate(20, 3);
+        v.mapInPlace((idx, x) -> idx);
+        val view = v.view(5, 10);
+        assertEquals(view.dimension(), 10);
+        assertEquals(view.at(0), 5.0);
+        view.scaleInPlace(2.0);
+        assertEquals(v.at(14), 28.0);
+        assertEquals(v.at(15), 15.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testViewOutOfRange() {
+        DenseVector.of(1.0, 2.0, 3.0).view(1, 2, 2);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testLookupOutsideView() {
+        SparseVector.make(10).view(0, 5).at(5);
+    }
+
+    // writes just past a dense view would otherwise land in the parent's next entries
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSetOutsideDenseView() {
+        DenseVector.of(0.0, 1.0, 2.0, 3.0).view(0, 2).set(2, -1.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testIncOutsideDenseView() {
+        DenseVector.of(0.0, 1.0, 2.0, 3.0).view(1, 2).inc(-1, -1.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testAddIteratorOutsideDenseView() {
+        DenseVector.of(0.0, 1.0, 2.0, 3.0).view(0, 2).addInPlace(1.0, DenseVector.of(0.0, 0.0, 1.0).iterator());
+    }
+}
@@ -0,0 +1,42 @@
+package org.allenai.ml.linalg;
+
+import lombok.val;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+@Test
+public class VectorWorkspaceTest {
+
+    public void testRecyclesByDimension() {
+        val workspace = new VectorWorkspace();
+        val a = workspace.borrow(3);
+        val b = workspace.copyOf(DenseVector.of(1.0, 2.0, 3.0));
+        assertEquals(b.toDoubles(), new double[]{1.0, 2.0, 3.0});
+        assertEquals(workspace.numAllocated(), 2);
+        workspace.release(a);
+        workspace.release(b);
+        // recycled, no new allocation
+        assertSame(workspace.borrow(3), b);
+        assertSame(workspace.borrow(3), a);
+        assertEquals(workspace.numAllocated(), 2);
+        // different dimension gets its own buffer
+        assertEquals(workspace.borrow(4).dimension(), 4);
+        assertEquals(workspace.numAllocated(), 3);
+    }
+
+    public void testCopyOfSparse() {
+        val workspace = new VectorWorkspace();
+        val dense = workspace.copyOf(DenseVector.of(5.0, 5.0, 5.0));
+        workspace.release(dense);
+        val sparse = SparseVector.make(3);
+        sparse.set(1, 2.0);
+        // stale contents are overwritten
+        assertEquals(workspace.copyOf(sparse).toDoubles(), new double[]{0.0, 2.0, 0.0});
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testReleaseNonDense() {
+        new VectorWorkspace().release(SparseVector.make(3));
+    }
+}
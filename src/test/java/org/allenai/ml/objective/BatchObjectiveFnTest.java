@@ -8,8 +8,10 @@ import org.allenai.ml.optimize.QuasiNewton;
 import lombok.AllArgsConstructor;
 import lombok.val;
 import org.allenai.ml.util.Parallel;
+import org.allenai.ml.util.ParallelRuntime;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -48,4 +50,67 @@ public class BatchObjectiveFnTest {
         assertTrue(minResult.xmin.closeTo(DenseVector.of(1.0, 1.0)));
         Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
     }
-}
\ No newline at end of file
+
+    public void testGradientAccumulationModesAgree() {
+        int dimension = 1000;
+        // each example touches a handful of coordinates, the last one touches all of them
+        List<Integer> examples = new ArrayList<>();
+        for (int idx = 0; idx < 50; idx++) {
+            examples.add(idx);
+        }
+        examples.add(-1);
+        ExampleObjectiveFn<Integer> objective = (example, weights, grad) -> {
+            if (example < 0) {
+                for (int idx = 0; idx < dimension; idx++) {
+                    grad.inc(idx, 1.0);
+                }
+                return 1.0;
+            }
+            for (int offset = 0; offset < 3; offset++) {
+                long idx = (7L * example + offset) % dimension;
+                grad.inc(idx, example + weights.at(idx));
+            }
+            return example;
+        };
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-test-grad-accumulation", 3);
+        Vector weights = DenseVector.of(dimension);
+        weights.set(14, 2.0);
+        val expected = new BatchObjectiveFn<>(examples, objective, dimension, mrOpts)
+            .withGradientAccumulation(BatchObjectiveFn.GradientAccumulation.DENSE)
+            .apply(weights);
+        for (BatchObjectiveFn.GradientAccumulation mode : BatchObjectiveFn.GradientAccumulation.values()) {
+            val objFn = new BatchObjectiveFn<>(examples, objective, dimension, mrOpts)
+                .withGradientAccumulation(mode);
+            // twice so `AUTO` gets to use what it measured
+            for (int iter = 0; iter < 2; iter++) {
+                val res = objFn.apply(weights);
+                assertEquals(res.fx, expected.fx, 1.0e-10);
+                assertTrue(res.grad.closeTo(expected.grad), mode.toString());
+                assertTrue(res.grad instanceof DenseVector);
+            }
+        }
+        // statically partitioned by cost
+        val balanced = new BatchObjectiveFn<>(examples, objective, dimension, mrOpts)
+            .withCosts(example -> example < 0 ? dimension : 3)
+            .apply(weights);
+        assertEquals(balanced.fx, expected.fx, 1.0e-10);
+        assertTrue(balanced.grad.closeTo(expected.grad));
+        Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+    }
+
+    public void testSharedRuntime() {
+        List<Integer> examples = Arrays.asList(1, 2, 3, 4);
+        ExampleObjectiveFn<Integer> objective = (example, weights, grad) -> {
+            grad.inc(example % 2, example);
+            return example;
+        };
+        try (ParallelRuntime runtime = ParallelRuntime.fixed("mr-test-shared-runtime", 2)) {
+            BatchObjectiveFn<Integer> first = new BatchObjectiveFn<>(examples, objective, 2, runtime);
+            assertEquals(first.apply(DenseVector.of(2)).fx, -10.0, 1.0e-10);
+            // doesn't shut down the runtime's pool
+            first.shutdown();
+            val res = new BatchObjectiveFn<>(examples, objective, 2, runtime).apply(DenseVector.of(2));
+            assertTrue(res.grad.closeTo(DenseVector.of(-6.0, -4.0)));
+        }
+    }
+}
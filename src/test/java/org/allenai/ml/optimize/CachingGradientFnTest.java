@@ -40,4 +40,16 @@ public class CachingGradientFnTest {
         cacheGradFn.apply(DenseVector.of(1.0));
         assertEquals("Result should be cached",countXSquared.callCount, 3);
   }
-}
\ No newline at end of file
+
+    @Test
+    public void testInputMutationDoesNotCorruptCache() {
+        CountingFn<Vector, GradientFn.Result> countXSquared = new CountingFn<>(TestUtils.xSquared.fn);
+        val cacheGradFn = new CachingGradientFn(1, GradientFn.from(1, countXSquared));
+        Vector x = DenseVector.of(1.0);
+        cacheGradFn.apply(x);
+        // a caller recycling its buffer shouldn't make the cached entry look like the new input
+        x.set(0, 3.0);
+        assertEquals(cacheGradFn.apply(x).fx, 9.0, 1.0e-10);
+        assertEquals(countXSquared.callCount, 2);
+    }
+}
@@ -1,6 +1,7 @@
 package org.allenai.ml.optimize;
 
 import org.allenai.ml.linalg.DenseVector;
+import org.allenai.ml.linalg.VectorWorkspace;
 import lombok.val;
 import org.testng.annotations.Test;
 
@@ -28,6 +29,39 @@ public class NewtonMethodTest {
         QuasiNewton.lbfgs(1).update(DenseVector.of(10), DenseVector.of(10));
     }
 
+    @Test
+    public void testLBFGSWorkspaceSteadyState() {
+        val workspace = new VectorWorkspace();
+        val lbfgs = QuasiNewton.lbfgs(2);
+        val dir = DenseVector.of(1.0, -1.0);
+        long warmedUpAllocations = 0;
+        for (int iter = 0; iter < 10; iter++) {
+            if (iter == 3) {
+                warmedUpAllocations = workspace.numAllocated();
+            }
+            lbfgs.update(workspace.copyOf(DenseVector.of(1.0, iter + 1.0)),
+                workspace.copyOf(DenseVector.of(2.0, 1.0)), workspace);
+            val result = lbfgs.implictMultiply(dir, workspace);
+            assertTrue(result.closeTo(lbfgs.implictMultiply(dir)));
+            workspace.release(result);
+        }
+        // once the history is full, evicted pairs are recycled
+        assertEquals(workspace.numAllocated(), warmedUpAllocations);
+        // the input direction is untouched
+        assertEquals(dir.toDoubles(), new double[]{1.0, -1.0});
+    }
+
+    @Test
+    public void testLineMinimizerReusesBuffer() {
+        val workspace = new VectorWorkspace();
+        val ls = BacktrackingLineMinimizer.of(0.5, 0.01, 1.0e-10);
+        for (int iter = 0; iter < 5; iter++) {
+            val res = ls.minimize(TestUtils.xSquared.fn, DenseVector.of(1.0), DenseVector.of(-1.0), workspace);
+            assertEquals(res.stepLength, 1.0);
+        }
+        assertEquals(workspace.numAllocated(), 1);
+    }
+
     @Test
     public void testMinimizer(GradientFnMinimizer minimizer) {
         testExample(minimizer, TestUtils.quartic);
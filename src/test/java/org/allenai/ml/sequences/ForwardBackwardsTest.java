@@ -4,6 +4,7 @@ import com.gs.collections.impl.factory.Lists;
 import org.testng.annotations.Test;
 
 import java.util.Arrays;
+import java.util.Random;
 import java.util.stream.Stream;
 
 import static com.gs.collections.impl.tuple.Tuples.pair;
@@ -83,4 +84,119 @@ public class ForwardBackwardsTest {
             assertEquals(nodeMarginals[idx][expectedNodeMarginalSpikes[idx]], 1.0, 1.0e-4);
         }
     }
-}
\ No newline at end of file
+
+    private double[][] randomPotentials(Random rand, int seqLen) {
+        double[][] potentials = new double[seqLen-1][segmentationStateSpace.transitions().size()];
+        for (double[] row : potentials) {
+            for (int t = 0; t < row.length; t++) {
+                row[t] = rand.nextGaussian();
+            }
+        }
+        return potentials;
+    }
+
+    public void testReusedWorkspace() {
+        ForwardBackwards<String> fb = new ForwardBackwards<>(segmentationStateSpace);
+        ForwardBackwards<String>.Workspace workspace = fb.newWorkspace();
+        Random rand = new Random(0L);
+        int numTransitions = segmentationStateSpace.transitions().size();
+        // lengths go up and down so buffers are both grown and reused with stale tails
+        for (int seqLen : new int[]{5, 12, 3, 12, 30, 7}) {
+            double[][] potentials = randomPotentials(rand, seqLen);
+            ForwardBackwards<String>.Result expected = fb.compute(potentials);
+            double[][] rows = workspace.potentialRows(seqLen - 1);
+            assertTrue(rows.length >= seqLen - 1);
+            for (int i = 0; i < seqLen - 1; i++) {
+                System.arraycopy(potentials[i], 0, rows[i], 0, numTransitions);
+            }
+            ForwardBackwards<String>.Result result = fb.compute(rows, seqLen, workspace);
+            assertEquals(result.getLogZ(), expected.getLogZ(), 1.0e-10);
+            assertEquals(result.getViterbi(), expected.getViterbi());
+            double[][] expectedEdgeMarginals = expected.getEdgeMarginals();
+            double[][] expectedNodeMarginals = expected.getNodeMarginals();
+            for (int i = 0; i < seqLen; i++) {
+                for (int s = 0; s < segmentationStateSpace.states().size(); s++) {
+                    assertEquals(result.nodeMarginal(i, s), expectedNodeMarginals[i][s], 1.0e-10);
+                }
+                for (int t = 0; i < seqLen - 1 && t < numTransitions; t++) {
+                    assertEquals(result.edgeMarginal(i, t), expectedEdgeMarginals[i][t], 1.0e-10);
+                }
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testStaleResultThrows() {
+        ForwardBackwards<String> fb = new ForwardBackwards<>(segmentationStateSpace);
+        ForwardBackwards<String>.Workspace workspace = fb.newWorkspace();
+        Random rand = new Random(0L);
+        double[][] first = randomPotentials(rand, 4);
+        ForwardBackwards<String>.Result stale = fb.compute(first, 4, workspace);
+        fb.compute(randomPotentials(rand, 6), 6, workspace);
+        stale.getLogZ();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testOtherInstancesWorkspaceThrows() {
+        ForwardBackwards<String> logSpace = new ForwardBackwards<>(segmentationStateSpace);
+        ForwardBackwards<String> scaled =
+            new ForwardBackwards<>(segmentationStateSpace, ForwardBackwards.Engine.SCALED);
+        // same state space, but the log-space workspace has no buffers for the scaled engine
+        ForwardBackwards<String>.Workspace workspace = logSpace.newWorkspace();
+        scaled.compute(randomPotentials(new Random(0L), 5), 5, workspace);
+    }
+
+    private void assertSameMarginals(ForwardBackwards<String>.Result result,
+                                     ForwardBackwards<String>.Result expected) {
+        assertEquals(result.getLogZ(), expected.getLogZ(), 1.0e-8);
+        double[][] expectedEdgeMarginals = expected.getEdgeMarginals();
+        double[][] expectedNodeMarginals = expected.getNodeMarginals();
+        double[][] edgeMarginals = result.getEdgeMarginals();
+        double[][] nodeMarginals = result.getNodeMarginals();
+        for (int i = 0; i < result.seqLen(); i++) {
+            for (int s = 0; s < segmentationStateSpace.states().size(); s++) {
+                assertEquals(nodeMarginals[i][s], expectedNodeMarginals[i][s], 1.0e-8);
+            }
+            for (int t = 0; i < result.seqLen() - 1 && t < segmentationStateSpace.transitions().size(); t++) {
+                assertEquals(edgeMarginals[i][t], expectedEdgeMarginals[i][t], 1.0e-8);
+            }
+        }
+    }
+
+    public void testScaledMatchesLogSpace() {
+        ForwardBackwards<String> logSpace = new ForwardBackwards<>(segmentationStateSpace);
+        ForwardBackwards<String> scaled =
+            new ForwardBackwards<>(segmentationStateSpace, ForwardBackwards.Engine.SCALED);
+        ForwardBackwards<String>.Workspace workspace = scaled.newWorkspace();
+        Random rand = new Random(1L);
+        // long sequences with large potentials, where unscaled probabilities would overflow
+        for (int seqLen : new int[]{3, 8, 200, 1000}) {
+            double[][] potentials = randomPotentials(rand, seqLen);
+            for (double[] row : potentials) {
+                for (int t = 0; t < row.length; t++) {
+                    row[t] *= 20.0;
+                }
+            }
+            ForwardBackwards<String>.Result result = scaled.compute(potentials, seqLen, workspace);
+            assertTrue(result.isScaled());
+            assertSameMarginals(result, logSpace.compute(potentials));
+            assertEquals(result.getViterbi(), logSpace.compute(potentials).getViterbi());
+        }
+    }
+
+    public void testScaledFallsBackToLogSpace() {
+        ForwardBackwards<String> logSpace = new ForwardBackwards<>(segmentationStateSpace);
+        ForwardBackwards<String> scaled =
+            new ForwardBackwards<>(segmentationStateSpace, ForwardBackwards.Engine.SCALED);
+        double[][] potentials = randomPotentials(new Random(2L), 6);
+        potentials[2][0] = -2.0 * ForwardBackwards.SCALED_MAX_LOG_RANGE;
+        ForwardBackwards<String>.Result result = scaled.compute(potentials);
+        assertFalse(result.isScaled());
+        assertSameMarginals(result, logSpace.compute(potentials));
+        // impossible transitions aren't part of the range
+        potentials[2][0] = Double.NEGATIVE_INFINITY;
+        result = scaled.compute(potentials);
+        assertTrue(result.isScaled());
+        assertSameMarginals(result, logSpace.compute(potentials));
+    }
+}
@@ -75,4 +75,44 @@ public class StateSpaceTest {
         assertEquals(ss.states(), otherSS.states());
         assertEquals(ss.transitions(), otherSS.transitions());
     }
-}
\ No newline at end of file
+
+    public void testAdjacencyArrays() {
+        Set<String> states = Stream.of("a", "b", "c").collect(Collectors.toSet());
+        val ss = StateSpace.buildFullStateSpace(states, "<s>", "</s>");
+        int numStates = ss.states().size();
+        val incoming = ss.incoming();
+        val outgoing = ss.outgoing();
+        assertEquals(incoming.offsets[numStates], ss.transitions().size());
+        assertEquals(outgoing.offsets[numStates], ss.transitions().size());
+        for (int s = 0; s < numStates; s++) {
+            val to = ss.transitionsTo(s);
+            assertEquals(incoming.offsets[s + 1] - incoming.offsets[s], to.size());
+            for (int j = 0; j < to.size(); j++) {
+                int k = incoming.offsets[s] + j;
+                assertEquals(incoming.transitionIndices[k], to.get(j).selfIndex);
+                assertEquals(incoming.otherStates[k], to.get(j).fromState);
+            }
+            val from = ss.transitionsFrom(s);
+            assertEquals(outgoing.offsets[s + 1] - outgoing.offsets[s], from.size());
+            for (int j = 0; j < from.size(); j++) {
+                int k = outgoing.offsets[s] + j;
+                assertEquals(outgoing.transitionIndices[k], from.get(j).selfIndex);
+                assertEquals(outgoing.otherStates[k], from.get(j).toState);
+            }
+        }
+        for (Transition t : ss.transitions()) {
+            assertEquals(ss.transitionFromStates()[t.selfIndex], t.fromState);
+            assertEquals(ss.transitionToStates()[t.selfIndex], t.toState);
+            assertEquals(ss.transitionFromState(t.selfIndex), t.fromState);
+            assertEquals(ss.transitionToState(t.selfIndex), t.toState);
+            assertEquals(ss.transitionIndex(t.fromState, t.toState), t.selfIndex);
+        }
+        // callers get copies, not the arrays the inner loops use
+        ss.transitionFromStates()[0] = -1;
+        assertEquals(ss.transitionFromState(0), ss.transitions().get(0).fromState);
+        // nothing leaves the stop state or enters the start state
+        assertEquals(ss.transitionIndex(ss.stopStateIndex(), 2), -1);
+        assertEquals(ss.transitionIndex(2, ss.startStateIndex()), -1);
+        assertFalse(ss.transitionFor(ss.stopStateIndex(), 2).isPresent());
+    }
+}
@@ -1,12 +1,21 @@
 package org.allenai.ml.sequences.crf;
 
+import org.allenai.ml.linalg.ImmutableSparseVector;
+import org.allenai.ml.linalg.Vector;
 import org.allenai.ml.sequences.StateSpace;
+import org.allenai.ml.util.FeatureHasher;
 import com.gs.collections.api.map.primitive.ObjectDoubleMap;
+import com.gs.collections.api.tuple.Pair;
 import com.gs.collections.impl.tuple.Tuples;
 import lombok.val;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -19,6 +28,170 @@ public class CRFFeatureEncoderTest {
 
 
 
+    private final static CRFPredicateExtractor<String, String> wordPredicates =
+        new CRFPredicateExtractor<String, String>() {
+            @Override
+            public List<ObjectDoubleMap<String>> nodePredicates(List<String> elems) {
+                return elems.stream()
+                    .map(e -> CRFTestUtils.<String>make("w=" + e, 1.0, "len=" + e.length(), 2.0))
+                    .collect(Collectors.toList());
+            }
+
+            @Override
+            public List<ObjectDoubleMap<String>> edgePredicates(List<String> elems) {
+                return elems.subList(1, elems.size()).stream()
+                    .map(e -> CRFTestUtils.<String>make("#bias", 1.0, "next=" + e, 1.0))
+                    .collect(Collectors.toList());
+            }
+        };
+
+    private static List<Pair<Long, Double>> entries(Vector.Iterator it) {
+        List<Pair<Long, Double>> result = new ArrayList<>();
+        for (; !it.isExhausted(); it.advance()) {
+            result.add(Tuples.pair(it.index(), it.value()));
+        }
+        return result;
+    }
+
+    public void testBuildAndIndexMatchesTwoPasses() {
+        StateSpace<String> stateSpace = StateSpace.buildFullStateSpace(new HashSet<>(Arrays.asList("A", "B")), "<s>", "</s>");
+        List<List<Pair<String, String>>> labeledExamples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            labeledExamples.add(Arrays.asList(
+                Tuples.pair("<s>", "<s>"),
+                Tuples.pair("x" + (i % 7), "A"),
+                Tuples.pair("y" + (i % 11), i % 2 == 0 ? "A" : "B"),
+                Tuples.pair("</s>", "</s>")));
+        }
+        CRFFeatureEncoder.BuildOpts buildOpts = CRFFeatureEncoder.BuildOpts.builder()
+            .numThreads(3)
+            .probabilityToAccept(1.0)
+            .build();
+        val encoderAndExamples =
+            CRFFeatureEncoder.buildAndIndex(labeledExamples, wordPredicates, stateSpace, buildOpts);
+        CRFFeatureEncoder<String, String, String> onePass = encoderAndExamples.getOne();
+        List<List<String>> observations = labeledExamples.stream()
+            .map(ex -> ex.stream().map(Pair::getOne).collect(Collectors.toList()))
+            .collect(Collectors.toList());
+        CRFFeatureEncoder<String, String, String> twoPass =
+            CRFFeatureEncoder.build(observations, wordPredicates, stateSpace, buildOpts);
+        // features are indexed in sorted order, so the indices agree whatever the path and number of threads
+        assertEquals(onePass.nodeFeatures, twoPass.nodeFeatures);
+        assertEquals(onePass.edgeFeatures, twoPass.edgeFeatures);
+        CRFFeatureEncoder<String, String, String> streamed =
+            CRFFeatureEncoder.build(observations.stream(), wordPredicates, stateSpace, buildOpts);
+        assertEquals(streamed.nodeFeatures, twoPass.nodeFeatures);
+        assertEquals(streamed.edgeFeatures, twoPass.edgeFeatures);
+        CRFFeatureEncoder<String, String, String> singleThreaded = CRFFeatureEncoder.buildAndIndex(labeledExamples,
+            wordPredicates, stateSpace, CRFFeatureEncoder.BuildOpts.builder().numThreads(1).probabilityToAccept(1.0).build())
+            .getOne();
+        assertEquals(singleThreaded.nodeFeatures, onePass.nodeFeatures);
+        assertEquals(singleThreaded.edgeFeatures, onePass.edgeFeatures);
+        // single pass encodings are the same as looking the features up afterwards
+        for (int i = 0; i < labeledExamples.size(); i++) {
+            CRFIndexedExample expected = onePass.indexLabeledExample(labeledExamples.get(i));
+            CRFIndexedExample actual = encoderAndExamples.getTwo().get(i);
+            assertEquals(actual.getGoldLabels(), expected.getGoldLabels());
+            for (int pos = 0; pos < expected.getSequenceLength(); pos++) {
+                assertEquals(entries(actual.getNodePredicateValues(pos)), entries(expected.getNodePredicateValues(pos)));
+            }
+            for (int pos = 0; pos + 1 < expected.getSequenceLength(); pos++) {
+                assertEquals(entries(actual.getEdgePredicateValues(pos)), entries(expected.getEdgePredicateValues(pos)));
+            }
+        }
+    }
+
+    public void testStochasticBuildIsReproducible() {
+        StateSpace<String> stateSpace = StateSpace.buildFullStateSpace(Collections.singleton("A"), "<s>", "</s>");
+        List<List<String>> observations = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            observations.add(Arrays.asList("x" + (i % 13), "y" + (i % 17), "z" + i));
+        }
+        List<CRFFeatureEncoder<String, String, String>> encoders = new ArrayList<>();
+        for (int numThreads : new int[]{1, 4}) {
+            CRFFeatureEncoder.BuildOpts buildOpts = CRFFeatureEncoder.BuildOpts.builder()
+                .numThreads(numThreads)
+                .probabilityToAccept(0.5)
+                .randSeed(7L)
+                .build();
+            encoders.add(CRFFeatureEncoder.build(observations, wordPredicates, stateSpace, buildOpts));
+            encoders.add(CRFFeatureEncoder.build(observations.stream(), wordPredicates, stateSpace, buildOpts));
+        }
+        // some predicates were dropped, the same ones however examples were split across threads
+        CRFFeatureEncoder<String, String, String> first = encoders.get(0);
+        assertTrue(first.nodeFeatures.size() < 4 + 200);
+        for (CRFFeatureEncoder<String, String, String> encoder : encoders) {
+            assertEquals(encoder.nodeFeatures, first.nodeFeatures);
+            assertEquals(encoder.edgeFeatures, first.edgeFeatures);
+        }
+    }
+
+    private static List<String> countedAtLeast(List<List<ObjectDoubleMap<String>>> predicates, int minCount) {
+        Map<String, Integer> counts = new HashMap<>();
+        predicates.forEach(fvs -> fvs.forEach(fv -> fv.forEachKey(f -> counts.merge(f, 1, Integer::sum))));
+        return counts.entrySet().stream()
+            .filter(e -> e.getValue() >= minCount)
+            .map(Map.Entry::getKey)
+            .sorted()
+            .collect(Collectors.toList());
+    }
+
+    public void testMinFeatureCount() {
+        StateSpace<String> stateSpace = StateSpace.buildFullStateSpace(Collections.singleton("A"), "<s>", "</s>");
+        List<List<String>> observations = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            // "x" occurs 30 times, "y<k>" 3 times each and "z<i>" once each
+            observations.add(Arrays.asList("x", "y" + (i % 10), "z" + i));
+        }
+        List<String> expectedNode = countedAtLeast(observations.stream()
+            .map(wordPredicates::nodePredicates).collect(Collectors.toList()), 3);
+        List<String> expectedEdge = countedAtLeast(observations.stream()
+            .map(wordPredicates::edgePredicates).collect(Collectors.toList()), 3);
+        assertTrue(expectedNode.contains("w=y0"));
+        assertFalse(expectedNode.contains("w=z0"));
+        for (int numThreads : new int[]{1, 4}) {
+            CRFFeatureEncoder.BuildOpts buildOpts = CRFFeatureEncoder.BuildOpts.builder()
+                .numThreads(numThreads)
+                .minFeatureCount(3)
+                .countSketchWidth(numThreads > 1 ? 16 : 0)
+                .build();
+            CRFFeatureEncoder<String, String, String> encoder =
+                CRFFeatureEncoder.build(observations, wordPredicates, stateSpace, buildOpts);
+            // exact and sorted, whatever the number of threads
+            assertEquals(encoder.nodeFeatures, expectedNode);
+            assertEquals(encoder.edgeFeatures, expectedEdge);
+        }
+    }
+
+    public void testHashedEncoder() {
+        StateSpace<String> stateSpace = StateSpace.buildFullStateSpace(Collections.singleton("A"), "<s>", "</s>");
+        FeatureHasher<String> nodeHasher = FeatureHasher.of(1000, true);
+        FeatureHasher<String> edgeHasher = FeatureHasher.of(10, false);
+        val encoder = CRFFeatureEncoder.hashed(wordPredicates, stateSpace, nodeHasher, edgeHasher);
+        assertTrue(encoder.isHashed());
+        assertEquals(encoder.numNodeFeatures(), 1000);
+        assertEquals(encoder.numEdgeFeatures(), 10);
+        val weightEncoder = CRFWeightsEncoder.forFeatures(encoder);
+        assertEquals(weightEncoder.numNodePredicates, 1000);
+        assertEquals(weightEncoder.numEdgePredicates, 10);
+        List<String> observations = Arrays.asList("<s>", "x", "</s>");
+        CRFIndexedExample indexed = encoder.indexedExample(observations);
+        val nodePreds = wordPredicates.nodePredicates(observations);
+        for (int pos = 0; pos < observations.size(); pos++) {
+            Vector expected = ImmutableSparseVector.hashed(nodePreds.get(pos), nodeHasher);
+            assertEquals(entries(indexed.getNodePredicateValues(pos)), entries(expected.iterator()));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBuildAndIndexRejectsPruning() {
+        StateSpace<String> stateSpace = StateSpace.buildFullStateSpace(Collections.singleton("A"), "<s>", "</s>");
+        CRFFeatureEncoder.BuildOpts buildOpts = CRFFeatureEncoder.BuildOpts.builder()
+            .probabilityToAccept(0.5)
+            .build();
+        CRFFeatureEncoder.buildAndIndex(new ArrayList<>(), wordPredicates, stateSpace, buildOpts);
+    }
+
     @Test
     public void testFeatureEncoder() throws Exception {
         val predExtractor = new CRFPredicateExtractor<String, String>() {
@@ -2,6 +2,8 @@ package org.allenai.ml.sequences.crf;
 
 import org.allenai.ml.linalg.DenseVector;
 import org.allenai.ml.linalg.Vector;
+import org.allenai.ml.sequences.ForwardBackwards;
+import lombok.val;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -9,7 +11,8 @@ import static org.testng.Assert.*;
 
 public class CRFLogLikelihoodObjectiveTest {
 
-    CRFWeightsEncoder<String> weightsEncoder = new CRFWeightsEncoder<>(CRFTestUtils.toyStateSpace(), 4, 4);
+    // toy predicates go up to index 5
+    CRFWeightsEncoder<String> weightsEncoder = new CRFWeightsEncoder<>(CRFTestUtils.toyStateSpace(), 6, 6);
     CRFLogLikelihoodObjective<String> obj = new CRFLogLikelihoodObjective<>(weightsEncoder);
     Vector params = DenseVector.of(weightsEncoder.numParameters());
     Vector grad;
@@ -31,6 +34,41 @@ public class CRFLogLikelihoodObjectiveTest {
         assertTrue(grad.at(edgeWeightIdx) > 0.0);
     }
 
+    @Test
+    public void testReusedWorkspace() {
+        CRFIndexedExample ex = CRFTestUtils.toyLabeledExample(new int[]{0, 2, 1});
+        Vector weights = DenseVector.of(weightsEncoder.numParameters());
+        for (int idx = 0; idx < weights.dimension(); idx++) {
+            weights.set(idx, 0.1 * (idx % 7) - 0.3);
+        }
+        Vector freshGrad = DenseVector.of(weightsEncoder.numParameters());
+        double freshVal = obj.evaluate(ex, weights, freshGrad);
+        val workspace = obj.newWorkspace();
+        for (int iter = 0; iter < 3; iter++) {
+            Vector reusedGrad = DenseVector.of(weightsEncoder.numParameters());
+            assertEquals(obj.evaluate(ex, weights, reusedGrad, workspace), freshVal, 1.0e-10);
+            for (int idx = 0; idx < weights.dimension(); idx++) {
+                assertEquals(reusedGrad.at(idx), freshGrad.at(idx), 1.0e-10);
+            }
+        }
+    }
+
+    @Test
+    public void testScaledEngine() {
+        val scaledObj = new CRFLogLikelihoodObjective<>(weightsEncoder, ForwardBackwards.Engine.SCALED);
+        CRFIndexedExample ex = CRFTestUtils.toyLabeledExample(new int[]{0, 2, 1});
+        Vector weights = DenseVector.of(weightsEncoder.numParameters());
+        for (int idx = 0; idx < weights.dimension(); idx++) {
+            weights.set(idx, 0.5 * (idx % 5) - 1.0);
+        }
+        Vector logSpaceGrad = DenseVector.of(weightsEncoder.numParameters());
+        Vector scaledGrad = DenseVector.of(weightsEncoder.numParameters());
+        assertEquals(scaledObj.evaluate(ex, weights, scaledGrad), obj.evaluate(ex, weights, logSpaceGrad), 1.0e-8);
+        for (int idx = 0; idx < weights.dimension(); idx++) {
+            assertEquals(scaledGrad.at(idx), logSpaceGrad.at(idx), 1.0e-8);
+        }
+    }
+
     @Test(expectedExceptions = Throwable.class)
     public void testThrowsOnUnlabeled() {
         // if the example isn't labeled, should throw
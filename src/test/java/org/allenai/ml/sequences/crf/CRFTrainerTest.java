@@ -0,0 +1,94 @@
+package org.allenai.ml.sequences.crf;
+
+import com.gs.collections.api.map.primitive.ObjectDoubleMap;
+import com.gs.collections.api.tuple.Pair;
+import com.gs.collections.impl.tuple.Tuples;
+import org.allenai.ml.linalg.Vector;
+import org.allenai.ml.linalg.VectorWorkspace;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.*;
+
+@Test
+public class CRFTrainerTest {
+
+    private final static CRFPredicateExtractor<String, String> wordPredicates =
+        new CRFPredicateExtractor<String, String>() {
+            @Override
+            public List<ObjectDoubleMap<String>> nodePredicates(List<String> elems) {
+                return elems.stream()
+                    .map(e -> CRFTestUtils.<String>make("w=" + e, 1.0, "#bias", 1.0))
+                    .collect(Collectors.toList());
+            }
+
+            @Override
+            public List<ObjectDoubleMap<String>> edgePredicates(List<String> elems) {
+                return elems.subList(1, elems.size()).stream()
+                    .map(e -> CRFTestUtils.<String>make("#bias", 1.0))
+                    .collect(Collectors.toList());
+            }
+        };
+
+    private static List<List<Pair<String, String>>> labeledData() {
+        List<List<Pair<String, String>>> labeledData = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // "w<k>" is usually tagged by its parity, so the optimum takes a few iterations to reach
+            labeledData.add(Arrays.asList(
+                Tuples.pair("<s>", "<s>"),
+                Tuples.pair("w" + (i % 5), i % 7 == 0 ? "B" : (i % 5) % 2 == 0 ? "A" : "B"),
+                Tuples.pair("w" + (i % 3), i % 3 == 1 ? "A" : "B"),
+                Tuples.pair("</s>", "</s>")));
+        }
+        return labeledData;
+    }
+
+    public void testTrainingRecyclesIterates() {
+        List<List<Pair<String, String>>> labeledData = labeledData();
+        CRFTrainer.Opts<String, String, String> opts = new CRFTrainer.Opts<>();
+        opts.optimizerOpts.maxIters = 15;
+        VectorWorkspace workspace = new VectorWorkspace();
+        opts.optimizerOpts.workspace = workspace;
+        List<Long> numAllocated = new ArrayList<>();
+        List<Vector> keptWeights = new ArrayList<>();
+        CRFTrainer<String, String, String> trainer = new CRFTrainer<>(labeledData, wordPredicates, opts);
+        opts.iterCallback = model -> {
+            numAllocated.add(workspace.numAllocated());
+            keptWeights.add(model.weights());
+            return true;
+        };
+        CRFModel<String, String, String> model = trainer.train(labeledData);
+        assertTrue(numAllocated.size() > 5, "ran " + numAllocated.size() + " iterations");
+        // once the L-BFGS history is full, the iterates passed to the callback are recycled too
+        assertEquals(numAllocated.get(numAllocated.size() - 1), numAllocated.get(4));
+        assertTrue(model.weights().closeTo(keptWeights.get(keptWeights.size() - 1)));
+    }
+
+    public void testOneShotDecodeMatchesWorkspace() {
+        List<List<Pair<String, String>>> labeledData = labeledData();
+        CRFTrainer.Opts<String, String, String> opts = new CRFTrainer.Opts<>();
+        opts.optimizerOpts.maxIters = 10;
+        CRFTrainer<String, String, String> trainer = new CRFTrainer<>(labeledData, wordPredicates, opts);
+        CRFModel<String, String, String> model = trainer.train(labeledData);
+        CRFModel.DecodeScratch<String> scratch = model.newWorkspace();
+        for (CRFModel.InferenceMode mode : CRFModel.InferenceMode.values()) {
+            model.setInferenceMode(mode);
+            for (List<Pair<String, String>> example : labeledData) {
+                List<String> input = example.stream().map(Pair::getOne).collect(Collectors.toList());
+                assertEquals(model.bestGuess(input), model.bestGuess(input, scratch));
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testHashingRejectsPruning() {
+        CRFTrainer.Opts<String, String, String> opts = new CRFTrainer.Opts<>();
+        opts.numHashBuckets = 16;
+        opts.minFeatureCount = 2;
+        new CRFTrainer<>(labeledData(), wordPredicates, opts);
+    }
+}
@@ -58,4 +58,63 @@ public class CRFWeightEncoderTest {
             .getViterbi();
         assertEquals(bBiasedViterbi, Arrays.asList("b"));
     }
-}
\ No newline at end of file
+
+    public void testNodeAndEdgeBlocksAreDisjoint() {
+        StateSpace<String> stateSpace = CRFTestUtils.toyStateSpace();
+        val weightEncoder = new CRFWeightsEncoder<String>(stateSpace, 10, 10);
+        int numStates = stateSpace.states().size();
+        int numTransitions = stateSpace.transitions().size();
+        int lastNodeIdx = weightEncoder.nodeWeightIndex(9, numStates - 1);
+        int firstEdgeIdx = weightEncoder.edgeWeightIndex(0, 0);
+        assertEquals(firstEdgeIdx, lastNodeIdx + 1);
+        assertEquals(weightEncoder.edgeWeightIndex(9, numTransitions - 1), weightEncoder.numParameters() - 1);
+
+        Vector weights = DenseVector.of(weightEncoder.numParameters());
+        weights.set(firstEdgeIdx, 1.0);
+        assertEquals(weightEncoder.edgeWeights(weights).at(0), 1.0);
+        assertEquals(weightEncoder.nodeWeights(weights).l2NormSquared(), 0.0);
+        assertEquals(weightEncoder.nodeWeights(weights).dimension(), weightEncoder.numNodeParameters());
+    }
+
+    public void testWeightViewsFollowTheirVector() {
+        val weightEncoder = new CRFWeightsEncoder<String>(CRFTestUtils.toyStateSpace(), 10, 10);
+        Vector a = DenseVector.of(weightEncoder.numParameters());
+        Vector b = DenseVector.of(weightEncoder.numParameters());
+        b.set(weightEncoder.edgeWeightIndex(0, 0), 1.0);
+        val views = weightEncoder.newWeightViews().pointAt(a);
+        Vector nodeView = views.nodeWeights();
+        // the same vector keeps its views, another one gets its own
+        assertSame(views.pointAt(a).nodeWeights(), nodeView);
+        assertEquals(views.pointAt(b).edgeWeights().at(0), 1.0);
+        assertEquals(views.pointAt(a).edgeWeights().at(0), 0.0);
+    }
+
+    public void testReusedPotentialBuffers() {
+        StateSpace<String> stateSpace = CRFTestUtils.toyStateSpace();
+        CRFIndexedExample toyExample = CRFTestUtils.toyExample();
+        val weightEncoder = new CRFWeightsEncoder<String>(stateSpace, 10, 10);
+        Vector weights = DenseVector.of(weightEncoder.numParameters());
+        for (int idx = 0; idx < weights.dimension(); idx++) {
+            weights.set(idx, idx % 5 - 2.0);
+        }
+        double[][] expected = weightEncoder.fillPotentials(weights, toyExample);
+        int numTransitions = stateSpace.transitions().size();
+        double[][] potentials = new double[expected.length][numTransitions];
+        // stale values from a previous example must be overwritten
+        for (double[] row : potentials) {
+            Arrays.fill(row, 100.0);
+        }
+        weightEncoder.fillPotentials(weights, toyExample, potentials, new double[stateSpace.states().size()]);
+        for (int idx = 0; idx < expected.length; idx++) {
+            for (int t = 0; t < numTransitions; t++) {
+                assertEquals(potentials[idx][t], expected[idx][t], 1.0e-10);
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testTooManyParameters() {
+        val weightEncoder = new CRFWeightsEncoder<String>(CRFTestUtils.toyStateSpace(), Integer.MAX_VALUE / 2, 10);
+        weightEncoder.numParameters();
+    }
+}
@@ -33,10 +33,41 @@ public class ConllCRFEndToEndTest {
         evalOpts.dataPath = filePathOfResource("/crf/test.data");
         val accPerfPair = Evaluator.evaluateModel(evalOpts);
         Assert.assertTrue(accPerfPair.getOne() > 0.90);
+        // float weights should barely move accuracy
+        evalOpts.singlePrecision = true;
+        val singlePrecisionAccPerfPair = Evaluator.evaluateModel(evalOpts);
+        Assert.assertEquals(singlePrecisionAccPerfPair.getOne(), accPerfPair.getOne(), 0.005);
+        // mapped weights are the same doubles
+        evalOpts.singlePrecision = false;
+        evalOpts.mapModel = true;
+        Assert.assertEquals(Evaluator.evaluateModel(evalOpts).getOne(), accPerfPair.getOne());
+        // reading the data as it's evaluated
+        evalOpts.streamData = true;
+        Assert.assertEquals(Evaluator.evaluateModel(evalOpts).getOne(), accPerfPair.getOne());
+        evalOpts.streamData = false;
+        // hashing predicates into plenty of buckets should about match indexing them
+        trainOpts.numHashBuckets = 1 << 16;
+        trainOpts.signedHashing = true;
+        Trainer.trainAndSaveModel(trainOpts);
+        evalOpts.mapModel = false;
+        val hashedAcc = Evaluator.evaluateModel(evalOpts).getOne();
+        Assert.assertEquals(hashedAcc, accPerfPair.getOne(), 0.02);
+        evalOpts.mapModel = true;
+        Assert.assertEquals(Evaluator.evaluateModel(evalOpts).getOne(), hashedAcc);
         Set<Thread> threadSet = Thread.getAllStackTraces().keySet();
         Set<Thread> badMRThreads = threadSet.stream().filter(t -> t.getName().startsWith("mr"))
             .collect(Collectors.toSet());
         log.info("Bad threads {}", badMRThreads);
         Assert.assertTrue(badMRThreads.isEmpty(), "Ensure no map-reduce threads left");
     }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSinglePrecisionMappedModelRejected() {
+        val evalOpts = new Evaluator.Opts();
+        evalOpts.modelPath = "unused";
+        evalOpts.dataPath = "unused";
+        evalOpts.singlePrecision = true;
+        evalOpts.mapModel = true;
+        Evaluator.evaluateModel(evalOpts);
+    }
 }
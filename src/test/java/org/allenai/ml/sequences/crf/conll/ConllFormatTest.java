@@ -46,6 +46,24 @@ public class ConllFormatTest {
         nodeTemplate.toString();
     }
 
+    public void testStreamDataMatchesReadData() {
+        List<String> lines = Arrays.asList("a x A", "b y B", "", "", "c z A", "", "d trailing B");
+        List<List<ConllFormat.Row>> expected = ConllFormat.readData(lines.stream(), true);
+        List<List<ConllFormat.Row>> streamed = ConllFormat.streamData(lines.stream(), true)
+            .collect(Collectors.toList());
+        assertEquals(streamed.size(), expected.size());
+        for (int idx = 0; idx < expected.size(); idx++) {
+            List<String> expectedLabels = expected.get(idx).stream()
+                .map(row -> row.getLabel().get()).collect(Collectors.toList());
+            List<String> streamedLabels = streamed.get(idx).stream()
+                .map(row -> row.getLabel().get()).collect(Collectors.toList());
+            assertEquals(streamedLabels, expectedLabels);
+            for (int rowIdx = 0; rowIdx < expected.get(idx).size(); rowIdx++) {
+                assertEquals(streamed.get(idx).get(rowIdx).features, expected.get(idx).get(rowIdx).features);
+            }
+        }
+    }
+
     public void testPredicateExtractor() throws Exception {
         CRFPredicateExtractor<ConllFormat.Row, String> predExtractor = ConllFormat.predicatesFromTemplate(
             Stream.of("U00:%x[0,0]", "U10:%x[1,0]", "UBoth:%x[0,0]/%x[1,0]", "B"));
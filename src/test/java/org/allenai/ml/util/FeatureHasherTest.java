@@ -0,0 +1,51 @@
+package org.allenai.ml.util;
+
+import lombok.val;
+import org.testng.annotations.Test;
+
+import java.io.*;
+
+import static org.testng.Assert.*;
+
+@Test
+public class FeatureHasherTest {
+
+    public void testBucketsAndSigns() {
+        FeatureHasher<String> hasher = FeatureHasher.of(100, true);
+        int[] bucketCounts = new int[hasher.numBuckets];
+        int numNegative = 0;
+        int numFeatures = 100000;
+        for (int idx = 0; idx < numFeatures; idx++) {
+            long hash = hasher.hash("feat=" + idx);
+            assertEquals(hasher.hash("feat=" + idx), hash);
+            int bucket = hasher.bucket(hash);
+            assertTrue(bucket >= 0 && bucket < hasher.numBuckets);
+            bucketCounts[bucket]++;
+            if (hasher.sign(hash) < 0) {
+                numNegative++;
+            }
+        }
+        // roughly uniform buckets and signs
+        for (int count : bucketCounts) {
+            assertEquals(count, numFeatures / hasher.numBuckets, 150);
+        }
+        assertEquals(numNegative, numFeatures / 2, 1000);
+        FeatureHasher<String> unsigned = FeatureHasher.of(100, false);
+        for (int idx = 0; idx < 100; idx++) {
+            assertEquals(unsigned.sign(unsigned.hash("feat=" + idx)), 1.0);
+        }
+    }
+
+    public void testSaveLoadRoundtrip() throws IOException {
+        val baos = new ByteArrayOutputStream();
+        FeatureHasher.of(1 << 18, true).save(new DataOutputStream(baos));
+        FeatureHasher<String> loaded = FeatureHasher.load(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(loaded.numBuckets, 1 << 18);
+        assertTrue(loaded.signed);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testThrowsOnNoBuckets() {
+        FeatureHasher.of(0, false);
+    }
+}
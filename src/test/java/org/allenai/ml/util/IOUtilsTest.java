@@ -1,14 +1,16 @@
 package org.allenai.ml.util;
 
+import lombok.SneakyThrows;
 import lombok.val;
 import org.testng.annotations.Test;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
@@ -39,4 +41,54 @@ public class IOUtilsTest {
         List<String> elems = Arrays.asList("a", "b", "c");
         testRoundtrip(IOUtils::saveList, IOUtils::loadList, elems);
     }
-}
\ No newline at end of file
+
+    private static double[] randomDoubles(int n) {
+        val rand = new Random(0L);
+        double[] xs = new double[n];
+        for (int idx = 0; idx < n; idx++) {
+            xs[idx] = rand.nextGaussian();
+        }
+        return xs;
+    }
+
+    public void testRoundtripDoublesAcrossBlocks() {
+        // several bulk blocks plus a partial one
+        testRoundtrip(IOUtils::saveDoubles, IOUtils::loadDoubles, randomDoubles(30000));
+        testRoundtrip(IOUtils::saveDoubles, IOUtils::loadDoubles, new double[0]);
+    }
+
+    public void testChannelLayoutMatchesStream() throws Exception {
+        double[] xs = randomDoubles(20000);
+        val file = File.createTempFile("io-utils", "doubles");
+        file.deleteOnExit();
+        // write a stream-encoded header, then doubles through the channel
+        try (val channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            val baos = new ByteArrayOutputStream();
+            new DataOutputStream(baos).writeUTF("header");
+            channel.write(ByteBuffer.wrap(baos.toByteArray()));
+            IOUtils.saveDoubles(channel, xs);
+            IOUtils.saveDoubles(channel, new double[]{1.0, 2.0});
+        }
+        try (val dis = new DataInputStream(new FileInputStream(file))) {
+            assertEquals(dis.readUTF(), "header");
+            assertEquals(IOUtils.loadDoubles(dis), xs);
+            assertEquals(IOUtils.loadDoubles(dis), new double[]{1.0, 2.0});
+        }
+        try (val channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            assertEquals(IOUtils.readHeader(channel, IOUtilsTest::readUTF), "header");
+            assertEquals(IOUtils.loadDoubles(channel), xs);
+            assertEquals(IOUtils.loadDoubles(channel), new double[]{1.0, 2.0});
+        }
+        try (val channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            IOUtils.readHeader(channel, IOUtilsTest::readUTF);
+            val mapped = IOUtils.mapDoubles(channel);
+            assertEquals(mapped.toDoubles(), xs);
+            assertEquals(IOUtils.loadDoubles(channel), new double[]{1.0, 2.0});
+        }
+    }
+
+    @SneakyThrows
+    private static String readUTF(DataInputStream dis) {
+        return dis.readUTF();
+    }
+}
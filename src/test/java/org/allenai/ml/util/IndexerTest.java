@@ -4,6 +4,11 @@ import lombok.val;
 import org.testng.annotations.Test;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.testng.Assert.*;
@@ -22,6 +27,7 @@ public class IndexerTest {
         assertTrue( avengers.get(0).equals("cap") );
         assertTrue( avengers.contains("cap") );
         assertFalse(avengers.contains("made-up"));
+        assertEquals( avengers.indexOf("made-up"), -1 );
         Object[] arr = avengers.toArray();
         assertEquals( arr, new String[]{"cap", "iron-man", "hulk"} );
         assertEquals( avengers, avengers.subList(0, avengers.size()) );
@@ -46,4 +52,136 @@ public class IndexerTest {
         val otherAvengers = Indexer.load(dis);
         assertEquals(avengers, otherAvengers);
     }
+
+    private static final Indexer<String> unicode =
+        Indexer.fromStream(Stream.of("", "caf\u00e9", "na\u00efve", "\u6f22\u5b57", "\ud83d\ude00", "cafe"));
+
+    private static File savedFile(List<Indexer<String>> indexers) throws IOException {
+        val file = File.createTempFile("indexer", "bin");
+        file.deleteOnExit();
+        try (val dos = new DataOutputStream(new FileOutputStream(file))) {
+            for (Indexer<String> indexer : indexers) {
+                indexer.save(dos);
+            }
+            dos.writeInt(42);
+        }
+        return file;
+    }
+
+    private static void assertSameLookups(Indexer<String> expected, Indexer<String> actual) {
+        assertEquals(actual.size(), expected.size());
+        for (int idx = 0; idx < expected.size(); idx++) {
+            assertEquals(actual.get(idx), expected.get(idx));
+            assertEquals(actual.indexOf(expected.get(idx)), idx);
+        }
+        assertEquals(actual, expected);
+        assertEquals(actual.indexOf("made-up"), -1);
+        assertEquals(actual.indexOf("caf"), -1);
+        assertEquals(actual.indexOf("cafe\u0301"), -1);
+        assertFalse(actual.contains(17));
+    }
+
+    public void testLoadedTableLookups() throws IOException {
+        val baos = new ByteArrayOutputStream();
+        unicode.save(new DataOutputStream(baos));
+        val dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        val loaded = Indexer.load(dis);
+        assertSameLookups(unicode, loaded);
+        // a loaded table saves back out to the same bytes
+        val resaved = new ByteArrayOutputStream();
+        loaded.save(new DataOutputStream(resaved));
+        assertEquals(resaved.toByteArray(), baos.toByteArray());
+    }
+
+    public void testMapRoundtrip() throws IOException {
+        Indexer<String> many = Indexer.fromStream(IntStream.range(0, 1000).<String>mapToObj(i -> "feat-" + i));
+        val file = savedFile(Arrays.asList(avengers, unicode, many));
+        try (val raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            assertSameLookups(avengers, Indexer.map(channel));
+            assertSameLookups(unicode, Indexer.map(channel));
+            val mapped = Indexer.map(channel);
+            assertSameLookups(many, mapped);
+            assertEquals(mapped.subList(10, 12), Arrays.asList("feat-10", "feat-11"));
+            // channel is left right after the last indexer
+            assertEquals(raf.readInt(), 42);
+        }
+    }
+
+    public void testLoadListFormat() throws IOException {
+        val baos = new ByteArrayOutputStream();
+        val dos = new DataOutputStream(baos);
+        dos.writeUTF("2.0");
+        IOUtils.saveList(dos, Arrays.asList("cap", "iron-man", "hulk"));
+        val dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(Indexer.load(dis), avengers);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSaveThrowsOnUnpairedSurrogate() throws IOException {
+        Indexer.fromStream(Stream.of("\ud83d")).save(new DataOutputStream(new ByteArrayOutputStream()));
+    }
+
+    public void testConcurrentBuilder() throws Exception {
+        Indexer.ConcurrentBuilder<String> builder = Indexer.concurrentBuilder();
+        int numThreads = 4;
+        int numElems = 2000;
+        int[][] seenIndices = new int[numThreads][numElems];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            int threadIdx = t;
+            threads.add(new Thread(() -> {
+                // each thread interns every element, starting at a different place
+                for (int i = 0; i < numElems; i++) {
+                    int elem = (i + threadIdx * numElems / numThreads) % numElems;
+                    seenIndices[threadIdx][elem] = builder.intern("elem-" + elem);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(builder.size(), numElems);
+        assertEquals(builder.indexOf("made-up"), -1);
+        int[] internIndices = new int[numElems];
+        for (int elem = 0; elem < numElems; elem++) {
+            internIndices[elem] = builder.indexOf("elem-" + elem);
+            for (int t = 0; t < numThreads; t++) {
+                assertEquals(seenIndices[t][elem], internIndices[elem]);
+            }
+        }
+        int[] oldToNew = new int[builder.size()];
+        val indexer = builder.freeze(oldToNew);
+        assertEquals(indexer.size(), numElems);
+        for (int elem = 0; elem < numElems; elem++) {
+            assertEquals(oldToNew[internIndices[elem]], indexer.indexOf("elem-" + elem));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testConcurrentBuilderLookupAfterFreeze() {
+        Indexer.ConcurrentBuilder<String> builder = Indexer.concurrentBuilder();
+        builder.intern("hulk");
+        builder.freeze();
+        // would be the pre-freeze index
+        builder.indexOf("hulk");
+    }
+
+    public void testConcurrentBuilderSortsOnFreeze() {
+        Indexer.ConcurrentBuilder<String> builder = Indexer.concurrentBuilder();
+        Stream.of("iron-man", "hulk", "cap", "hulk").forEach(builder::intern);
+        int[] oldToNew = new int[builder.size()];
+        assertEquals(builder.freeze(oldToNew), Indexer.fromStream(Stream.of("cap", "hulk", "iron-man")));
+        // interned as iron-man, hulk, cap
+        assertEquals(oldToNew, new int[]{2, 1, 0});
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testConcurrentBuilderThrowsAfterFreeze() {
+        Indexer.ConcurrentBuilder<String> builder = Indexer.concurrentBuilder();
+        builder.intern("a");
+        builder.freeze();
+        builder.intern("b");
+    }
 }
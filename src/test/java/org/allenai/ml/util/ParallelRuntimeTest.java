@@ -0,0 +1,119 @@
+package org.allenai.ml.util;
+
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.*;
+
+@Test
+public class ParallelRuntimeTest {
+
+    // sums the data and records the names of the threads that did
+    private static class SumDriver implements Parallel.MapReduceDriver<Integer, long[]> {
+        final Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+
+        @Override
+        public long[] newData() {
+            return new long[1];
+        }
+
+        @Override
+        public void update(long[] data, Integer elem) {
+            threadNames.add(Thread.currentThread().getName());
+            data[0] += elem;
+        }
+
+        @Override
+        public void merge(long[] a, long[] b) {
+            a[0] += b[0];
+        }
+    }
+
+    private static final List<Integer> DATA = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+    private static final long SUM = 999L * 1000 / 2;
+
+    private static Set<String> liveThreadNames() {
+        return Thread.getAllStackTraces().keySet().stream().map(Thread::getName).collect(Collectors.toSet());
+    }
+
+    public void testFixed() {
+        SumDriver driver = new SumDriver();
+        ParallelRuntime runtime = ParallelRuntime.fixed("runtime-test-fixed", 3);
+        try {
+            // the same pool serves repeated calls
+            for (int iter = 0; iter < 3; iter++) {
+                assertEquals(Parallel.mapReduce(DATA, driver, runtime.mrOpts())[0], SUM);
+            }
+        } finally {
+            runtime.close();
+        }
+        assertTrue(runtime.isClosed());
+        assertFalse(driver.threadNames.isEmpty());
+        for (String name : driver.threadNames) {
+            assertTrue(name.matches("runtime-test-fixed-[0-2]"), name);
+        }
+        // close waits for the threads to exit
+        assertTrue(liveThreadNames().stream().noneMatch(name -> name.startsWith("runtime-test-fixed")));
+        // idempotent
+        runtime.close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testClosedRuntime() {
+        ParallelRuntime runtime = ParallelRuntime.fixed("runtime-test-closed", 1);
+        runtime.close();
+        runtime.mrOpts();
+    }
+
+    public void testCommonForkJoin() {
+        try (ParallelRuntime runtime = ParallelRuntime.commonForkJoin(4)) {
+            assertEquals(runtime.numWorkers, 4);
+            assertEquals(Parallel.mapReduce(DATA, new SumDriver(), runtime.mrOpts())[0], SUM);
+        }
+        // the common pool is shared by the JVM and is left running
+        assertFalse(ForkJoinPool.commonPool().isShutdown());
+        assertTrue(Parallel.shutdownExecutor(ForkJoinPool.commonPool(), 0));
+        assertFalse(ForkJoinPool.commonPool().isShutdown());
+    }
+
+    public void testVirtualThreads() {
+        if (!ParallelRuntime.virtualThreadsSupported()) {
+            try {
+                ParallelRuntime.virtualThreads("runtime-test-virtual", 4);
+                fail("Expected virtual threads to be unsupported");
+            } catch (UnsupportedOperationException e) {
+                // expected on JDKs before 21
+            }
+            return;
+        }
+        SumDriver driver = new SumDriver();
+        try (ParallelRuntime runtime = ParallelRuntime.virtualThreads("runtime-test-virtual", 4)) {
+            assertEquals(Parallel.mapReduce(DATA, driver, runtime.mrOpts())[0], SUM);
+        }
+        assertTrue(driver.threadNames.stream().allMatch(name -> name.startsWith("runtime-test-virtual-")));
+    }
+
+    public void testWithRuntime() {
+        try (ParallelRuntime shared = ParallelRuntime.fixed("runtime-test-shared", 2)) {
+            ParallelRuntime used = ParallelRuntime.withRuntime(shared, "runtime-test-own", 2, runtime -> runtime);
+            assertSame(used, shared);
+            assertFalse(shared.isClosed());
+        }
+        ParallelRuntime own = ParallelRuntime.withRuntime(null, "runtime-test-own", 2, runtime -> {
+            assertEquals(runtime.numWorkers, 2);
+            return runtime;
+        });
+        assertTrue(own.isClosed());
+    }
+
+    public void testShutdownExecutorTerminates() {
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("runtime-test-mr-opts", 2);
+        assertEquals(Parallel.mapReduce(DATA, new SumDriver(), mrOpts)[0], SUM);
+        assertTrue(Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE));
+        assertTrue(mrOpts.executorService.isTerminated());
+    }
+}
@@ -0,0 +1,307 @@
+package org.allenai.ml.util;
+
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.*;
+
+@Test
+public class ParallelTest {
+
+    private static class CollectDriver implements Parallel.MapReduceDriver<Integer, List<Integer>> {
+        @Override
+        public List<Integer> newData() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void update(List<Integer> data, Integer elem) {
+            data.add(elem);
+        }
+
+        @Override
+        public void merge(List<Integer> a, List<Integer> b) {
+            a.addAll(b);
+        }
+    }
+
+    private static List<Integer> collect(List<Integer> data, int numWorkers, int chunkSize) {
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-parallel-test", numWorkers);
+        mrOpts.chunkSize = chunkSize;
+        try {
+            List<Integer> result = Parallel.mapReduce(data, new CollectDriver(), mrOpts);
+            Collections.sort(result);
+            return result;
+        } finally {
+            Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+        }
+    }
+
+    public void testEveryElementOnce() {
+        List<Integer> data = IntStream.range(0, 1003).boxed().collect(Collectors.toList());
+        for (int numWorkers : new int[]{1, 3, 8}) {
+            for (int chunkSize : new int[]{0, 1, 7, 2000}) {
+                assertEquals(collect(data, numWorkers, chunkSize), data);
+                // not random access
+                assertEquals(collect(new LinkedList<>(data), numWorkers, chunkSize), data);
+            }
+        }
+        assertEquals(collect(new ArrayList<>(), 4, 0), new ArrayList<>());
+    }
+
+    public void testWorkerContexts() {
+        List<Integer> data = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+        Set<int[]> opened = Collections.newSetFromMap(new IdentityHashMap<>());
+        AtomicInteger numClosed = new AtomicInteger();
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-parallel-test", 4);
+        mrOpts.chunkSize = 3;
+        // context counts the elements its worker saw
+        int total = Parallel.mapReduce(data, new Parallel.WorkerContextDriver<Integer, int[], int[]>() {
+            @Override
+            public int[] newWorkerContext() {
+                int[] context = new int[1];
+                opened.add(context);
+                return context;
+            }
+
+            @Override
+            public void closeWorkerContext(int[] context) {
+                assertTrue(opened.contains(context));
+                numClosed.incrementAndGet();
+            }
+
+            @Override
+            public int[] newData() {
+                return new int[1];
+            }
+
+            @Override
+            public void update(int[] data, Integer elem, int[] context) {
+                context[0]++;
+                data[0]++;
+            }
+
+            @Override
+            public void merge(int[] a, int[] b) {
+                a[0] += b[0];
+            }
+        }, mrOpts)[0];
+        Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+        assertEquals(total, data.size());
+        assertEquals(opened.size(), 4);
+        assertEquals(numClosed.get(), 4);
+        assertEquals(opened.stream().mapToInt(c -> c[0]).sum(), data.size());
+    }
+
+    public void testTreeMerge() {
+        List<Integer> data = IntStream.range(0, 7).boxed().collect(Collectors.toList());
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-parallel-test", 7);
+        mrOpts.chunkSize = 1;
+        List<Integer> numMerges = Collections.synchronizedList(new ArrayList<>());
+        try {
+            List<Integer> result = Parallel.mapReduce(data, new CollectDriver() {
+                @Override
+                public void merge(List<Integer> a, List<Integer> b) {
+                    numMerges.add(1);
+                    super.merge(a, b);
+                }
+            }, mrOpts);
+            Collections.sort(result);
+            assertEquals(result, data);
+            // each worker's result is merged into another exactly once
+            assertEquals(numMerges.size(), 6);
+        } finally {
+            Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+        }
+    }
+
+    public void testStatsListener() {
+        List<Integer> data = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-parallel-test", 3);
+        List<MapReduceStats> reported = new ArrayList<>();
+        mrOpts.statsListener = reported::add;
+        try {
+            Parallel.mapReduce(data, new CollectDriver(), mrOpts);
+        } finally {
+            Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+        }
+        assertEquals(reported.size(), 1);
+        MapReduceStats stats = reported.get(0);
+        assertEquals(stats.workers.size(), 3);
+        assertEquals(stats.numElements(), 1000);
+        assertTrue(stats.totalNanos >= stats.waitNanos + stats.mergeNanos);
+        assertTrue(stats.imbalance() >= 1.0);
+        for (MapReduceStats.WorkerStats worker : stats.workers) {
+            assertTrue(worker.threadName.startsWith("mr-parallel-test-"), worker.threadName);
+            assertTrue(worker.busyNanos >= 0 && worker.queuedNanos >= 0);
+        }
+    }
+
+    public void testImbalance() {
+        MapReduceStats balanced = new MapReduceStats(Arrays.asList(
+            new MapReduceStats.WorkerStats(0, "a", 10, 0, 100, 100),
+            new MapReduceStats.WorkerStats(1, "b", 10, 0, 100, 100)), 0, 0, 200);
+        assertEquals(balanced.imbalance(), 1.0, 1.0e-10);
+        MapReduceStats straggler = new MapReduceStats(Arrays.asList(
+            new MapReduceStats.WorkerStats(0, "a", 10, 0, 300, 300),
+            new MapReduceStats.WorkerStats(1, "b", 10, 0, 100, 100)), 0, 0, 300);
+        assertEquals(straggler.imbalance(), 1.5, 1.0e-10);
+    }
+
+    public void testStreaming() {
+        List<Integer> data = IntStream.range(0, 10003).boxed().collect(Collectors.toList());
+        for (int chunkSize : new int[]{0, 1, 7}) {
+            Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-parallel-test", 3);
+            mrOpts.chunkSize = chunkSize;
+            try {
+                List<Integer> fromIterator = Parallel.mapReduce(data.iterator(), new CollectDriver(), mrOpts);
+                Collections.sort(fromIterator);
+                assertEquals(fromIterator, data);
+                List<Integer> fromStream = Parallel.mapReduce(data.stream(), new CollectDriver(), mrOpts);
+                Collections.sort(fromStream);
+                assertEquals(fromStream, data);
+                List<Integer> fromSpliterator = Parallel.mapReduce(data.spliterator(), new CollectDriver(), mrOpts);
+                Collections.sort(fromSpliterator);
+                assertEquals(fromSpliterator, data);
+            } finally {
+                Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+            }
+        }
+        Parallel.MROpts mrOpts = new Parallel.MROpts();
+        mrOpts.numWorkers = 2;
+        assertTrue(Parallel.mapReduce(Collections.<Integer>emptyIterator(), new CollectDriver(), mrOpts).isEmpty());
+    }
+
+    public void testStreamingIsBounded() {
+        // the source can't get more than the queue and the chunks being processed ahead of the workers
+        int numWorkers = 2;
+        int chunkSize = 4;
+        AtomicInteger numRead = new AtomicInteger();
+        AtomicInteger maxAhead = new AtomicInteger();
+        AtomicInteger numProcessed = new AtomicInteger();
+        Iterator<Integer> source = IntStream.range(0, 2000).boxed().peek(x -> {
+            int ahead = numRead.incrementAndGet() - numProcessed.get();
+            maxAhead.accumulateAndGet(ahead, Math::max);
+        }).iterator();
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-parallel-test", numWorkers);
+        mrOpts.chunkSize = chunkSize;
+        try {
+            Parallel.mapReduce(source, new CollectDriver() {
+                @Override
+                public void update(List<Integer> data, Integer elem) {
+                    numProcessed.incrementAndGet();
+                    super.update(data, elem);
+                }
+            }, mrOpts);
+        } finally {
+            Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+        }
+        assertEquals(numProcessed.get(), 2000);
+        // queued chunks, chunks being processed and the chunk being filled
+        assertTrue(maxAhead.get() <= (2 * numWorkers + numWorkers + 1) * chunkSize, "" + maxAhead.get());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "bad element")
+    public void testStreamingWorkerFailure() {
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-parallel-test", 2);
+        mrOpts.chunkSize = 1;
+        try {
+            // every worker fails, so reading the rest of the source would block forever without a check
+            Parallel.mapReduce(IntStream.range(0, 100000).boxed().iterator(), new CollectDriver() {
+                @Override
+                public void update(List<Integer> data, Integer elem) {
+                    throw new IllegalStateException("bad element");
+                }
+            }, mrOpts);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // the worker's exception, wrapped by its future
+            throw (RuntimeException) e.getCause();
+        } finally {
+            Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+        }
+    }
+
+    public void testAutoChunkSize() {
+        assertEquals(Parallel.chunkSize(1000, 4, 5), 5);
+        assertEquals(Parallel.chunkSize(10, 4, 0), 1);
+        // about 16 chunks per worker
+        int chunkSize = Parallel.chunkSize(64000, 4, 0);
+        assertEquals((64000 + chunkSize - 1) / chunkSize, 64);
+    }
+
+    public void testBalancedPartition() {
+        // one expensive element then many cheap ones
+        List<Integer> costs = new ArrayList<>();
+        costs.add(100);
+        for (int idx = 0; idx < 100; idx++) {
+            costs.add(1);
+        }
+        Parallel.Partition partition = Parallel.Partition.balanced(costs, Integer::doubleValue, 2);
+        assertEquals(partition.numParts(), 2);
+        assertEquals(partition.size(), 101);
+        assertEquals(partition.start(0), 0);
+        assertEquals(partition.end(0), 1);
+        assertEquals(partition.start(1), 1);
+        assertEquals(partition.end(1), 101);
+        // more parts than elements leaves some empty
+        Parallel.Partition sparse = Parallel.Partition.balanced(Arrays.asList(1, 1), Integer::doubleValue, 4);
+        int total = 0;
+        for (int part = 0; part < sparse.numParts(); part++) {
+            assertTrue(sparse.start(part) <= sparse.end(part));
+            total += sparse.end(part) - sparse.start(part);
+        }
+        assertEquals(total, 2);
+    }
+
+    public void testPartitionedMapReduce() {
+        List<Integer> data = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-parallel-test", 3);
+        try {
+            Parallel.Partition partition = Parallel.Partition.balanced(data, x -> x, 3);
+            List<Integer> result = Parallel.mapReduce(data, new CollectDriver(), mrOpts, partition);
+            Collections.sort(result);
+            assertEquals(result, data);
+        } finally {
+            Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPartitionSizeMismatch() {
+        Parallel.Partition partition = Parallel.Partition.balanced(Arrays.asList(1, 2, 3), x -> x, 2);
+        Parallel.mapReduce(Arrays.asList(1, 2), new CollectDriver(), new Parallel.MROpts(), partition);
+    }
+
+    public void testSlowElementsDontSerialize() {
+        // the first elements are slow; with static halves one worker would get all of them
+        List<Integer> data = IntStream.range(0, 40).boxed().collect(Collectors.toList());
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-parallel-test", 2);
+        mrOpts.chunkSize = 1;
+        Set<String> threadsForSlow = Collections.synchronizedSet(new HashSet<>());
+        try {
+            Parallel.mapReduce(data, new CollectDriver() {
+                @Override
+                public void update(List<Integer> d, Integer elem) {
+                    if (elem < 20) {
+                        threadsForSlow.add(Thread.currentThread().toString() + System.identityHashCode(d));
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    super.update(d, elem);
+                }
+            }, mrOpts);
+        } finally {
+            Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+        }
+        assertEquals(threadsForSlow.size(), 2);
+    }
+}
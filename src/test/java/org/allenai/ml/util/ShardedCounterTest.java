@@ -0,0 +1,75 @@
+package org.allenai.ml.util;
+
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.*;
+
+@Test
+public class ShardedCounterTest {
+
+    // datum i emits "x<j>" for every j dividing i, so "x<j>" occurs (numData-1)/j times
+    private final static List<Integer> data = IntStream.range(1, 1000).boxed().collect(Collectors.toList());
+    private final static BiConsumer<Integer, Consumer<String>> divisors = (i, emit) -> {
+        for (int j = 1; j <= i; j++) {
+            if (i % j == 0) {
+                emit.accept("x" + j);
+            }
+        }
+    };
+
+    private static List<String> expectedAtLeast(int minCount) {
+        return IntStream.rangeClosed(1, data.size())
+            .filter(j -> data.size() / j >= minCount)
+            .mapToObj(j -> "x" + j)
+            .sorted()
+            .collect(Collectors.toList());
+    }
+
+    public void testFrequentIsExact() {
+        for (int numThreads : new int[]{1, 3}) {
+            Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-count-test", numThreads);
+            try {
+                assertEquals(ShardedCounter.frequent(data, divisors, 10, 7, null, mrOpts), expectedAtLeast(10));
+                assertEquals(ShardedCounter.frequent(data, divisors, 1, 7, null, mrOpts), expectedAtLeast(1));
+            } finally {
+                Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    public void testSketchDoesNotChangeResult() {
+        Parallel.MROpts mrOpts = Parallel.MROpts.withIdAndThreads("mr-count-test", 2);
+        try {
+            // a narrow sketch has plenty of collisions, which only cost exact counters
+            CountMinSketch sketch = new CountMinSketch(64, 3);
+            assertEquals(ShardedCounter.frequent(data, divisors, 20, 4, sketch, mrOpts), expectedAtLeast(20));
+        } finally {
+            Parallel.shutdownExecutor(mrOpts.executorService, Long.MAX_VALUE);
+        }
+    }
+
+    public void testCountMinSketchNeverUndercounts() {
+        CountMinSketch sketch = new CountMinSketch(32, 4);
+        Map<String, Integer> counts = new HashMap<>();
+        Random rand = new Random(0L);
+        for (int idx = 0; idx < 5000; idx++) {
+            String elem = "e" + rand.nextInt(200);
+            sketch.add(elem);
+            counts.merge(elem, 1, Integer::sum);
+        }
+        counts.forEach((elem, count) -> assertTrue(sketch.estimate(elem) >= count));
+        assertEquals(sketch.estimate("never-added"), 0, 5000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMismatchedShardsThrow() {
+        List<ShardedCounter<String>> counters = Arrays.asList(new ShardedCounter<>(2), new ShardedCounter<>(3));
+        ShardedCounter.atLeast(counters, 1, new Parallel.MROpts());
+    }
+}